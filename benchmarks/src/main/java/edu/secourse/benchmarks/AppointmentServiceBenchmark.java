@@ -0,0 +1,119 @@
+package edu.secourse.benchmarks;
+
+import edu.secourse.exceptions.StaleAppointmentException;
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.services.AppointmentService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks AppointmentService point lookups, time range queries and reschedules at several table sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx4g"})
+public class AppointmentServiceBenchmark {
+    private static final int DOCTORS = 100;
+    private static final long BASE = 1_800_000_000_000L;
+    private static final long SLOT = 30 * 60_000L;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private AppointmentService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new AppointmentService();
+        Patient patient = new Patient(1, "patient", "Password1", "Patient", "patient@test.com");
+        Doctor[] doctors = new Doctor[DOCTORS];
+        for (int i = 0; i < DOCTORS; i++) {
+            doctors[i] = new Doctor(i + 2, "doctor" + i, "Password1", "Doctor", "doctor@test.com");
+        }
+
+        // each doctor gets back to back appointments, so every id has its own time
+        for (int i = 0; i < size; i++) {
+            service.createAppointment(patient, doctors[i % DOCTORS], new Date(BASE + (i / DOCTORS) * SLOT),
+                    Appointment.Status.ACTIVE);
+        }
+    }
+
+    @Benchmark
+    public Appointment getAppointment() {
+        return service.getAppointment(randomId());
+    }
+
+    @Benchmark
+    public ArrayList<Appointment> getNextAppointments() {
+        return service.getNextAppointments(randomTime(), 10);
+    }
+
+    @Benchmark
+    public ArrayList<Appointment> getDoctorDay() {
+        return service.getDoctorAppointmentsOn(2 + ThreadLocalRandom.current().nextInt(DOCTORS), randomTime());
+    }
+
+    @Benchmark
+    public void cancelAndRestore() {
+        toggleStatus();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public Appointment readHeavyGet() {
+        return service.getAppointment(randomId());
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public void readHeavyWrite() {
+        toggleStatus();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public Appointment writeHeavyGet() {
+        return service.getAppointment(randomId());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public void writeHeavyWrite() {
+        toggleStatus();
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+
+    private Date randomTime() {
+        return new Date(BASE + ThreadLocalRandom.current().nextLong((size / DOCTORS + 1) * SLOT));
+    }
+
+    /**
+     * Flips a random appointment between cancelled and active, which moves it out of or into the interval index.
+     * Another writer may flip the same appointment first, in which case this one loses and moves on.
+     */
+    private void toggleStatus() {
+        Appointment appointment = service.getAppointment(randomId());
+        try {
+            service.updateAppointment(appointment.withStatus(appointment.getStatus() == Appointment.Status.ACTIVE
+                    ? Appointment.Status.CANCELLED
+                    : Appointment.Status.ACTIVE));
+        } catch (StaleAppointmentException ignored) {
+        }
+    }
+}
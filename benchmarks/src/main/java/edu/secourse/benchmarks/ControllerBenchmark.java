@@ -0,0 +1,85 @@
+package edu.secourse.benchmarks;
+
+import edu.secourse.controllers.AppointmentController;
+import edu.secourse.controllers.UserController;
+import edu.secourse.models.Appointment;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.UserService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks the controller paths, which add input validation and role checks on top of the services.
+ * Passwords are hashed with a single PBKDF2 iteration, so setup and writes measure the service rather than the hash;
+ * PasswordHasherBenchmark measures hashing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx4g", "-Dportal.passwordIterations=1"})
+public class ControllerBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private UserController userController;
+    private AppointmentController appointmentController;
+    private int[] patientIds;
+    private int doctorId;
+    private final AtomicLong nextSlot = new AtomicLong(1_800_000_000_000L);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserService userService = new UserService();
+        userController = new UserController(userService);
+        appointmentController = new AppointmentController(new AppointmentService(), userService);
+
+        doctorId = userService.createUser("doctor", "Password1", "Doctor", "d@test.com", "doctor").getAccNum();
+        patientIds = new int[size - 1];
+        for (int i = 0; i < patientIds.length; i++) {
+            patientIds[i] = userService.createUser("patient" + i, "Password1", "Patient", "p" + i + "@test.com", "patient").getAccNum();
+        }
+    }
+
+    @Benchmark
+    public User createAndRemoveUser() {
+        User user = userController.createUser("benchUser", "Password123", "Bench User", "bench@test.com", "patient");
+        userController.removeUser(user.getAccNum());
+        return user;
+    }
+
+    @Benchmark
+    public void updatePassword() {
+        userController.updatePassword(randomPatient(), "NewPassword456");
+    }
+
+    @Benchmark
+    public void updateName() {
+        userController.updateName(randomPatient(), "Renamed Patient");
+    }
+
+    @Benchmark
+    public void updateEmailAddress() {
+        // each patient gets its own address, since addresses are unique
+        int patientId = randomPatient();
+        userController.updateEmailAddress(patientId, "renamed" + patientId + "@test.com");
+    }
+
+    @Benchmark
+    public Appointment createAndDeleteAppointment() {
+        Appointment appointment = appointmentController.createAppointment(
+                randomPatient(), doctorId, new Date(nextSlot.getAndAdd(30 * 60_000L)));
+        appointmentController.deleteAppointment(appointment.getAppointmentId());
+        return appointment;
+    }
+
+    private int randomPatient() {
+        return patientIds[ThreadLocalRandom.current().nextInt(patientIds.length)];
+    }
+}
@@ -0,0 +1,60 @@
+package edu.secourse.benchmarks;
+
+import edu.secourse.services.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks password hashing at several iteration counts, to pick a count that keeps user creation and imports
+ * fast enough. hashAll measures a batch of the size an import hands over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"10000", "100000", "600000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private String stored;
+    private List<String> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = new PasswordHasher(iterations, Runtime.getRuntime().availableProcessors());
+        stored = hasher.hash("Password123");
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add("Password" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        hasher.close();
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash("Password123");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean verify() {
+        return hasher.verify("Password123", stored);
+    }
+
+    @Benchmark
+    public List<String> hashAll() {
+        return hasher.hashAll(batch);
+    }
+}
@@ -0,0 +1,117 @@
+package edu.secourse.benchmarks;
+
+import edu.secourse.models.User;
+import edu.secourse.services.UserService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks UserService lookups, name searches and creates at several table sizes.
+ * The write path deletes an existing user before creating one, so the table size stays constant during a run.
+ * Passwords are hashed with a single PBKDF2 iteration, so setup and writes measure the service rather than the hash;
+ * PasswordHasherBenchmark measures hashing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx4g", "-Dportal.passwordIterations=1"})
+public class UserServiceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private static final String[] FIRST_NAMES = {"Alice", "Bernard", "Carla", "Dmitri", "Elena", "Farid", "Grace",
+            "Hiroshi", "Ines", "Jonathan", "Kwame", "Lucia", "Mateo", "Nadia", "Oscar", "Priya"};
+    private static final String[] LAST_NAMES = {"Smith", "Nguyen", "Schmidt", "Johnson", "Okafor", "Rossi", "Tanaka",
+            "Kowalski", "Haddad", "Fernandez", "Larsen", "Moreau", "Novak", "Singh", "Walker", "Young"};
+    // exact, prefix, misspelled and two-word queries
+    private static final String[] QUERIES = {"alice", "bern", "jonatan", "schmit", "lucia ros", "priya sing"};
+
+    private UserService service;
+    private AtomicIntegerArray ids;
+    private final AtomicLong replacements = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new UserService();
+        ids = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            ids.set(i, service.createUser("user" + i, "Password1", name(i), "user" + i + "@test.com", "patient").getAccNum());
+        }
+    }
+
+    @Benchmark
+    public User getUser() {
+        return service.getUser(randomId());
+    }
+
+    @Benchmark
+    public List<User> searchUsers() {
+        return service.searchUsers(QUERIES[ThreadLocalRandom.current().nextInt(QUERIES.length)], 10);
+    }
+
+    @Benchmark
+    public User replaceUser() {
+        return churn();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public User readHeavyGet() {
+        return service.getUser(randomId());
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public User readHeavyWrite() {
+        return churn();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public User writeHeavyGet() {
+        return service.getUser(randomId());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public User writeHeavyWrite() {
+        return churn();
+    }
+
+    private static String name(int i) {
+        return FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+    }
+
+    private int randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    /**
+     * Deletes a random user and creates a replacement in its place
+     * @return The new user, or null if another thread deleted the same user first
+     */
+    private User churn() {
+        int slot = ThreadLocalRandom.current().nextInt(size);
+        if (!service.deleteUser(ids.get(slot))) {
+            return null;
+        }
+
+        // usernames and emails are unique, so each replacement needs its own
+        long n = replacements.incrementAndGet();
+        User user = service.createUser("replacement" + n, "Password1", name((int) n), "replacement" + n + "@test.com",
+                "patient");
+        ids.set(slot, user.getAccNum());
+        return user;
+    }
+}
@@ -2,25 +2,67 @@ package edu.secourse;
 
 import edu.secourse.controllers.AppointmentController;
 import edu.secourse.controllers.UserController;
+import edu.secourse.exceptions.AppointmentConflictException;
 import edu.secourse.exceptions.AppointmentDoesNotExistException;
+import edu.secourse.exceptions.DuplicateUserException;
+import edu.secourse.exceptions.InvalidArgumentException;
 import edu.secourse.exceptions.InvalidIdException;
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.MetricsReporter;
 import edu.secourse.models.Appointment;
 import edu.secourse.models.User;
+import edu.secourse.persistence.BulkTransfer;
+import edu.secourse.persistence.FileUserRepository;
+import edu.secourse.persistence.MappedAppointmentTable;
+import edu.secourse.persistence.PortalStore;
+import edu.secourse.server.PortalServer;
 import edu.secourse.services.AppointmentService;
+import edu.secourse.services.CachingUserRepository;
+import edu.secourse.services.InMemoryUserRepository;
+import edu.secourse.services.PermutationIdAllocator;
+import edu.secourse.services.ReminderScheduler;
+import edu.secourse.services.ReminderSink;
+import edu.secourse.services.UserRepository;
 import edu.secourse.services.UserService;
-import edu.secourse.types.InputHandler;
+import edu.secourse.types.CommandRouter;
 import edu.secourse.types.Pair;
 
-import java.util.Arrays;
-import java.util.Date;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Program entry point. Handles interactions from the Admin. It is
  * assumed that the Admin is already logged in.
  */
 public class Main {
-    private static InputHandler HANDLERS = new InputHandler();
+    private static final long SNAPSHOT_MINUTES = 10;
+    private static final int BATCH_SIZE = 1024;
+    private static final int SEARCH_RESULTS = 10;
+    private static final long REMINDER_TICK_MILLIS = 1000;
+    private static final int BATCH_QUEUE_SIZE = 16;
+    private static final int BATCH_BUFFER_SIZE = 1 << 16;
+    // queued by the batch parser after the last batch
+    private static final List<String> END_OF_BATCHES = new ArrayList<>();
+
+    private static final CommandRouter<Pair<UserController, AppointmentController>> COMMANDS = new CommandRouter<>();
 
     /*
     Defines the input handlers for user commands
@@ -29,25 +71,25 @@ public class Main {
         /*
         Handlers for user
          */
-        HANDLERS.put("user create", (Pair<UserController, AppointmentController> pair, String[] data) -> {
+        COMMANDS.register("user create", (pair, args, out) -> {
             User newUser = pair.t().createUser(
-                    data[2],
-                    data[3],
-                    joinStringsAfter(6, data),
-                    data[4],
-                    data[5]
+                    args.getString(0),
+                    args.getString(1),
+                    args.getRest(4),
+                    args.getString(2),
+                    args.getString(3)
             );
 
-            System.out.printf("Created user with ID '%d'\n", newUser.getAccNum());
+            out.printf("Created user with ID '%d'\n", newUser.getAccNum());
         });
 
-        HANDLERS.put("user delete", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            pair.t().removeUser(Integer.parseInt(data[2]));
+        COMMANDS.register("user delete", (pair, args, out) -> {
+            pair.t().removeUser(args.getInt(0));
         });
 
-        HANDLERS.put("user show", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            User user = pair.t().getUser(Integer.parseInt(data[2]));
-            System.out.printf(
+        COMMANDS.register("user show", (pair, args, out) -> {
+            User user = pair.t().getUser(args.getInt(0));
+            out.printf(
                     "ID: %d\nUsername: %s\nName: %s\nRole: %s\nEmail: %s\n",
                     user.getAccNum(),
                     user.getUsername(),
@@ -57,82 +99,114 @@ public class Main {
             );
         });
 
-        HANDLERS.put("user username", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            if (data.length == 3) {
-                System.out.printf(
-                        "User '%s' has username '%s'.\n",
-                        data[2],
-                        pair.t().getUser(Integer.parseInt(data[2])).getUsername()
+        COMMANDS.register("user username", (pair, args, out) -> {
+            if (args.size() == 1) {
+                out.printf(
+                        "User '%d' has username '%s'.\n",
+                        args.getInt(0),
+                        pair.t().getUser(args.getInt(0)).getUsername()
                 );
                 return;
             }
-            pair.t().updateUsername(Integer.parseInt(data[2]), data[3]);
+            pair.t().updateUsername(args.getInt(0), args.getString(1));
         });
 
-        HANDLERS.put("user password", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            if (data.length == 3) {
-                System.out.printf(
-                        "User '%s' has password '%s'.\n",
-                        data[2],
-                        pair.t().getUser(Integer.parseInt(data[2])).getPassword()
-                );
+        COMMANDS.register("user password", (pair, args, out) -> {
+            if (args.size() == 1) {
+                // only a hash is stored, so there is nothing to show
+                pair.t().getUser(args.getInt(0));
+                out.println("Passwords are stored hashed and cannot be shown.");
                 return;
             }
-            pair.t().updatePassword(Integer.parseInt(data[2]), data[3]);
+            pair.t().updatePassword(args.getInt(0), args.getString(1));
+        });
+
+        COMMANDS.register("user login", (pair, args, out) -> {
+            if (pair.t().verifyPassword(args.getString(0), args.getString(1))) {
+                out.println("Username and password are correct.");
+            } else {
+                out.println("Username or password is incorrect.");
+            }
         });
 
-        HANDLERS.put("user name", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            if (data.length == 3) {
-                System.out.printf(
-                        "User '%s' has name '%s'.\n",
-                        data[2],
-                        pair.t().getUser(Integer.parseInt(data[2])).getName()
+        COMMANDS.register("user name", (pair, args, out) -> {
+            if (args.size() == 1) {
+                out.printf(
+                        "User '%d' has name '%s'.\n",
+                        args.getInt(0),
+                        pair.t().getUser(args.getInt(0)).getName()
                 );
                 return;
             }
-            pair.t().updateName(Integer.parseInt(data[2]), joinStringsAfter(3, data));
+            pair.t().updateName(args.getInt(0), args.getRest(1));
         });
 
-        HANDLERS.put("user email", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            if (data.length == 3) {
-                System.out.printf(
-                        "User '%s' has email '%s'.\n",
-                        data[2],
-                        pair.t().getUser(Integer.parseInt(data[2])).getEmail()
+        COMMANDS.register("user email", (pair, args, out) -> {
+            if (args.size() == 1) {
+                out.printf(
+                        "User '%d' has email '%s'.\n",
+                        args.getInt(0),
+                        pair.t().getUser(args.getInt(0)).getEmail()
                 );
                 return;
             }
-            pair.t().updateEmailAddress(Integer.parseInt(data[2]), data[3]);
+            pair.t().updateEmailAddress(args.getInt(0), args.getString(1));
+        });
+
+        COMMANDS.register("user search", (pair, args, out) -> {
+            printUsers(pair.t().searchUsers(args.getRest(0), SEARCH_RESULTS), out);
+        });
+
+        COMMANDS.register("user list", (pair, args, out) -> {
+            printUsers(pair.t().getUsersByRole(args.getString(0)), out);
+        });
+
+        COMMANDS.register("user import", (pair, args, out) -> {
+            printImportResult(importOrExport(() -> pair.t().importUsers(Path.of(args.getRest(0)))), out);
+        });
+
+        COMMANDS.register("user export", (pair, args, out) -> {
+            long count = importOrExport(() -> pair.t().exportUsers(Path.of(args.getRest(0))));
+            out.printf("Exported %d users.\n", count);
         });
 
         /*
         Handlers for appointment
          */
-        HANDLERS.put("appt create", (Pair<UserController, AppointmentController> pair, String[] data) -> {
+        COMMANDS.register("appt create", (pair, args, out) -> {
             Appointment newAppt = pair.k().createAppointment(
-                    Integer.parseInt(data[2]),
-                    Integer.parseInt(data[3]),
-                    new Date(joinStringsAfter(4, data))
+                    args.getInt(0),
+                    args.getInt(1),
+                    args.getDate(2)
             );
 
-            System.out.printf("Created appointment with ID '%d'\n", newAppt.getAppointmentId());
+            out.printf("Created appointment with ID '%d'\n", newAppt.getAppointmentId());
+        });
+
+        COMMANDS.register("appt cancel", (pair, args, out) -> {
+            pair.k().cancelAppointment(args.getInt(0));
         });
 
-        HANDLERS.put("appt cancel", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            pair.k().cancelAppointment(Integer.parseInt(data[2]));
+        COMMANDS.register("appt delete", (pair, args, out) -> {
+            pair.k().deleteAppointment(args.getInt(0));
         });
 
-        HANDLERS.put("appt delete", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            pair.k().deleteAppointment(Integer.parseInt(data[2]));
+        COMMANDS.register("appt date", (pair, args, out) -> {
+            pair.k().rescheduleAppointment(args.getInt(0), args.getDate(1));
         });
 
-        HANDLERS.put("appt date", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            pair.k().rescheduleAppointment(Integer.parseInt(data[2]), new Date(joinStringsAfter(3, data)));
+        COMMANDS.register("appt import", (pair, args, out) -> {
+            printImportResult(importOrExport(() -> pair.k().importAppointments(Path.of(args.getRest(0)))), out);
         });
 
-        HANDLERS.put("appt show", (Pair<UserController, AppointmentController> pair, String[] data) -> {
-            Appointment appt = pair.k().getAppointment(Integer.parseInt(data[2]));
-            System.out.printf(
+        COMMANDS.register("appt export", (pair, args, out) -> {
+            long count = importOrExport(() -> pair.k().exportAppointments(Path.of(args.getRest(0))));
+            out.printf("Exported %d appointments.\n", count);
+        });
+
+        COMMANDS.register("appt show", (pair, args, out) -> {
+            Appointment appt = pair.k().getAppointment(args.getInt(0));
+            out.printf(
                     "ID: %s\nPatient ID: %d\nDoctor ID: %d\nDate: %s\nStatus: %s\n",
                     appt.getAppointmentId(),
                     appt.getPatient().getAccNum(),
@@ -141,63 +215,290 @@ public class Main {
                     appt.getStatus()
             );
         });
+
+        /*
+        Handlers for metrics
+         */
+        COMMANDS.register("stats", (pair, args, out) -> {
+            if (!Metrics.isEnabled()) {
+                out.println("Metrics are off; turn them on with \"stats on\".");
+            }
+            Metrics.report(out);
+        });
+
+        COMMANDS.register("stats on", (pair, args, out) -> {
+            Metrics.setEnabled(true);
+        });
+
+        COMMANDS.register("stats off", (pair, args, out) -> {
+            Metrics.setEnabled(false);
+        });
+
+        COMMANDS.register("stats reset", (pair, args, out) -> {
+            Metrics.reset();
+        });
     }
 
     /**
-     * Program entry point
+     * Program entry point. With "--batch &lt;file&gt;", runs the commands in the file (or standard input for "-")
+     * instead of prompting for them. With "--server &lt;port&gt;", serves the commands to network clients instead.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // get environment
         Pair<UserController, AppointmentController> environment = generateEnvironment();
 
+        if (args.length == 2 && "--batch".equals(args[0])) {
+            runBatch(environment, args[1]);
+            return;
+        }
+        if (args.length == 2 && "--server".equals(args[0])) {
+            PortalServer server = PortalServer.start(new InetSocketAddress(Integer.parseInt(args[1])),
+                    (line, out) -> execute(environment, line, out));
+            System.out.printf("Listening on port %d\n", server.getPort());
+            return;
+        }
+
         // command loop
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("\n> ");
-            String[] input = scanner.nextLine().split(" ");
+            String line = scanner.nextLine();
 
-            if ("exit".equals(input[0])) {
+            if (PortalServer.isExit(line)) {
                 break;
             }
 
-            if (input.length < 2 || !HANDLERS.containsKey(input[0] + " " + input[1])) {
-                System.out.println("Invalid request.");
-                continue;
+            execute(environment, line, System.out);
+        }
+    }
+
+    /**
+     * Runs one command, printing its result. If the line is not a command, lists the commands it could be the start of.
+     * @param environment The controllers
+     * @param line The command line
+     * @param out Where the result is printed
+     * @return True if the command ran successfully
+     */
+    private static boolean execute(Pair<UserController, AppointmentController> environment, String line,
+                                   PrintStream out) {
+        CommandRouter.Invocation<Pair<UserController, AppointmentController>> invocation = COMMANDS.parse(line);
+        if (invocation == null) {
+            out.println("Invalid request.");
+            List<String> completions = line.isBlank() ? List.of() : COMMANDS.complete(line.strip());
+            if (!completions.isEmpty()) {
+                out.println("Did you mean: " + String.join(", ", completions));
+            }
+            return false;
+        }
+
+        try {
+            invocation.run(environment, out);
+            out.println("\n*Operation OK*");
+            return true;
+        } catch (Exception ex) {
+            if (ex instanceof InvalidIdException || ex instanceof AppointmentDoesNotExistException
+                    || ex instanceof AppointmentConflictException || ex instanceof InvalidArgumentException
+                    || ex instanceof DuplicateUserException || ex instanceof UncheckedIOException) {
+                out.println("An error occurred while executing your command:\n" + ex.getMessage());
+            }
+            out.println("The application failed to execute your command. Check your query and ensure it is formatted correctly.");
+            return false;
+        }
+    }
+
+    /**
+     * Runs every command in a file, in order. A reader thread reads lines into batches while this thread runs the
+     * previous batch, and output goes through a large buffer instead of being flushed per line.
+     * Stops at the end of the file or at an "exit" line, then prints throughput statistics.
+     * @param environment The controllers
+     * @param source The command file, or "-" for standard input
+     */
+    private static void runBatch(Pair<UserController, AppointmentController> environment, String source)
+            throws IOException {
+        BufferedReader reader = "-".equals(source)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BATCH_BUFFER_SIZE)
+                : Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8);
+        BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(BATCH_QUEUE_SIZE);
+        AtomicReference<IOException> readFailure = new AtomicReference<>();
+
+        Thread parser = new Thread(() -> {
+            try (reader) {
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                String line;
+                while ((line = reader.readLine()) != null && !PortalServer.isExit(line)) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    batch.add(line);
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.put(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batches.put(batch);
+                }
+            } catch (IOException ex) {
+                readFailure.set(ex);
+            } catch (InterruptedException ex) {
+                return;
             }
 
             try {
-                HANDLERS.get(input[0] + " " + input[1]).accept(environment, input);
-                System.out.println("\n*Operation OK*");
-            } catch (Exception ex) {
-                if (ex instanceof InvalidIdException || ex instanceof AppointmentDoesNotExistException) {
-                    System.out.println("An error occurred while executing your command:\n" + ex.getMessage());
+                batches.put(END_OF_BATCHES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "batch-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BATCH_BUFFER_SIZE), false,
+                StandardCharsets.UTF_8);
+
+        long commands = 0;
+        long failed = 0;
+        long started = System.nanoTime();
+        try {
+            while (true) {
+                List<String> batch = batches.take();
+                if (batch == END_OF_BATCHES) {
+                    break;
+                }
+                for (String line : batch) {
+                    commands++;
+                    if (!execute(environment, line, out)) {
+                        failed++;
+                    }
                 }
-                System.out.println("The application failed to execute your command. Check your query and ensure it is formatted correctly.");
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            parser.interrupt();
+            out.flush();
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Ran %d commands (%d failed) in %.3f s, %.0f commands/s%n",
+                commands, failed, seconds, commands / Math.max(seconds, 1e-9));
+        if (readFailure.get() != null) {
+            throw readFailure.get();
         }
     }
 
     /**
-     * Joins an array of strings after a given index
-     * @param index The index to start joining
-     * @param strings The array of strings
-     * @return The strings at and after index, concatenated with " "
+     * Runs a bulk import or export, rethrowing a file error unchecked so it can run inside a handler
+     * @param transfer The import or export
+     * @return The transfer's result
      */
-    private static String joinStringsAfter(int index, String[] strings) {
-        return String.join(" ", Arrays.copyOfRange(strings, index, strings.length));
+    private static <T> T importOrExport(Callable<T> transfer) {
+        try {
+            return transfer.call();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (Exception ex) {
+            throw ex instanceof RuntimeException ? (RuntimeException) ex : new RuntimeException(ex);
+        }
+    }
+
+    private static void printUsers(List<User> users, PrintStream out) {
+        if (users.isEmpty()) {
+            out.println("No users found.");
+        }
+        for (User user : users) {
+            out.printf("%d\t%s\t%s\t%s\n", user.getAccNum(), user.getUsername(), user.getName(), user.getRole());
+        }
+    }
+
+    private static void printImportResult(BulkTransfer.Result result, PrintStream out) {
+        out.printf("Imported %d, rejected %d.\n", result.getImported(), result.getRejected());
+        for (String error : result.getErrors()) {
+            out.println(error);
+        }
     }
 
     /**
-     * Generates a test environment
+     * Generates the environment, restoring users and appointments from the snapshot and log in the data directory.
+     * The directory is "data" unless the portal.data system property says otherwise. Setting the
+     * portal.mappedAppointments system property keeps appointments in a memory-mapped table instead of on the heap,
+     * and setting portal.userCache to a number keeps users in a file with that many patients cached in memory.
+     * Setting portal.metricsFile turns metrics on and writes them to that file every portal.metricsSeconds
+     * seconds (60 by default) and on exit. Setting portal.reminderFile sends a reminder portal.reminderMinutes
+     * minutes (60 by default) before each active appointment, written as a line in that file.
      * @return The UserController and AppointmentController as a Pair
      */
     private static Pair<UserController, AppointmentController> generateEnvironment() {
-        UserService userService = new UserService();
-        AppointmentService appointmentService = new AppointmentService();
+        Path dataDirectory = Path.of(System.getProperty("portal.data", "data"));
+        try {
+            PortalStore store = PortalStore.open(dataDirectory);
+            Integer userCache = Integer.getInteger("portal.userCache");
+            UserRepository users = new InMemoryUserRepository();
+            if (userCache != null) {
+                CachingUserRepository cache = new CachingUserRepository(
+                        new FileUserRepository(dataDirectory.resolve("users.table")), userCache);
+                Metrics.gauge("CachingUserRepository.hits", cache::getHitCount);
+                Metrics.gauge("CachingUserRepository.misses", cache::getMissCount);
+                Metrics.gauge("CachingUserRepository.evictions", cache::getEvictionCount);
+                users = cache;
+            }
+            UserService userService = new UserService(new PermutationIdAllocator(store.getIdKey(), 0), users);
+            Metrics.gauge("UserService.patients", userService::getPatientCount);
+            Metrics.gauge("UserService.doctors", userService::getDoctorCount);
+            Metrics.gauge("UserService.admins", userService::getAdminCount);
+            AppointmentService appointmentService = Boolean.getBoolean("portal.mappedAppointments")
+                    ? new AppointmentService(new MappedAppointmentTable(
+                            dataDirectory.resolve("appointments.table"), userService::getUser))
+                    : new AppointmentService();
+
+            store.load(userService, appointmentService);
+            store.startSnapshots(SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+
+            String metricsFile = System.getProperty("portal.metricsFile");
+            if (metricsFile != null) {
+                Metrics.setEnabled(true);
+            }
+            MetricsReporter reporter = metricsFile == null ? null : MetricsReporter.start(Path.of(metricsFile),
+                    Long.getLong("portal.metricsSeconds", 60), TimeUnit.SECONDS);
+
+            String reminderFile = System.getProperty("portal.reminderFile");
+            ReminderScheduler reminders = reminderFile == null ? null : ReminderScheduler.start(
+                    ReminderSink.toFile(Path.of(reminderFile)),
+                    TimeUnit.MINUTES.toMillis(Long.getLong("portal.reminderMinutes", 60)),
+                    REMINDER_TICK_MILLIS);
+            if (reminders != null) {
+                // registered before the loaded appointments are scheduled, so no change in between is missed
+                appointmentService.addListener(reminders);
+                appointmentService.snapshot().forEach(reminders::onAppointmentSaved);
+                Metrics.gauge("ReminderScheduler.pending", reminders::getPendingCount);
+            }
 
-        return new Pair<>(
-                new UserController(userService),
-                new AppointmentController(appointmentService, userService)
-        );
+            // writes a final snapshot when the program exits, so the next start has no log to replay
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException ex) {
+                    System.err.println("Failed to save data: " + ex.getMessage());
+                }
+                if (reminders != null) {
+                    reminders.close();
+                }
+                if (reporter != null) {
+                    try {
+                        reporter.close();
+                    } catch (IOException ex) {
+                        System.err.println("Failed to write metrics: " + ex.getMessage());
+                    }
+                }
+            }));
+
+            return new Pair<>(
+                    new UserController(userService),
+                    new AppointmentController(appointmentService, userService)
+            );
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to load data from " + dataDirectory, ex);
+        }
     }
 }
@@ -2,13 +2,19 @@ package edu.secourse.controllers;
 
 import edu.secourse.exceptions.AppointmentDoesNotExistException;
 import edu.secourse.exceptions.InvalidIdException;
+import edu.secourse.exceptions.StaleAppointmentException;
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.Operation;
 import edu.secourse.models.Appointment;
 import edu.secourse.models.Doctor;
 import edu.secourse.models.Patient;
-import edu.secourse.models.User;
+import edu.secourse.persistence.BulkTransfer;
 import edu.secourse.services.AppointmentService;
 import edu.secourse.services.UserService;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Date;
 
 /**
@@ -17,6 +23,20 @@ import java.util.Date;
  * @author Matt Robinson
  */
 public class AppointmentController {
+    private static final Operation CREATE_APPOINTMENT = Metrics.operation("AppointmentController.createAppointment");
+    private static final Operation CANCEL_APPOINTMENT = Metrics.operation("AppointmentController.cancelAppointment");
+    private static final Operation DELETE_APPOINTMENT = Metrics.operation("AppointmentController.deleteAppointment");
+    private static final Operation RESCHEDULE_APPOINTMENT = Metrics.operation("AppointmentController.rescheduleAppointment");
+    private static final Operation GET_APPOINTMENT = Metrics.operation("AppointmentController.getAppointment");
+    private static final Operation GET_PATIENT_APPOINTMENTS = Metrics.operation("AppointmentController.getPatientAppointments");
+    private static final Operation GET_DOCTOR_APPOINTMENTS = Metrics.operation("AppointmentController.getDoctorAppointments");
+    private static final Operation GET_DOCTOR_SCHEDULE = Metrics.operation("AppointmentController.getDoctorSchedule");
+    private static final Operation GET_APPOINTMENTS_BETWEEN = Metrics.operation("AppointmentController.getAppointmentsBetween");
+    private static final Operation GET_NEXT_APPOINTMENTS = Metrics.operation("AppointmentController.getNextAppointments");
+    private static final Operation FIND_NEXT_FREE_SLOT = Metrics.operation("AppointmentController.findNextFreeSlot");
+    private static final Operation IMPORT_APPOINTMENTS = Metrics.operation("AppointmentController.importAppointments");
+    private static final Operation EXPORT_APPOINTMENTS = Metrics.operation("AppointmentController.exportAppointments");
+
     private final AppointmentService appointmentService;
     private final UserService userService;
 
@@ -38,27 +58,43 @@ public class AppointmentController {
      * @return If successful, the Appointment model for the created appointment.
      */
     public Appointment createAppointment(int patientId, int doctorId, Date startTime) {
-        // check that patient exists
-        User patient = userService.getUser(patientId);
-        if (!(patient instanceof Patient)) {
-            throw new InvalidIdException(String.format(
-                    "User with ID %d either doesn't exist or isn't a patient.",
-                    patientId
-            ));
-        }
+        return createAppointment(patientId, doctorId, startTime, Appointment.DEFAULT_DURATION_MINUTES);
+    }
 
-        // check that doctor exists
-        User doctor = userService.getUser(doctorId);
-        if (!(doctor instanceof Doctor)) {
-            throw new InvalidIdException(String.format(
-                    "User with ID %d either doesn't exist or isn't a doctor.",
-                    doctorId
-            ));
-        }
+    /**
+     * Creates a new appointment with the given length.
+     * @param patientId The ID of the patient
+     * @param doctorId The ID of the doctor
+     * @param startTime The starting time for the appointment
+     * @param durationMinutes The length of the appointment in minutes
+     * @return If successful, the Appointment model for the created appointment.
+     */
+    public Appointment createAppointment(int patientId, int doctorId, Date startTime, int durationMinutes) {
+        long started = CREATE_APPOINTMENT.start();
+        try {
+            // check that patient exists
+            Patient patient = userService.getPatient(patientId);
+            if (patient == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a patient.",
+                        patientId
+                ));
+            }
+
+            // check that doctor exists
+            Doctor doctor = userService.getDoctor(doctorId);
+            if (doctor == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a doctor.",
+                        doctorId
+                ));
+            }
 
-        // create appointment
-        return appointmentService.createAppointment(
-                (Patient) patient, (Doctor) doctor, startTime, Appointment.Status.ACTIVE);
+            // create appointment, rejecting it if the doctor is already booked
+            return appointmentService.bookAppointment(patient, doctor, startTime, durationMinutes);
+        } finally {
+            CREATE_APPOINTMENT.stop(started);
+        }
     }
 
     /**
@@ -66,26 +102,36 @@ public class AppointmentController {
      * @param appointmentId The ID of the appointment.
      */
     public void cancelAppointment(int appointmentId) {
-        // check that appointment exists
-        Appointment appt = appointmentService.getAppointment(appointmentId);
-        if (appt == null) {
-            throw new InvalidIdException(String.format(
-                    "Appointment with ID %d doesn't exist.",
-                    appointmentId
-            ));
-        }
+        long started = CANCEL_APPOINTMENT.start();
+        try {
+            // check that appointment exists
+            while (true) {
+                Appointment appt = appointmentService.getAppointment(appointmentId);
+                if (appt == null) {
+                    throw new InvalidIdException(String.format(
+                            "Appointment with ID %d doesn't exist.",
+                            appointmentId
+                    ));
+                }
 
-        // check that appointment isn't cancelled
-        if (appt.getStatus() == Appointment.Status.CANCELLED) {
-            throw new AppointmentDoesNotExistException(String.format(
-                    "Appointment with ID %d was already cancelled or no longer exists.",
-                    appointmentId
-            ));
-        }
+                // check that appointment isn't cancelled
+                if (appt.getStatus() == Appointment.Status.CANCELLED) {
+                    throw new AppointmentDoesNotExistException(String.format(
+                            "Appointment with ID %d was already cancelled or no longer exists.",
+                            appointmentId
+                    ));
+                }
 
-        // cancel appointment
-        appt.setStatus(Appointment.Status.CANCELLED);
-        appointmentService.updateAppointment(appt);
+                // cancel appointment, checking again if it changed since it was read
+                try {
+                    appointmentService.updateAppointment(appt.withStatus(Appointment.Status.CANCELLED));
+                    return;
+                } catch (StaleAppointmentException ignored) {
+                }
+            }
+        } finally {
+            CANCEL_APPOINTMENT.stop(started);
+        }
     }
 
     /**
@@ -93,17 +139,22 @@ public class AppointmentController {
      * @param appointmentId The ID of the appointment.
      */
     public void deleteAppointment(int appointmentId) {
-        // check that appointment exists
-        Appointment appt = appointmentService.getAppointment(appointmentId);
-        if (appt == null) {
-            throw new InvalidIdException(String.format(
-                    "Appointment with ID %d doesn't exist.",
-                    appointmentId
-            ));
-        }
+        long started = DELETE_APPOINTMENT.start();
+        try {
+            // check that appointment exists
+            Appointment appt = appointmentService.getAppointment(appointmentId);
+            if (appt == null) {
+                throw new InvalidIdException(String.format(
+                        "Appointment with ID %d doesn't exist.",
+                        appointmentId
+                ));
+            }
 
-        // delete appointment
-        appointmentService.deleteAppointment(appointmentId);
+            // delete appointment
+            appointmentService.deleteAppointment(appointmentId);
+        } finally {
+            DELETE_APPOINTMENT.stop(started);
+        }
     }
 
     /**
@@ -112,18 +163,22 @@ public class AppointmentController {
      * @param startTime The new starting time of the appointment.
      */
     public void rescheduleAppointment(int appointmentId, Date startTime) {
-        // check that appointment exists
-        Appointment appt = appointmentService.getAppointment(appointmentId);
-        if (appt == null) {
-            throw new InvalidIdException(String.format(
-                    "Appointment with ID %d doesn't exist.",
-                    appointmentId
-            ));
-        }
+        long started = RESCHEDULE_APPOINTMENT.start();
+        try {
+            // check that appointment exists
+            Appointment appt = appointmentService.getAppointment(appointmentId);
+            if (appt == null) {
+                throw new InvalidIdException(String.format(
+                        "Appointment with ID %d doesn't exist.",
+                        appointmentId
+                ));
+            }
 
-        // change start time
-        appt.setStartDateTime(startTime);
-        appointmentService.updateAppointment(appt);
+            // change start time, rejecting it if the doctor is already booked
+            appointmentService.rescheduleAppointment(appointmentId, startTime);
+        } finally {
+            RESCHEDULE_APPOINTMENT.stop(started);
+        }
     }
 
     /**
@@ -132,15 +187,171 @@ public class AppointmentController {
      * @return The appointment model
      */
     public Appointment getAppointment(int appointmentId) {
-        // check that appointment exists
-        Appointment appt = appointmentService.getAppointment(appointmentId);
-        if (appt == null) {
-            throw new InvalidIdException(String.format(
-                    "Appointment with ID %d doesn't exist.",
-                    appointmentId
-            ));
+        long started = GET_APPOINTMENT.start();
+        try {
+            // check that appointment exists
+            Appointment appt = appointmentService.getAppointment(appointmentId);
+            if (appt == null) {
+                throw new InvalidIdException(String.format(
+                        "Appointment with ID %d doesn't exist.",
+                        appointmentId
+                ));
+            }
+
+            return appt;
+        } finally {
+            GET_APPOINTMENT.stop(started);
         }
+    }
 
-        return appt;
+    /**
+     * Gets every appointment booked for a patient
+     * @param patientId The ID of the patient
+     * @return The patient's appointments, ordered by start time
+     */
+    public ArrayList<Appointment> getPatientAppointments(int patientId) {
+        long started = GET_PATIENT_APPOINTMENTS.start();
+        try {
+            // check that patient exists
+            if (userService.getPatient(patientId) == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a patient.",
+                        patientId
+                ));
+            }
+
+            return appointmentService.getAppointmentsForPatient(patientId);
+        } finally {
+            GET_PATIENT_APPOINTMENTS.stop(started);
+        }
+    }
+
+    /**
+     * Gets every appointment booked with a doctor
+     * @param doctorId The ID of the doctor
+     * @return The doctor's appointments, ordered by start time
+     */
+    public ArrayList<Appointment> getDoctorAppointments(int doctorId) {
+        long started = GET_DOCTOR_APPOINTMENTS.start();
+        try {
+            // check that doctor exists
+            if (userService.getDoctor(doctorId) == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a doctor.",
+                        doctorId
+                ));
+            }
+
+            return appointmentService.getAppointmentsForDoctor(doctorId);
+        } finally {
+            GET_DOCTOR_APPOINTMENTS.stop(started);
+        }
+    }
+
+    /**
+     * Gets a doctor's appointments for one day
+     * @param doctorId The ID of the doctor
+     * @param day Any time within the day
+     * @return The doctor's appointments starting that day, ordered by start time
+     */
+    public ArrayList<Appointment> getDoctorSchedule(int doctorId, Date day) {
+        long started = GET_DOCTOR_SCHEDULE.start();
+        try {
+            // check that doctor exists
+            if (userService.getDoctor(doctorId) == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a doctor.",
+                        doctorId
+                ));
+            }
+
+            return appointmentService.getDoctorAppointmentsOn(doctorId, day);
+        } finally {
+            GET_DOCTOR_SCHEDULE.stop(started);
+        }
+    }
+
+    /**
+     * Gets every appointment starting within a time range
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @return The appointments in the range, ordered by start time
+     */
+    public ArrayList<Appointment> getAppointmentsBetween(Date from, Date to) {
+        long started = GET_APPOINTMENTS_BETWEEN.start();
+        try {
+            return appointmentService.getAppointmentsBetween(from, to);
+        } finally {
+            GET_APPOINTMENTS_BETWEEN.stop(started);
+        }
+    }
+
+    /**
+     * Gets the next appointments starting at or after a given time
+     * @param after The earliest start time to include
+     * @param count The maximum number of appointments to return
+     * @return At most count appointments, ordered by start time
+     */
+    public ArrayList<Appointment> getNextAppointments(Date after, int count) {
+        long started = GET_NEXT_APPOINTMENTS.start();
+        try {
+            return appointmentService.getNextAppointments(after, count);
+        } finally {
+            GET_NEXT_APPOINTMENTS.stop(started);
+        }
+    }
+
+    /**
+     * Finds the earliest time a doctor is free for an appointment of the given length
+     * @param doctorId The ID of the doctor
+     * @param from The earliest acceptable start time
+     * @param durationMinutes The length of the appointment in minutes
+     * @return The start of the earliest free slot at or after from
+     */
+    public Date findNextFreeSlot(int doctorId, Date from, int durationMinutes) {
+        long started = FIND_NEXT_FREE_SLOT.start();
+        try {
+            // check that doctor exists
+            if (userService.getDoctor(doctorId) == null) {
+                throw new InvalidIdException(String.format(
+                        "User with ID %d either doesn't exist or isn't a doctor.",
+                        doctorId
+                ));
+            }
+
+            return appointmentService.findNextFreeSlot(doctorId, from, durationMinutes);
+        } finally {
+            FIND_NEXT_FREE_SLOT.stop(started);
+        }
+    }
+
+    /**
+     * Imports appointments from a CSV or binary file. Rows whose patient or doctor does not exist are rejected.
+     * @param file The file to import
+     * @return How many appointments were imported and why any rows were rejected
+     * @throws IOException If the file cannot be read
+     */
+    public BulkTransfer.Result importAppointments(Path file) throws IOException {
+        long started = IMPORT_APPOINTMENTS.start();
+        try {
+            return BulkTransfer.importAppointments(file, appointmentService, userService);
+        } finally {
+            IMPORT_APPOINTMENTS.stop(started);
+        }
+    }
+
+    /**
+     * Exports every appointment to a CSV or binary file
+     * @param file The file to write
+     * @return The number of appointments exported
+     * @throws IOException If the file cannot be written
+     */
+    public long exportAppointments(Path file) throws IOException {
+        long started = EXPORT_APPOINTMENTS.start();
+        try {
+            return BulkTransfer.exportAppointments(appointmentService, file);
+        } finally {
+            EXPORT_APPOINTMENTS.stop(started);
+        }
     }
 }
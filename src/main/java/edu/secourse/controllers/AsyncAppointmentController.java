@@ -0,0 +1,137 @@
+package edu.secourse.controllers;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.persistence.BulkTransfer;
+import edu.secourse.types.BoundedVirtualExecutor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs AppointmentController operations on virtual threads. Every method returns at once with a future that
+ * completes with the operation's result, or with the exception the operation throws.
+ */
+public class AsyncAppointmentController {
+    private final AppointmentController controller;
+    private final BoundedVirtualExecutor executor;
+
+    /**
+     * Creates a new AsyncAppointmentController
+     * @param controller The controller that runs the operations
+     * @param executor Runs the operations and limits how many run at once
+     */
+    public AsyncAppointmentController(AppointmentController controller, BoundedVirtualExecutor executor) {
+        this.controller = controller;
+        this.executor = executor;
+    }
+
+    /**
+     * See AppointmentController.createAppointment
+     */
+    public CompletableFuture<Appointment> createAppointment(int patientId, int doctorId, Date startTime) {
+        return executor.call(() -> controller.createAppointment(patientId, doctorId, startTime));
+    }
+
+    /**
+     * See AppointmentController.createAppointment
+     */
+    public CompletableFuture<Appointment> createAppointment(int patientId, int doctorId, Date startTime,
+                                                            int durationMinutes) {
+        return executor.call(() -> controller.createAppointment(patientId, doctorId, startTime, durationMinutes));
+    }
+
+    /**
+     * See AppointmentController.cancelAppointment
+     */
+    public CompletableFuture<Void> cancelAppointment(int appointmentId) {
+        return executor.call(() -> {
+            controller.cancelAppointment(appointmentId);
+            return null;
+        });
+    }
+
+    /**
+     * See AppointmentController.deleteAppointment
+     */
+    public CompletableFuture<Void> deleteAppointment(int appointmentId) {
+        return executor.call(() -> {
+            controller.deleteAppointment(appointmentId);
+            return null;
+        });
+    }
+
+    /**
+     * See AppointmentController.rescheduleAppointment
+     */
+    public CompletableFuture<Void> rescheduleAppointment(int appointmentId, Date startTime) {
+        return executor.call(() -> {
+            controller.rescheduleAppointment(appointmentId, startTime);
+            return null;
+        });
+    }
+
+    /**
+     * See AppointmentController.getAppointment
+     */
+    public CompletableFuture<Appointment> getAppointment(int appointmentId) {
+        return executor.call(() -> controller.getAppointment(appointmentId));
+    }
+
+    /**
+     * See AppointmentController.getPatientAppointments
+     */
+    public CompletableFuture<ArrayList<Appointment>> getPatientAppointments(int patientId) {
+        return executor.call(() -> controller.getPatientAppointments(patientId));
+    }
+
+    /**
+     * See AppointmentController.getDoctorAppointments
+     */
+    public CompletableFuture<ArrayList<Appointment>> getDoctorAppointments(int doctorId) {
+        return executor.call(() -> controller.getDoctorAppointments(doctorId));
+    }
+
+    /**
+     * See AppointmentController.getDoctorSchedule
+     */
+    public CompletableFuture<ArrayList<Appointment>> getDoctorSchedule(int doctorId, Date day) {
+        return executor.call(() -> controller.getDoctorSchedule(doctorId, day));
+    }
+
+    /**
+     * See AppointmentController.getAppointmentsBetween
+     */
+    public CompletableFuture<ArrayList<Appointment>> getAppointmentsBetween(Date from, Date to) {
+        return executor.call(() -> controller.getAppointmentsBetween(from, to));
+    }
+
+    /**
+     * See AppointmentController.getNextAppointments
+     */
+    public CompletableFuture<ArrayList<Appointment>> getNextAppointments(Date after, int count) {
+        return executor.call(() -> controller.getNextAppointments(after, count));
+    }
+
+    /**
+     * See AppointmentController.findNextFreeSlot
+     */
+    public CompletableFuture<Date> findNextFreeSlot(int doctorId, Date from, int durationMinutes) {
+        return executor.call(() -> controller.findNextFreeSlot(doctorId, from, durationMinutes));
+    }
+
+    /**
+     * See AppointmentController.importAppointments
+     */
+    public CompletableFuture<BulkTransfer.Result> importAppointments(Path file) {
+        return executor.call(() -> controller.importAppointments(file));
+    }
+
+    /**
+     * See AppointmentController.exportAppointments
+     */
+    public CompletableFuture<Long> exportAppointments(Path file) {
+        return executor.call(() -> controller.exportAppointments(file));
+    }
+}
@@ -0,0 +1,128 @@
+package edu.secourse.controllers;
+
+import edu.secourse.models.User;
+import edu.secourse.persistence.BulkTransfer;
+import edu.secourse.types.BoundedVirtualExecutor;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs UserController operations on virtual threads. Every method returns at once with a future that completes with
+ * the operation's result, or with the exception the operation throws.
+ */
+public class AsyncUserController {
+    private final UserController controller;
+    private final BoundedVirtualExecutor executor;
+
+    /**
+     * Creates a new AsyncUserController.
+     * @param controller The controller that runs the operations
+     * @param executor Runs the operations and limits how many run at once
+     */
+    public AsyncUserController(UserController controller, BoundedVirtualExecutor executor) {
+        this.controller = controller;
+        this.executor = executor;
+    }
+
+    /**
+     * See UserController.createUser
+     */
+    public CompletableFuture<User> createUser(String username, String password, String name, String emailAddress,
+                                              String role) {
+        return executor.call(() -> controller.createUser(username, password, name, emailAddress, role));
+    }
+
+    /**
+     * See UserController.updateUsername
+     */
+    public CompletableFuture<Void> updateUsername(int id, String newUsername) {
+        return executor.call(() -> {
+            controller.updateUsername(id, newUsername);
+            return null;
+        });
+    }
+
+    /**
+     * See UserController.updatePassword
+     */
+    public CompletableFuture<Void> updatePassword(int id, String newPassword) {
+        return executor.call(() -> {
+            controller.updatePassword(id, newPassword);
+            return null;
+        });
+    }
+
+    /**
+     * See UserController.verifyPassword
+     */
+    public CompletableFuture<Boolean> verifyPassword(String username, String password) {
+        return executor.call(() -> controller.verifyPassword(username, password));
+    }
+
+    /**
+     * See UserController.updateName
+     */
+    public CompletableFuture<Void> updateName(int id, String newName) {
+        return executor.call(() -> {
+            controller.updateName(id, newName);
+            return null;
+        });
+    }
+
+    /**
+     * See UserController.updateEmailAddress
+     */
+    public CompletableFuture<Void> updateEmailAddress(int id, String newEmail) {
+        return executor.call(() -> {
+            controller.updateEmailAddress(id, newEmail);
+            return null;
+        });
+    }
+
+    /**
+     * See UserController.removeUser
+     */
+    public CompletableFuture<Void> removeUser(int id) {
+        return executor.call(() -> {
+            controller.removeUser(id);
+            return null;
+        });
+    }
+
+    /**
+     * See UserController.getUser
+     */
+    public CompletableFuture<User> getUser(int id) {
+        return executor.call(() -> controller.getUser(id));
+    }
+
+    /**
+     * See UserController.searchUsers
+     */
+    public CompletableFuture<List<User>> searchUsers(String query, int limit) {
+        return executor.call(() -> controller.searchUsers(query, limit));
+    }
+
+    /**
+     * See UserController.getUsersByRole
+     */
+    public CompletableFuture<List<User>> getUsersByRole(String role) {
+        return executor.call(() -> controller.getUsersByRole(role));
+    }
+
+    /**
+     * See UserController.importUsers
+     */
+    public CompletableFuture<BulkTransfer.Result> importUsers(Path file) {
+        return executor.call(() -> controller.importUsers(file));
+    }
+
+    /**
+     * See UserController.exportUsers
+     */
+    public CompletableFuture<Long> exportUsers(Path file) {
+        return executor.call(() -> controller.exportUsers(file));
+    }
+}
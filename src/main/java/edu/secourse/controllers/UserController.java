@@ -1,10 +1,18 @@
 package edu.secourse.controllers;
 
+import edu.secourse.exceptions.DuplicateUserException;
 import edu.secourse.exceptions.InvalidIdException;
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.Operation;
 import edu.secourse.models.User;
+import edu.secourse.persistence.BulkTransfer;
 import edu.secourse.services.UserService;
+import edu.secourse.types.UserValidator;
 
-import java.util.regex.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Handles controller operations on User.
@@ -12,6 +20,19 @@ import java.util.regex.*;
  * @author Corey Suhr
  */
 public class UserController {
+    private static final Operation CREATE_USER = Metrics.operation("UserController.createUser");
+    private static final Operation UPDATE_USERNAME = Metrics.operation("UserController.updateUsername");
+    private static final Operation UPDATE_PASSWORD = Metrics.operation("UserController.updatePassword");
+    private static final Operation VERIFY_PASSWORD = Metrics.operation("UserController.verifyPassword");
+    private static final Operation UPDATE_NAME = Metrics.operation("UserController.updateName");
+    private static final Operation UPDATE_EMAIL = Metrics.operation("UserController.updateEmailAddress");
+    private static final Operation REMOVE_USER = Metrics.operation("UserController.removeUser");
+    private static final Operation GET_USER = Metrics.operation("UserController.getUser");
+    private static final Operation SEARCH_USERS = Metrics.operation("UserController.searchUsers");
+    private static final Operation GET_USERS_BY_ROLE = Metrics.operation("UserController.getUsersByRole");
+    private static final Operation IMPORT_USERS = Metrics.operation("UserController.importUsers");
+    private static final Operation EXPORT_USERS = Metrics.operation("UserController.exportUsers");
+
     private final UserService uService;
 
     /**
@@ -32,39 +53,28 @@ public class UserController {
      * @return
      */
     public User createUser(String username, String password, String name, String emailAddress, String role){
-        // Check username format
-        if(username.isEmpty() || username.length() > 64){
-            throw new RuntimeException("Username is formatted incorrectly.");
-        }
-
-        // Check password format
-        if(
-                password.length() < 8 ||
-                password.length() > 128 ||
-                !password.matches(".*[a-zA-Z].*") ||
-                !password.matches(".*\\d.*")
-        ){
-            throw new RuntimeException("Password is formatted incorrectly.");
-        }
-
-        // Check name format
-        if(!Character.isUpperCase(name.charAt(0)) || !name.matches("[a-zA-Z ]+")){
-            throw new RuntimeException("Name is formatted incorrectly.");
-        }
+        long started = CREATE_USER.start();
+        try {
+            // Check the format of every field, reporting all the bad ones together
+            int errors = UserValidator.validate(username, password, name, emailAddress);
+            if(errors != 0){
+                throw new RuntimeException(UserValidator.describe(errors));
+            }
 
-        //Check emailAddress format
-        if(!emailAddress.matches("\\w+@\\w+\\.\\w+")){
-            throw new RuntimeException("Email address is formatted incorrectly.");
-        }
+            try{
+                return uService.createUser(username, password, name, emailAddress, role);
+            }
+            catch(DuplicateUserException e){
+                throw e;
+            }
+            catch(Exception e){
+                System.out.println(e.getMessage());
+            }
 
-        try{
-            return uService.createUser(username, password, name, emailAddress, role);
-        }
-        catch(Exception e){
-            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            CREATE_USER.stop(started);
         }
-
-        return null;
     }
 
     /**
@@ -73,19 +83,27 @@ public class UserController {
      * @param newUsername
      */
     public void updateUsername(int id, String newUsername){
-        // Check new username format
-        if(newUsername.isEmpty() || newUsername.length() > 64){
-            throw new RuntimeException("Username is formatted incorrectly.");
-        }
-
-        // Get user
-        User user = uService.getUser(id);
+        long started = UPDATE_USERNAME.start();
+        try {
+            // Check new username format
+            if(!UserValidator.isValidUsername(newUsername)){
+                throw new RuntimeException(UserValidator.describe(UserValidator.USERNAME));
+            }
 
-        // Update username
-        user.setUsername(newUsername);
+            // Check the username is free, to report which one is taken
+            User owner = uService.findByUsername(newUsername);
+            if(owner != null && owner.getAccNum() != id){
+                throw new DuplicateUserException(String.format("Username '%s' is already taken.", newUsername));
+            }
 
-        // Pass updated user to UserService
-        uService.updateUser(user);
+            // Update a copy of the user, which UserService rejects if another user took the username meanwhile
+            uService.updateUser(id, user -> {
+                user.setUsername(newUsername);
+                return user;
+            });
+        } finally {
+            UPDATE_USERNAME.stop(started);
+        }
     }
 
     /**
@@ -94,24 +112,33 @@ public class UserController {
      * @param newPassword
      */
     public void updatePassword(int id, String newPassword){
-        // Check format of new password
-        if(
-                newPassword.length() < 8 ||
-                        newPassword.length() > 128 ||
-                        !newPassword.matches(".*[a-zA-Z].*") ||
-                        !newPassword.matches(".*\\d.*")
-        ){
-            throw new RuntimeException("Password is formatted incorrectly.");
-        }
-
-        // Get user
-        User user = uService.getUser(id);
+        long started = UPDATE_PASSWORD.start();
+        try {
+            // Check format of new password
+            if(!UserValidator.isValidPassword(newPassword)){
+                throw new RuntimeException(UserValidator.describe(UserValidator.PASSWORD));
+            }
 
-        // Update password
-        user.setPassword(newPassword);
+            // Hash and store the new password
+            uService.changePassword(id, newPassword);
+        } finally {
+            UPDATE_PASSWORD.stop(started);
+        }
+    }
 
-        // Pass updated user to UserService
-        uService.updateUser(user);
+    /**
+     * Checks a username and password, such as when logging in
+     * @param username
+     * @param password
+     * @return True if the user exists and the password is theirs
+     */
+    public boolean verifyPassword(String username, String password){
+        long started = VERIFY_PASSWORD.start();
+        try {
+            return uService.verifyPassword(username, password);
+        } finally {
+            VERIFY_PASSWORD.stop(started);
+        }
     }
 
     /**
@@ -120,19 +147,21 @@ public class UserController {
      * @param newName
      */
     public void updateName(int id, String newName){
-        // Check format of new name
-        if(!Character.isUpperCase(newName.charAt(0)) || !newName.matches("[a-zA-Z ]+")){
-            throw new RuntimeException("Name is formatted incorrectly.");
-        }
-
-        // Get user
-        User user = uService.getUser(id);
+        long started = UPDATE_NAME.start();
+        try {
+            // Check format of new name
+            if(!UserValidator.isValidName(newName)){
+                throw new RuntimeException(UserValidator.describe(UserValidator.NAME));
+            }
 
-        // Update name
-        user.setName(newName);
-
-        // Pass updated user to UserService
-        uService.updateUser(user);
+            // Update a copy of the user
+            uService.updateUser(id, user -> {
+                user.setName(newName);
+                return user;
+            });
+        } finally {
+            UPDATE_NAME.stop(started);
+        }
     }
 
     /**
@@ -141,19 +170,27 @@ public class UserController {
      * @param newEmail
      */
     public void updateEmailAddress(int id, String newEmail){
-        // Check format of new email address
-        if(!newEmail.matches("\\w+@\\w+\\.\\w+")){
-            throw new RuntimeException("Email address is formatted incorrectly.");
-        }
+        long started = UPDATE_EMAIL.start();
+        try {
+            // Check format of new email address
+            if(!UserValidator.isValidEmail(newEmail)){
+                throw new RuntimeException(UserValidator.describe(UserValidator.EMAIL));
+            }
 
-        // Get user
-        User user = uService.getUser(id);
+            // Check the email is free, to report which one is taken
+            User owner = uService.findByEmail(newEmail);
+            if(owner != null && owner.getAccNum() != id){
+                throw new DuplicateUserException(String.format("Email address '%s' is already in use.", newEmail));
+            }
 
-        // Update email
-        user.setEmail(newEmail);
-
-        // Pass updated user to UserService
-        uService.updateUser(user);  
+            // Update a copy of the user, which UserService rejects if another user took the email meanwhile
+            uService.updateUser(id, user -> {
+                user.setEmail(newEmail);
+                return user;
+            });
+        } finally {
+            UPDATE_EMAIL.stop(started);
+        }
     }
 
     /**
@@ -161,10 +198,15 @@ public class UserController {
      * @param id
      */
     public void removeUser(int id){
-        boolean x = uService.deleteUser(id);
+        long started = REMOVE_USER.start();
+        try {
+            boolean x = uService.deleteUser(id);
 
-        if(!x){
-            throw new RuntimeException("Cannot delete a user that does not exist.");
+            if(!x){
+                throw new RuntimeException("Cannot delete a user that does not exist.");
+            }
+        } finally {
+            REMOVE_USER.stop(started);
         }
     }
 
@@ -174,11 +216,97 @@ public class UserController {
      * @return The user model.
      */
     public User getUser(int id) {
-        User user = uService.getUser(id);
-        if (user == null) {
-            throw new InvalidIdException(String.format("No user exists with ID: '%d'", id));
+        long started = GET_USER.start();
+        try {
+            User user = uService.getUser(id);
+            if (user == null) {
+                throw new InvalidIdException(String.format("No user exists with ID: '%d'", id));
+            }
+
+            return user;
+        } finally {
+            GET_USER.stop(started);
+        }
+    }
+
+    /**
+     * Searches users by partial or misspelled name or username
+     * @param query The words to search for
+     * @param limit The most users to return
+     * @return The best matching users, best first
+     */
+    public List<User> searchUsers(String query, int limit) {
+        long started = SEARCH_USERS.start();
+        try {
+            if (query == null || query.isBlank()) {
+                throw new RuntimeException("Search query cannot be empty.");
+            }
+            if (limit <= 0) {
+                throw new RuntimeException("Search limit must be positive.");
+            }
+
+            return uService.searchUsers(query, limit);
+        } finally {
+            SEARCH_USERS.stop(started);
+        }
+    }
+
+    /**
+     * Gets every user with a role, visiting only the users with that role
+     * @param role patient, doctor or admin, ignoring case
+     * @return The users, in no particular order
+     */
+    public List<User> getUsersByRole(String role) {
+        long started = GET_USERS_BY_ROLE.start();
+        try {
+            List<User> found = new ArrayList<>();
+            switch (role.toLowerCase()) {
+                case "patient":
+                    uService.forEachPatient(found::add);
+                    break;
+                case "doctor":
+                    uService.forEachDoctor(found::add);
+                    break;
+                case "admin":
+                    uService.forEachAdmin(found::add);
+                    break;
+                default:
+                    throw new RuntimeException("Invalid role for user: " + role);
+            }
+
+            return found;
+        } finally {
+            GET_USERS_BY_ROLE.stop(started);
+        }
+    }
+
+    /**
+     * Imports users from a CSV or binary file, validating every row
+     * @param file The file to import
+     * @return How many users were imported and why any rows were rejected
+     * @throws IOException If the file cannot be read
+     */
+    public BulkTransfer.Result importUsers(Path file) throws IOException {
+        long started = IMPORT_USERS.start();
+        try {
+            return BulkTransfer.importUsers(file, uService);
+        } finally {
+            IMPORT_USERS.stop(started);
         }
+    }
 
-        return user;
+    /**
+     * Exports every user to a CSV or binary file
+     * @param file The file to write
+     * @return The number of users exported
+     * @throws IOException If the file cannot be written
+     */
+    public long exportUsers(Path file) throws IOException {
+        long started = EXPORT_USERS.start();
+        try {
+            return BulkTransfer.exportUsers(uService, file);
+        } finally {
+            EXPORT_USERS.stop(started);
+        }
     }
 }
@@ -0,0 +1,7 @@
+package edu.secourse.exceptions;
+
+public class AppointmentConflictException extends RuntimeException {
+    public AppointmentConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package edu.secourse.exceptions;
+
+public class DuplicateUserException extends RuntimeException {
+    public DuplicateUserException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package edu.secourse.exceptions;
+
+public class InvalidArgumentException extends RuntimeException {
+    public InvalidArgumentException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package edu.secourse.exceptions;
+
+public class StaleAppointmentException extends RuntimeException {
+    public StaleAppointmentException(String message) {
+        super(message);
+    }
+}
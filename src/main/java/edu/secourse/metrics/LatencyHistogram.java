@@ -0,0 +1,128 @@
+package edu.secourse.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram. Values below 32 ns get a bucket
+ * each, and every power of two above that is split into 16 buckets, so a percentile is reported to within about 6%
+ * of the recorded value. Values of 2^40 ns (about 18 minutes) or more land in the last bucket.
+ * <p>
+ * Recording is lock-free and spread over several copies of the buckets, picked by thread, so threads timing the same
+ * operation rarely write to the same cache line. Reads add the copies up, and may miss values being recorded.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BITS) * HALF;
+    private static final int STRIPES = 8;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records one latency
+     * @param nanos The latency; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucketOf(Math.min(value, MAX_VALUE)));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean latency
+     * @return The mean in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Gets the latency that a given share of the recorded latencies are at or below
+     * @param percentile From 0 to 100
+     * @return The top of the bucket holding that latency, capped at the largest recorded value, or 0 if nothing has
+     * been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long n = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                buckets[i] += c;
+                n += c;
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets every recorded latency. Latencies recorded while this runs may be partly kept.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int bits = 63 - Long.numberOfLeadingZeros(value);
+        int shift = bits - SUB_BITS + 1;
+        return SUB_BUCKETS + (bits - SUB_BITS) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int k = bucket - SUB_BUCKETS;
+        int shift = k / HALF + 1;
+        long lowest = (long) (HALF + k % HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.secourse.metrics;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of timed operations and gauges, shared by the whole program.
+ * Metrics are off unless the portal.metrics system property is set, or setEnabled turns them on; while off, timed
+ * operations record nothing.
+ */
+public final class Metrics {
+    private static final ConcurrentSkipListMap<String, Operation> OPERATIONS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static volatile boolean enabled = Boolean.getBoolean("portal.metrics");
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the operation with a name, registering it the first time
+     * @param name The name, such as "UserService.getUser"
+     * @return The operation
+     */
+    public static Operation operation(String name) {
+        return OPERATIONS.computeIfAbsent(name, Operation::new);
+    }
+
+    /**
+     * Registers a value to read when reporting, replacing any gauge with the same name
+     * @param name
+     * @param value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Forgets every latency recorded so far
+     */
+    public static void reset() {
+        for (Operation operation : OPERATIONS.values()) {
+            LatencyHistogram latency = operation.getLatency();
+            if (latency != null) {
+                latency.reset();
+            }
+        }
+    }
+
+    /**
+     * Prints a table of every operation that has been timed, in microseconds, followed by the gauges
+     * @param out
+     */
+    public static void report(PrintStream out) {
+        out.printf("%-44s %10s %10s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "Max(us)");
+        for (Operation operation : OPERATIONS.values()) {
+            LatencyHistogram latency = operation.getLatency();
+            if (latency == null || latency.getCount() == 0) {
+                continue;
+            }
+            out.printf("%-44s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.getName(),
+                    latency.getCount(),
+                    latency.getMean() / 1e3,
+                    latency.getPercentile(50) / 1e3,
+                    latency.getPercentile(99) / 1e3,
+                    latency.getPercentile(99.9) / 1e3,
+                    latency.getMax() / 1e3);
+        }
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            out.printf("%-44s %10d%n", gauge.getKey(), gauge.getValue().getAsLong());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.secourse.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics report to a file at a fixed rate, and once more when closed. Each dump replaces the file as a
+ * whole, so a reader never sees half a report.
+ */
+public class MetricsReporter implements Closeable {
+    private final Path file;
+    private final ScheduledExecutorService scheduler;
+
+    private MetricsReporter(Path file) {
+        this.file = file;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "portal-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts dumping the report
+     * @param file The file to write
+     * @param period The time between dumps
+     * @param unit The unit of period
+     * @return The reporter, to close when the program ends
+     */
+    public static MetricsReporter start(Path file, long period, TimeUnit unit) {
+        MetricsReporter reporter = new MetricsReporter(file);
+        reporter.scheduler.scheduleAtFixedRate(() -> {
+            try {
+                reporter.dump();
+            } catch (IOException ex) {
+                System.err.println("Failed to write metrics: " + ex.getMessage());
+            }
+        }, period, period, unit);
+        return reporter;
+    }
+
+    /**
+     * Writes the report now
+     * @throws IOException If the file cannot be written
+     */
+    public void dump() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (PrintStream out = new PrintStream(Files.newOutputStream(temp), false, StandardCharsets.UTF_8)) {
+            out.println("Metrics at " + new Date());
+            Metrics.report(out);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Stops the periodic dumps and writes a final one
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        dump();
+    }
+}
@@ -0,0 +1,69 @@
+package edu.secourse.metrics;
+
+/**
+ * A timed operation, such as one controller or service method. Held in a static field and used as
+ * <pre>
+ * long started = OPERATION.start();
+ * try {
+ *     ...
+ * } finally {
+ *     OPERATION.stop(started);
+ * }
+ * </pre>
+ * While metrics are off, start only reads one flag and stop does nothing, so the timing can stay in hot paths.
+ */
+public final class Operation {
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final String name;
+    // made on first use, so operations that never run while metrics are on cost no buckets
+    private volatile LatencyHistogram latency;
+
+    Operation(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Starts timing a call
+     * @return The start time, to pass to stop
+     */
+    public long start() {
+        return Metrics.isEnabled() ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records a call as finished, whether it returned or threw
+     * @param started The value start returned
+     */
+    public void stop(long started) {
+        if (started != NOT_TIMED) {
+            getOrCreateLatency().record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Gets the latencies recorded so far
+     * @return The histogram, or null if no call has been timed
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    private LatencyHistogram getOrCreateLatency() {
+        LatencyHistogram histogram = latency;
+        if (histogram == null) {
+            synchronized (this) {
+                histogram = latency;
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    latency = histogram;
+                }
+            }
+        }
+        return histogram;
+    }
+}
@@ -3,67 +3,137 @@ package edu.secourse.models;
 import java.util.Date;
 
 /**
- * Model for Appointment.
+ * Model for Appointment. Appointments are immutable: a change is made by building a new version with one of the
+ * with methods and passing it to AppointmentService.updateAppointment, so an appointment read by one thread never
+ * changes under it. Each stored change bumps the version, which is used to detect changes made by someone else
+ * since the appointment was read.
  *
  * @author Matt Robinson
  */
-public class Appointment {
+public final class Appointment {
     public enum Status {
         CANCELLED,
         ACTIVE
     }
 
-    private int appointmentId;
-    private Patient patient;
-    private Doctor doctor;
-    private Date startDateTime;
-    private Status status;
+    /**
+     * Length of an appointment, in minutes, when none is given
+     */
+    public static final int DEFAULT_DURATION_MINUTES = 30;
+
+    /**
+     * Start time of an appointment that has none, from getStartMillis
+     */
+    public static final long NO_START = Long.MIN_VALUE;
+
+    private final int appointmentId;
+    private final Patient patient;
+    private final Doctor doctor;
+    private final long startMillis;
+    private final int durationMinutes;
+    private final Status status;
+    private final long version;
 
     public Appointment(int appointmentId, Patient patient, Doctor doctor, Date startDateTime, Status status) {
+        this(appointmentId, patient, doctor, startDateTime, DEFAULT_DURATION_MINUTES, status);
+    }
+
+    public Appointment(int appointmentId, Patient patient, Doctor doctor, Date startDateTime, int durationMinutes, Status status) {
+        this(appointmentId, patient, doctor, startDateTime == null ? NO_START : startDateTime.getTime(),
+                durationMinutes, status, 1);
+    }
+
+    /**
+     * Creates a specific version of an appointment
+     * @param appointmentId
+     * @param patient
+     * @param doctor
+     * @param startMillis The start time in epoch millis, or NO_START
+     * @param durationMinutes
+     * @param status
+     * @param version The version, starting from 1 for a new appointment
+     */
+    public Appointment(int appointmentId, Patient patient, Doctor doctor, long startMillis, int durationMinutes,
+                       Status status, long version) {
         this.appointmentId = appointmentId;
         this.patient = patient;
         this.doctor = doctor;
-        this.startDateTime = startDateTime;
+        this.startMillis = startMillis;
+        this.durationMinutes = durationMinutes;
         this.status = status;
+        this.version = version;
     }
 
     public int getAppointmentId() {
         return appointmentId;
     }
 
-    public void setAppointmentId(int appointmentId) {
-        this.appointmentId = appointmentId;
-    }
-
     public Patient getPatient() {
         return patient;
     }
 
-    public void setPatient(Patient patient) {
-        this.patient = patient;
-    }
-
     public Doctor getDoctor() {
         return doctor;
     }
 
-    public void setDoctor(Doctor doctor) {
-        this.doctor = doctor;
+    /**
+     * Gets the start time
+     * @return A new Date holding the start time, or null if the appointment has none
+     */
+    public Date getStartDateTime() {
+        return startMillis == NO_START ? null : new Date(startMillis);
     }
 
-    public Date getStartDateTime() {
-        return startDateTime;
+    /**
+     * Gets the start time without allocating a Date
+     * @return The start time in epoch millis, or NO_START, which sorts before every time
+     */
+    public long getStartMillis() {
+        return startMillis;
     }
 
-    public void setStartDateTime(Date startDateTime) {
-        this.startDateTime = startDateTime;
+    public int getDurationMinutes() {
+        return durationMinutes;
     }
 
     public Status getStatus() {
         return status;
     }
 
-    public void setStatus(Status status) {
-        this.status = status;
+    /**
+     * Gets the version of the appointment that this was read as, or built from
+     * @return The version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Appointment withAppointmentId(int appointmentId) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
+    }
+
+    public Appointment withPatient(Patient patient) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
+    }
+
+    public Appointment withDoctor(Doctor doctor) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
+    }
+
+    public Appointment withStartDateTime(Date startDateTime) {
+        return new Appointment(appointmentId, patient, doctor,
+                startDateTime == null ? NO_START : startDateTime.getTime(), durationMinutes, status, version);
+    }
+
+    public Appointment withDurationMinutes(int durationMinutes) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
+    }
+
+    public Appointment withStatus(Status status) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
+    }
+
+    public Appointment withVersion(long version) {
+        return new Appointment(appointmentId, patient, doctor, startMillis, durationMinutes, status, version);
     }
 }
@@ -0,0 +1,629 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Admin;
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.PasswordHasher;
+import edu.secourse.services.UserService;
+import edu.secourse.types.UserValidator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * Bulk import and export of users and appointments, as CSV or as a compact binary file.
+ * The format is picked from the file name: ".csv" files are CSV with a header row, anything else is binary.
+ * <p>
+ * Imports run as a pipeline. This thread parses rows into batches, a few batches are validated at once on the
+ * common fork-join pool, and validated batches are stored in file order through the services' batch methods, so
+ * ids are allocated a block at a time and locks are taken once per batch. Rows that fail to parse or validate are
+ * skipped and reported; the rest of the file is still imported.
+ * <p>
+ * Exports stream straight from the services to the file through a fixed-size buffer, so memory use does not grow
+ * with the number of rows.
+ */
+public final class BulkTransfer {
+    private static final int BATCH_SIZE = 4096;
+    private static final int MAX_BATCHES_IN_FLIGHT = 4;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private static final int MAGIC = 0x50504258;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte END = 0;
+
+    private static final String USER_HEADER = "id,role,username,password,name,email";
+    private static final String APPOINTMENT_HEADER = "id,patientId,doctorId,start,durationMinutes,status";
+
+    private BulkTransfer() {
+    }
+
+    /**
+     * Imports users. Rows with an empty id get a new account number; rows with an id keep it, replacing any user
+     * with the same number. Every field is checked with UserValidator, and rows whose username or email address is
+     * already taken are rejected. Passwords are hashed, except ones that are already hashes from an export; rows
+     * whose password starts like a hash but is not a valid one are rejected.
+     * @param file A CSV file with the columns id, role, username, password, name, email, or a binary export
+     * @param userService The service to import into
+     * @return How many rows were imported and why any were rejected
+     * @throws IOException If the file cannot be read or is not an export
+     */
+    public static Result importUsers(Path file, UserService userService) throws IOException {
+        Function<User, User> validate = user -> {
+            // exported hashes also meet the password rules, so they need no special case
+            int errors = UserValidator.validate(user.getUsername(), user.getPassword(), user.getName(),
+                    user.getEmail());
+            if (errors != 0) {
+                throw new IllegalArgumentException(UserValidator.describe(errors));
+            }
+            if (PasswordHasher.isHash(user.getPassword()) && !PasswordHasher.isWellFormedHash(user.getPassword())) {
+                throw new IllegalArgumentException("Password is a corrupt hash.");
+            }
+            return user;
+        };
+
+        if (isCsv(file)) {
+            try (CsvReader reader = new CsvReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+                reader.expectHeader(USER_HEADER);
+                return importRows(reader.rows(BulkTransfer::parseUser), validate, userService::importUsers,
+                        "Username or email address is already taken.");
+            }
+        }
+
+        ByteBuffer buffer = mapBinary(file, RecordCodec.USER_PUT);
+        return importRows(binaryRows(buffer, RecordCodec.USER_PUT, RecordCodec::readUser), validate,
+                userService::importUsers, "Username or email address is already taken.");
+    }
+
+    /**
+     * Imports appointments. Rows with an empty id get a new id; rows with an id keep it, replacing any appointment
+     * with the same id. Rows whose patient or doctor does not exist are rejected; double bookings are not checked.
+     * @param file A CSV file with the columns id, patientId, doctorId, start (ISO-8601, may be empty),
+     *             durationMinutes, status, or a binary export
+     * @param appointmentService The service to import into
+     * @param userService The service holding the patients and doctors
+     * @return How many rows were imported and why any were rejected
+     * @throws IOException If the file cannot be read or is not an export
+     */
+    public static Result importAppointments(Path file, AppointmentService appointmentService,
+                                            UserService userService) throws IOException {
+        Function<RecordCodec.AppointmentFields, Appointment> validate = fields -> {
+            if (fields.durationMinutes <= 0) {
+                throw new IllegalArgumentException("Appointment duration must be a positive number of minutes.");
+            }
+            Appointment appointment = fields.resolve(userService::getUser);
+            if (appointment == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Patient %d or doctor %d does not exist.", fields.patientId, fields.doctorId));
+            }
+            return appointment;
+        };
+
+        if (isCsv(file)) {
+            try (CsvReader reader = new CsvReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+                reader.expectHeader(APPOINTMENT_HEADER);
+                return importRows(reader.rows(BulkTransfer::parseAppointment), validate,
+                        storeAll(appointmentService::importAppointments), null);
+            }
+        }
+
+        ByteBuffer buffer = mapBinary(file, RecordCodec.APPOINTMENT_PUT);
+        return importRows(binaryRows(buffer, RecordCodec.APPOINTMENT_PUT, RecordCodec::readAppointmentFields),
+                validate, storeAll(appointmentService::importAppointments), null);
+    }
+
+    /**
+     * Exports every user
+     * @param userService The service to export from
+     * @param file The file to write, replaced if it exists
+     * @return The number of users written
+     * @throws IOException If the file cannot be written
+     */
+    public static long exportUsers(UserService userService, Path file) throws IOException {
+        if (isCsv(file)) {
+            return exportCsv(file, USER_HEADER, userService::forEachUser, (out, user) -> {
+                writeCsvRow(out, Integer.toString(user.getAccNum()), roleName(user), user.getUsername(),
+                        user.getPassword(), user.getName(), user.getEmail());
+            });
+        }
+        return exportBinary(file, RecordCodec.USER_PUT, userService::forEachUser, RecordCodec::writeUser);
+    }
+
+    /**
+     * Exports every appointment, in id order
+     * @param appointmentService The service to export from
+     * @param file The file to write, replaced if it exists
+     * @return The number of appointments written
+     * @throws IOException If the file cannot be written
+     */
+    public static long exportAppointments(AppointmentService appointmentService, Path file) throws IOException {
+        if (isCsv(file)) {
+            return exportCsv(file, APPOINTMENT_HEADER, appointmentService::forEachAppointment, (out, apt) -> {
+                Date start = apt.getStartDateTime();
+                writeCsvRow(out,
+                        Integer.toString(apt.getAppointmentId()),
+                        Integer.toString(apt.getPatient().getAccNum()),
+                        Integer.toString(apt.getDoctor().getAccNum()),
+                        start == null ? "" : start.toInstant().toString(),
+                        Integer.toString(apt.getDurationMinutes()),
+                        apt.getStatus().name());
+            });
+        }
+        return exportBinary(file, RecordCodec.APPOINTMENT_PUT, appointmentService::forEachAppointment,
+                RecordCodec::writeAppointment);
+    }
+
+    /**
+     * Runs the import pipeline
+     * @param rows The parsed rows, one batch at a time
+     * @param validate Checks a parsed row and builds the value to store, throwing IllegalArgumentException if the
+     *                 row is invalid; runs on several threads at once
+     * @param store Stores a batch of valid values, returning the values it refused
+     * @param refusedError The error reported for refused rows
+     */
+    private static <R, T> Result importRows(RowSource<R> rows, Function<R, T> validate,
+                                            Function<List<T>, List<? extends T>> store, String refusedError)
+            throws IOException {
+        Result result = new Result();
+        ArrayDeque<CompletableFuture<List<Row<T>>>> inFlight = new ArrayDeque<>();
+
+        List<Row<R>> batch;
+        while (!(batch = rows.next(BATCH_SIZE)).isEmpty()) {
+            List<Row<R>> parsed = batch;
+            inFlight.add(CompletableFuture.supplyAsync(() -> validateBatch(parsed, validate)));
+            if (inFlight.size() == MAX_BATCHES_IN_FLIGHT) {
+                storeBatch(join(inFlight.poll()), store, refusedError, result);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            storeBatch(join(inFlight.poll()), store, refusedError, result);
+        }
+        return result;
+    }
+
+    private static <R, T> List<Row<T>> validateBatch(List<Row<R>> batch, Function<R, T> validate) {
+        List<Row<T>> validated = new ArrayList<>(batch.size());
+        for (Row<R> row : batch) {
+            if (row.error != null) {
+                validated.add(new Row<>(row.line, null, row.error));
+                continue;
+            }
+
+            try {
+                validated.add(new Row<>(row.line, validate.apply(row.value), null));
+            } catch (IllegalArgumentException ex) {
+                validated.add(new Row<>(row.line, null, ex.getMessage()));
+            }
+        }
+        return validated;
+    }
+
+    private static <T> void storeBatch(List<Row<T>> batch, Function<List<T>, List<? extends T>> store,
+                                       String refusedError, Result result) {
+        List<T> values = new ArrayList<>(batch.size());
+        for (Row<T> row : batch) {
+            if (row.error == null) {
+                values.add(row.value);
+            } else {
+                result.reject(row.line, row.error);
+            }
+        }
+
+        List<? extends T> refused = store.apply(values);
+        result.imported += values.size() - refused.size();
+        if (!refused.isEmpty()) {
+            // refused values are the stored objects themselves, so find their rows by identity
+            Set<T> refusedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            refusedSet.addAll(refused);
+            for (Row<T> row : batch) {
+                if (row.error == null && refusedSet.contains(row.value)) {
+                    result.reject(row.line, refusedError);
+                }
+            }
+        }
+    }
+
+    private static <T> Function<List<T>, List<? extends T>> storeAll(Consumer<List<T>> store) {
+        return values -> {
+            store.accept(values);
+            return List.of();
+        };
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static User parseUser(List<String> fields) {
+        if (fields.size() != 6) {
+            throw new IllegalArgumentException("Expected 6 columns but found " + fields.size() + ".");
+        }
+
+        int id = parseId(fields.get(0));
+        String username = fields.get(2);
+        String password = fields.get(3);
+        String name = fields.get(4);
+        String email = fields.get(5);
+        switch (fields.get(1).toLowerCase()) {
+            case "patient":
+                return new Patient(id, username, password, name, email);
+            case "doctor":
+                return new Doctor(id, username, password, name, email);
+            case "admin":
+                return new Admin(id, username, password, name, email);
+            default:
+                throw new IllegalArgumentException("Invalid role for user: " + fields.get(1));
+        }
+    }
+
+    private static RecordCodec.AppointmentFields parseAppointment(List<String> fields) {
+        if (fields.size() != 6) {
+            throw new IllegalArgumentException("Expected 6 columns but found " + fields.size() + ".");
+        }
+
+        try {
+            return new RecordCodec.AppointmentFields(
+                    parseId(fields.get(0)),
+                    Integer.parseInt(fields.get(1)),
+                    Integer.parseInt(fields.get(2)),
+                    fields.get(3).isEmpty() ? null : Date.from(Instant.parse(fields.get(3))),
+                    Integer.parseInt(fields.get(4)),
+                    Appointment.Status.valueOf(fields.get(5).toUpperCase())
+            );
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid start time: " + fields.get(3));
+        }
+    }
+
+    /**
+     * Parses an id column, where an empty value asks for a new id
+     */
+    private static int parseId(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+
+        int id = Integer.parseInt(value);
+        if (id < 0) {
+            throw new IllegalArgumentException("Id must not be negative: " + id);
+        }
+        return id;
+    }
+
+    private static String roleName(User user) {
+        if (user instanceof Patient) {
+            return "patient";
+        }
+        if (user instanceof Doctor) {
+            return "doctor";
+        }
+        return "admin";
+    }
+
+    private static <T> long exportCsv(Path file, String header, Consumer<Consumer<T>> forEach,
+                                      CsvRowWriter<T> writeRow) throws IOException {
+        long[] count = new long[1];
+        try (BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            out.write(header);
+            out.write('\n');
+            forEach.accept(value -> {
+                try {
+                    writeRow.write(out, value);
+                    count[0]++;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return count[0];
+    }
+
+    private static void writeCsvRow(Writer out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeCsvField(out, fields[i] == null ? "" : fields[i]);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Writes a field, quoting it only if it holds a comma, quote or line break
+     */
+    private static void writeCsvField(Writer out, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+
+        out.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes a binary export: a header, then each record prefixed by its type, an END byte and a CRC32C
+     */
+    private static <T> long exportBinary(Path file, byte type, Consumer<Consumer<T>> forEach,
+                                         BiConsumer<ByteBuffer, T> encoder) throws IOException {
+        long[] count = new long[1];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).put(type).put((byte) 0).flip();
+            channel.write(header);
+
+            RecordWriter writer = new RecordWriter(channel);
+            forEach.accept(value -> {
+                try {
+                    writer.put(buffer -> {
+                        buffer.put(type);
+                        encoder.accept(buffer, value);
+                    });
+                    count[0]++;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            writer.put(buffer -> buffer.put(END));
+            writer.finishWithCrc();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return count[0];
+    }
+
+    /**
+     * Maps a binary export and checks its header and CRC
+     * @return The records, positioned at the first one
+     */
+    private static ByteBuffer mapBinary(Path file, byte type) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < HEADER_SIZE + 5 || buffer.getInt() != MAGIC || buffer.getShort() != VERSION
+                || buffer.get() != type) {
+            throw new IOException("Not a patient portal " + (type == RecordCodec.USER_PUT ? "user" : "appointment")
+                    + " export: " + file);
+        }
+
+        ByteBuffer body = buffer.slice(HEADER_SIZE, buffer.limit() - HEADER_SIZE - 4);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Export is damaged: " + file);
+        }
+        return body;
+    }
+
+    private static <R> RowSource<R> binaryRows(ByteBuffer buffer, byte type, Function<ByteBuffer, R> decode) {
+        long[] record = new long[1];
+        return max -> {
+            List<Row<R>> batch = new ArrayList<>(max);
+            while (batch.size() < max) {
+                byte next = buffer.get();
+                if (next == END) {
+                    buffer.position(buffer.position() - 1);
+                    break;
+                }
+                if (next != type) {
+                    throw new IOException("Unexpected record type in export: " + next);
+                }
+                batch.add(new Row<>(++record[0], decode.apply(buffer), null));
+            }
+            return batch;
+        };
+    }
+
+    private static boolean isCsv(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".csv");
+    }
+
+    /**
+     * The outcome of an import
+     */
+    public static final class Result {
+        private long imported;
+        private long rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Row " + line + ": " + error);
+            }
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Gets why rows were rejected, one message per row, for at most the first 100 rejected rows
+         * @return The error messages
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+    }
+
+    private static final class Row<T> {
+        private final long line;
+        private final T value;
+        private final String error;
+
+        private Row(long line, T value, String error) {
+            this.line = line;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    private interface RowSource<R> {
+        /**
+         * Parses the next rows
+         * @param max The most rows to return
+         * @return The rows, empty once the input is used up
+         */
+        List<Row<R>> next(int max) throws IOException;
+    }
+
+    private interface CsvRowWriter<T> {
+        void write(Writer out, T value) throws IOException;
+    }
+
+    /**
+     * Reads RFC 4180 CSV: fields separated by commas, optionally in double quotes, with "" for a quote inside a
+     * quoted field. Quoted fields may span lines.
+     */
+    private static final class CsvReader implements AutoCloseable {
+        private final BufferedReader reader;
+        private long record;
+
+        private CsvReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads the first record and checks that it is the given header
+         */
+        private void expectHeader(String header) throws IOException {
+            List<String> fields = read();
+            if (fields == null || !String.join(",", fields).equalsIgnoreCase(header)) {
+                throw new IOException("Expected the CSV header \"" + header + "\".");
+            }
+        }
+
+        private <R> RowSource<R> rows(Function<List<String>, R> parse) {
+            return max -> {
+                List<Row<R>> batch = new ArrayList<>(max);
+                List<String> fields;
+                while (batch.size() < max && (fields = read()) != null) {
+                    long row = ++record;
+                    try {
+                        batch.add(new Row<>(row, parse.apply(fields), null));
+                    } catch (IllegalArgumentException ex) {
+                        batch.add(new Row<>(row, null, ex.getMessage()));
+                    }
+                }
+                return batch;
+            };
+        }
+
+        /**
+         * Reads the next non-empty record
+         * @return The fields, or null at the end of the input
+         */
+        private List<String> read() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                any = true;
+                if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        if (reader.read() == '"') {
+                            field.append('"');
+                        } else {
+                            reader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        reader.mark(1);
+                        if (reader.read() != '\n') {
+                            reader.reset();
+                        }
+                    }
+                    if (fields.isEmpty() && field.length() == 0) {
+                        any = false;
+                        continue;
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+            }
+
+            if (!any) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.User;
+import edu.secourse.services.UserRepository;
+import edu.secourse.types.ConcurrentIntObjectMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps users in a file instead of on the heap, so only an index from account number to file offset stays in
+ * memory. Each stored version of a user is appended to the file as a length-prefixed record in the log's encoding,
+ * and get decodes a new User from the file each time it is called. Usually placed behind a CachingUserRepository.
+ * <p>
+ * Like MappedAppointmentTable, the file is working storage, not a durable copy: it is cleared when opened, and the
+ * snapshot and log remain the record of what was saved. Replaced and removed versions stay in the file until then.
+ */
+public class FileUserRepository implements UserRepository, Closeable {
+    private static final int BUFFER_SIZE = 512;
+
+    private final FileChannel channel;
+    private final ConcurrentIntObjectMap<Long> offsets = new ConcurrentIntObjectMap<>();
+    private final AtomicLong end = new AtomicLong();
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    /**
+     * Opens a user file, discarding anything already in it
+     * @param file The user file, created if it does not exist
+     * @throws IOException If the file cannot be opened
+     */
+    public FileUserRepository(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public User get(int id) {
+        Long offset = offsets.get(id);
+        return offset == null ? null : read(offset);
+    }
+
+    @Override
+    public void put(User user, Runnable onStored) {
+        offsets.put(user.getAccNum(), append(List.of(user)), onStored);
+    }
+
+    @Override
+    public boolean putIfAbsent(User user, Runnable onStored) {
+        // checked first so a taken id usually wastes no space; putIfAbsent still decides
+        if (offsets.containsKey(user.getAccNum())) {
+            return false;
+        }
+        return offsets.putIfAbsent(user.getAccNum(), append(List.of(user)), onStored);
+    }
+
+    @Override
+    public boolean replace(User user, Runnable onStored) {
+        if (!offsets.containsKey(user.getAccNum())) {
+            return false;
+        }
+        return offsets.replace(user.getAccNum(), append(List.of(user)), onStored);
+    }
+
+    @Override
+    public boolean remove(int id, Runnable onRemoved) {
+        return offsets.remove(id, onRemoved) != null;
+    }
+
+    @Override
+    public void putAll(List<? extends User> users, Consumer<? super User> onStored) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        // one write for the whole batch
+        int[] starts = new int[users.size()];
+        long offset = append(users, starts);
+        for (int i = 0; i < starts.length; i++) {
+            User user = users.get(i);
+            offsets.put(user.getAccNum(), offset + starts[i], onStored == null ? null : () -> onStored.accept(user));
+        }
+    }
+
+    /**
+     * Calls an action for every stored user, reading each one from the file while its account number is locked
+     * against changes
+     */
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        offsets.forEachValue(offset -> action.accept(read(offset)));
+    }
+
+    /**
+     * Gets the size of the file, including versions of users that have since been replaced or removed
+     * @return The file size in bytes
+     */
+    public long getFileSize() {
+        return end.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long append(List<User> users) {
+        return append(users, new int[1]);
+    }
+
+    /**
+     * Appends users to the end of the file
+     * @param starts Filled with where each user's record starts, relative to the first
+     * @return The offset of the first user's record
+     */
+    private long append(List<? extends User> users, int[] starts) {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        for (int i = 0; i < starts.length; i++) {
+            User user = users.get(i);
+            while (true) {
+                int start = buffer.position();
+                starts[i] = start;
+                try {
+                    buffer.position(start + 4);
+                    RecordCodec.writeUser(buffer, user);
+                    buffer.putInt(start, buffer.position() - start - 4);
+                    break;
+                } catch (BufferOverflowException | IllegalArgumentException ex) {
+                    // position past the limit, or a record that does not fit; grow and encode it again
+                    ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                    grown.put(buffer.flip().limit(start));
+                    buffer = grown;
+                }
+            }
+        }
+        if (buffer.capacity() > BUFFER_SIZE * 16) {
+            buffers.remove();
+        } else {
+            buffers.set(buffer);
+        }
+
+        buffer.flip();
+        long offset = end.getAndAdd(buffer.remaining());
+        try {
+            for (long position = offset; buffer.hasRemaining(); ) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write a user to the user file", ex);
+        }
+        return offset;
+    }
+
+    private User read(long offset) {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        readFully(buffer.limit(4), offset);
+        int length = buffer.getInt(0);
+        if (length > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear().limit(length);
+        readFully(buffer, offset + 4);
+        return RecordCodec.readUser(buffer.flip());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of the user file");
+                }
+                position += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to read a user from the user file", ex);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentTable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps appointments off the heap as fixed-width records in a memory-mapped file, one 32-byte slot per id:
+ * flags, status, patient id, doctor id, duration in minutes, start time in epoch millis and version. The file is
+ * mapped in chunks as ids grow, and get builds a new Appointment from a record each time it is called.
+ * <p>
+ * The file is working storage, not a durable copy: it is cleared when opened, and the snapshot and log remain the
+ * record of what was saved.
+ */
+public class MappedAppointmentTable implements AppointmentTable, Closeable {
+    private static final int RECORD_SIZE = 32;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+    private static final int FLAGS = 0;
+    private static final int STATUS = 1;
+    private static final int PATIENT = 4;
+    private static final int DOCTOR = 8;
+    private static final int DURATION = 12;
+    private static final int START = 16;
+    private static final int VERSION = 24;
+
+    private static final byte LIVE = 1;
+    private static final byte HAS_START = 2;
+
+    private static final Appointment.Status[] STATUSES = Appointment.Status.values();
+
+    private final FileChannel channel;
+    private final IntFunction<User> users;
+    // guards the record bytes; readers validate an optimistic stamp instead of locking
+    private final StampedLock lock = new StampedLock();
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    /**
+     * Opens a table file, discarding anything already in it
+     * @param file The table file, created if it does not exist
+     * @param users Finds the patient and doctor of an appointment by account number
+     * @throws IOException If the file cannot be opened
+     */
+    public MappedAppointmentTable(Path file, IntFunction<User> users) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.users = users;
+    }
+
+    @Override
+    public Appointment get(int id) {
+        MappedByteBuffer[] chunks = this.chunks;
+        int c = id >>> CHUNK_SHIFT;
+        if (id < 0 || c >= chunks.length) {
+            return null;
+        }
+
+        MappedByteBuffer chunk = chunks[c];
+        int offset = (id & CHUNK_MASK) * RECORD_SIZE;
+        long stamp = lock.tryOptimisticRead();
+        byte flags = chunk.get(offset + FLAGS);
+        byte status = chunk.get(offset + STATUS);
+        int patientId = chunk.getInt(offset + PATIENT);
+        int doctorId = chunk.getInt(offset + DOCTOR);
+        int durationMinutes = chunk.getInt(offset + DURATION);
+        long start = chunk.getLong(offset + START);
+        long version = chunk.getLong(offset + VERSION);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                flags = chunk.get(offset + FLAGS);
+                status = chunk.get(offset + STATUS);
+                patientId = chunk.getInt(offset + PATIENT);
+                doctorId = chunk.getInt(offset + DOCTOR);
+                durationMinutes = chunk.getInt(offset + DURATION);
+                start = chunk.getLong(offset + START);
+                version = chunk.getLong(offset + VERSION);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if ((flags & LIVE) == 0) {
+            return null;
+        }
+        return new Appointment(
+                id,
+                patient(patientId),
+                doctor(doctorId),
+                (flags & HAS_START) == 0 ? Appointment.NO_START : start,
+                durationMinutes,
+                STATUSES[status],
+                version
+        );
+    }
+
+    @Override
+    public void put(Appointment appointment) {
+        int id = appointment.getAppointmentId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Id must not be negative: " + id);
+        }
+
+        long start = appointment.getStartMillis();
+        long stamp = lock.writeLock();
+        try {
+            MappedByteBuffer chunk = chunkFor(id);
+            int offset = (id & CHUNK_MASK) * RECORD_SIZE;
+            chunk.put(offset + FLAGS, (byte) (LIVE | (start == Appointment.NO_START ? 0 : HAS_START)));
+            chunk.put(offset + STATUS, (byte) appointment.getStatus().ordinal());
+            chunk.putInt(offset + PATIENT, appointment.getPatient().getAccNum());
+            chunk.putInt(offset + DOCTOR, appointment.getDoctor().getAccNum());
+            chunk.putInt(offset + DURATION, appointment.getDurationMinutes());
+            chunk.putLong(offset + START, start == Appointment.NO_START ? 0 : start);
+            chunk.putLong(offset + VERSION, appointment.getVersion());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        MappedByteBuffer[] chunks = this.chunks;
+        int c = id >>> CHUNK_SHIFT;
+        if (id < 0 || c >= chunks.length) {
+            return;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            chunks[c].put((id & CHUNK_MASK) * RECORD_SIZE + FLAGS, (byte) 0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        // keeps the mappings, since truncating a mapped file crashes readers still using them
+        long stamp = lock.writeLock();
+        try {
+            for (MappedByteBuffer chunk : chunks) {
+                for (int offset = 0; offset < CHUNK_RECORDS * RECORD_SIZE; offset += RECORD_SIZE) {
+                    chunk.put(offset + FLAGS, (byte) 0);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gets the chunk holding an id, mapping new chunks up to it if needed. Must be called with the write lock held.
+     */
+    private MappedByteBuffer chunkFor(int id) {
+        int c = id >>> CHUNK_SHIFT;
+        MappedByteBuffer[] chunks = this.chunks;
+        if (c < chunks.length) {
+            return chunks[c];
+        }
+
+        MappedByteBuffer[] grown = Arrays.copyOf(chunks, c + 1);
+        try {
+            // mapping past the end of the file grows it, and the new bytes read as zero, so new slots start empty
+            for (int i = chunks.length; i <= c; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) i * CHUNK_RECORDS * RECORD_SIZE, (long) CHUNK_RECORDS * RECORD_SIZE);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.chunks = grown;
+        return grown[c];
+    }
+
+    /**
+     * Finds a patient, or makes a stand-in holding only the account number if the patient no longer exists
+     */
+    private Patient patient(int id) {
+        User user = users.apply(id);
+        return user instanceof Patient ? (Patient) user : new Patient(id, null, null, null, null);
+    }
+
+    private Doctor doctor(int id) {
+        User user = users.apply(id);
+        return user instanceof Doctor ? (Doctor) user : new Doctor(id, null, null, null, null);
+    }
+}
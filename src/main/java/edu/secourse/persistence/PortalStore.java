@@ -0,0 +1,180 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.UserService;
+import edu.secourse.types.IntObjectMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps users and appointments in a data directory as a snapshot plus a write-ahead log of the changes since.
+ * Startup loads the snapshot and replays only the log segments written after it. Each new snapshot rotates the log
+ * first and deletes the segments it replaces once it is safely on disk, so the log never grows past the changes
+ * made between two snapshots.
+ */
+public class PortalStore implements Closeable {
+    private static final String SNAPSHOT_FILE = "portal.snapshot";
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final Object snapshotLock = new Object();
+    private UserService userService;
+    private AppointmentService appointmentService;
+    private ScheduledExecutorService scheduler;
+    private volatile long snapshotAppendedCount;
+
+    private PortalStore(Path directory, WriteAheadLog log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed. Commits the log every 2 milliseconds and fsyncs each
+     * commit.
+     * @param directory The data directory
+     * @return The open store
+     * @throws IOException If the directory cannot be read
+     */
+    public static PortalStore open(Path directory) throws IOException {
+        return open(directory, 2, true);
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed
+     * @param directory The data directory
+     * @param commitIntervalMillis How long logged changes may wait before being written out
+     * @param fsync Whether each log commit is forced to the storage device
+     * @return The open store
+     * @throws IOException If the directory cannot be read
+     */
+    public static PortalStore open(Path directory, long commitIntervalMillis, boolean fsync) throws IOException {
+        // a new log continues the snapshot's id key and segment numbers
+        Snapshot snapshot = Snapshot.readHeader(directory.resolve(SNAPSHOT_FILE));
+        long idKey = snapshot != null ? snapshot.getIdKey() : new SecureRandom().nextLong();
+        long sequence = snapshot != null ? snapshot.getLogSequence() : 1;
+        return new PortalStore(directory,
+                WriteAheadLog.open(directory, commitIntervalMillis, fsync, idKey, sequence));
+    }
+
+    /**
+     * Gets the key that the UserService for this store must use for its PermutationIdAllocator
+     * @return The id key
+     */
+    public long getIdKey() {
+        return log.getIdKey();
+    }
+
+    /**
+     * Loads the latest snapshot and the log written after it into empty services, then logs every later change made
+     * through them
+     * @param userService
+     * @param appointmentService
+     * @throws IOException If the snapshot or the log cannot be read
+     */
+    public void load(UserService userService, AppointmentService appointmentService) throws IOException {
+        IntObjectMap<User> removedUsers = new IntObjectMap<>();
+        Snapshot snapshot = null;
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        if (Snapshot.readHeader(snapshotFile) != null) {
+            snapshot = Snapshot.load(snapshotFile, userService, appointmentService, removedUsers);
+        }
+
+        log.replay(userService, appointmentService, snapshot != null ? snapshot.getLogSequence() : 0, removedUsers);
+
+        this.userService = userService;
+        this.appointmentService = appointmentService;
+        userService.addListener(log);
+        appointmentService.addListener(log);
+    }
+
+    /**
+     * Writes a new snapshot of the loaded services and deletes the log segments it replaces
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        if (userService == null) {
+            throw new IllegalStateException("The store has not been loaded.");
+        }
+
+        synchronized (snapshotLock) {
+            // every change before the rotation is in memory already, so the snapshot holds it
+            long appended = log.getAppendedCount();
+            long sequence = log.rotate();
+            Snapshot.write(directory.resolve(SNAPSHOT_FILE), log.getIdKey(), sequence, userService,
+                    appointmentService);
+            log.deleteSegmentsBefore(sequence);
+            snapshotAppendedCount = appended;
+        }
+    }
+
+    /**
+     * Waits until every change logged so far is on disk
+     */
+    public void sync() {
+        log.sync();
+    }
+
+    /**
+     * Takes a snapshot in the background at a fixed rate, skipping it when nothing has changed since the last one
+     * @param period The time between snapshots
+     * @param unit The unit of period
+     */
+    public synchronized void startSnapshots(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "portal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                if (log.getAppendedCount() != snapshotAppendedCount) {
+                    snapshot();
+                }
+            } catch (IOException ex) {
+                // the log still holds every change, so the next snapshot can catch up
+                System.err.println("Failed to write a snapshot: " + ex.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops background snapshots, writes a final snapshot so the next start replays nothing, and closes the log
+     * @throws IOException If the snapshot or the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (scheduler != null) {
+                // not shutdownNow: interrupting a thread in the middle of file I/O closes the channel it is using
+                scheduler.shutdown();
+                try {
+                    scheduler.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                scheduler = null;
+            }
+        }
+
+        try {
+            if (userService != null) {
+                snapshot();
+                userService.removeListener(log);
+                appointmentService.removeListener(log);
+            }
+        } finally {
+            log.close();
+        }
+    }
+}
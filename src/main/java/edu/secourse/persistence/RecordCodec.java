@@ -0,0 +1,214 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Admin;
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Binary encoding of users and appointments shared by the log and snapshot files.
+ * Integers that are usually small are written as unsigned LEB128 varints, and strings as a varint length followed
+ * by UTF-8 bytes.
+ */
+final class RecordCodec {
+    static final byte USER_PUT = 1;
+    static final byte USER_DELETE = 2;
+    static final byte APPOINTMENT_PUT = 3;
+    static final byte APPOINTMENT_DELETE = 4;
+
+    private static final byte PATIENT = 0;
+    private static final byte DOCTOR = 1;
+    private static final byte ADMIN = 2;
+
+    private static final Appointment.Status[] STATUSES = Appointment.Status.values();
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Writes every field of a user
+     * @param buffer
+     * @param user
+     */
+    static void writeUser(ByteBuffer buffer, User user) {
+        buffer.put(roleOf(user));
+        writeVarInt(buffer, user.getAccNum());
+        writeString(buffer, user.getUsername());
+        writeString(buffer, user.getPassword());
+        writeString(buffer, user.getName());
+        writeString(buffer, user.getEmail());
+    }
+
+    /**
+     * Reads a user written by writeUser
+     * @param buffer
+     * @return A new user model of the stored role
+     */
+    static User readUser(ByteBuffer buffer) {
+        byte role = buffer.get();
+        int id = readVarInt(buffer);
+        String username = readString(buffer);
+        String password = readString(buffer);
+        String name = readString(buffer);
+        String email = readString(buffer);
+
+        switch (role) {
+            case PATIENT:
+                return new Patient(id, username, password, name, email);
+            case DOCTOR:
+                return new Doctor(id, username, password, name, email);
+            case ADMIN:
+                return new Admin(id, username, password, name, email);
+            default:
+                throw new IllegalStateException("Unknown role in record: " + role);
+        }
+    }
+
+    /**
+     * Writes every field of an appointment, storing the patient and doctor by account number
+     * @param buffer
+     * @param appointment
+     */
+    static void writeAppointment(ByteBuffer buffer, Appointment appointment) {
+        writeVarInt(buffer, appointment.getAppointmentId());
+        writeVarInt(buffer, appointment.getPatient().getAccNum());
+        writeVarInt(buffer, appointment.getDoctor().getAccNum());
+        Date start = appointment.getStartDateTime();
+        buffer.put((byte) (start == null ? 0 : 1));
+        if (start != null) {
+            buffer.putLong(start.getTime());
+        }
+        writeVarInt(buffer, appointment.getDurationMinutes());
+        buffer.put((byte) appointment.getStatus().ordinal());
+    }
+
+    /**
+     * Reads an appointment written by writeAppointment
+     * @param buffer
+     * @param users Looks up the patient and doctor by account number
+     * @return A new appointment model, or null if its patient or doctor could not be found
+     */
+    static Appointment readAppointment(ByteBuffer buffer, UserLookup users) {
+        return readAppointmentFields(buffer).resolve(users);
+    }
+
+    /**
+     * Reads an appointment written by writeAppointment without looking up its patient and doctor
+     * @param buffer
+     * @return The stored fields
+     */
+    static AppointmentFields readAppointmentFields(ByteBuffer buffer) {
+        int id = readVarInt(buffer);
+        int patientId = readVarInt(buffer);
+        int doctorId = readVarInt(buffer);
+        Date start = buffer.get() == 0 ? null : new Date(buffer.getLong());
+        int durationMinutes = readVarInt(buffer);
+        Appointment.Status status = STATUSES[buffer.get()];
+        return new AppointmentFields(id, patientId, doctorId, start, durationMinutes, status);
+    }
+
+    static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in record");
+    }
+
+    /**
+     * Writes a string as its UTF-8 length plus one (0 meaning null) followed by its bytes
+     * @param buffer
+     * @param value
+     */
+    static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            writeVarInt(buffer, 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte roleOf(User user) {
+        if (user instanceof Patient) {
+            return PATIENT;
+        }
+        if (user instanceof Doctor) {
+            return DOCTOR;
+        }
+        return ADMIN;
+    }
+
+    /**
+     * The fields of a stored appointment, with the patient and doctor still as account numbers
+     */
+    static final class AppointmentFields {
+        final int id;
+        final int patientId;
+        final int doctorId;
+        final Date start;
+        final int durationMinutes;
+        final Appointment.Status status;
+
+        AppointmentFields(int id, int patientId, int doctorId, Date start, int durationMinutes,
+                          Appointment.Status status) {
+            this.id = id;
+            this.patientId = patientId;
+            this.doctorId = doctorId;
+            this.start = start;
+            this.durationMinutes = durationMinutes;
+            this.status = status;
+        }
+
+        /**
+         * Builds the appointment model
+         * @param users Looks up the patient and doctor by account number
+         * @return A new appointment model, or null if its patient or doctor could not be found
+         */
+        Appointment resolve(UserLookup users) {
+            User patient = users.find(patientId);
+            User doctor = users.find(doctorId);
+            if (!(patient instanceof Patient) || !(doctor instanceof Doctor)) {
+                return null;
+            }
+            return new Appointment(id, (Patient) patient, (Doctor) doctor, start, durationMinutes, status);
+        }
+    }
+
+    /**
+     * Finds users by account number while records are being read
+     */
+    interface UserLookup {
+        User find(int id);
+    }
+}
@@ -0,0 +1,70 @@
+package edu.secourse.persistence;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Streams encoded records to a file through one direct buffer, writing it out whenever it fills up, so memory use
+ * does not depend on how many records are written. Keeps a running CRC32C of everything written through it.
+ */
+final class RecordWriter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    RecordWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Encodes one record, writing out the buffer first if the record does not fit in what is left of it
+     * @param encode Writes the record into the buffer it is given
+     */
+    void put(Consumer<ByteBuffer> encode) throws IOException {
+        while (true) {
+            int start = buffer.position();
+            try {
+                encode.accept(buffer);
+                return;
+            } catch (BufferOverflowException ex) {
+                buffer.position(start);
+                if (start == 0) {
+                    // a single record bigger than the buffer
+                    buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                } else {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out everything buffered so far
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes out everything buffered so far, followed by the CRC32C of everything written before it
+     */
+    void finishWithCrc() throws IOException {
+        flush();
+        buffer.putInt((int) crc.getValue()).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,204 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.UserService;
+import edu.secourse.types.IntObjectMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary image of every user and appointment, used to start up without replaying the whole log.
+ * After a fixed header, the file holds three sections, each a varint count followed by records in the log's
+ * encoding: stored users, users that are deleted but still referred to by appointments, and appointments. A CRC32C
+ * of everything after the header ends the file. The file is written under a temporary name and moved into place,
+ * so a crash never leaves a partial snapshot, and it is read back through a memory mapping.
+ */
+public final class Snapshot {
+    private static final int MAGIC = 0x50505350;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final long idKey;
+    private final long logSequence;
+    private final int lastAccountNumber;
+    private final int lastAppointmentId;
+
+    private Snapshot(long idKey, long logSequence, int lastAccountNumber, int lastAppointmentId) {
+        this.idKey = idKey;
+        this.logSequence = logSequence;
+        this.lastAccountNumber = lastAccountNumber;
+        this.lastAppointmentId = lastAppointmentId;
+    }
+
+    /**
+     * Gets the id key of the log the snapshot was taken from
+     * @return The key for the UserService's PermutationIdAllocator
+     */
+    public long getIdKey() {
+        return idKey;
+    }
+
+    /**
+     * Gets the first log segment that may hold changes missing from the snapshot
+     * @return The segment number to replay from
+     */
+    public long getLogSequence() {
+        return logSequence;
+    }
+
+    /**
+     * Writes a snapshot of both services. Writers may keep running; changes they make while the snapshot is written
+     * may or may not be included, so it must be combined with the log from logSequence on.
+     * @param file The snapshot file, replaced atomically
+     * @param idKey The id key of the log
+     * @param logSequence The first log segment to replay on top of this snapshot
+     * @param userService
+     * @param appointmentService
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path file, long idKey, long logSequence, UserService userService,
+                             AppointmentService appointmentService) throws IOException {
+        // read before the records, so they cover every id the records use
+        int lastAccountNumber = userService.getLastAccountNumber();
+        int lastAppointmentId = appointmentService.getLastAppointmentId();
+
+        ArrayList<User> users = new ArrayList<>();
+        IntObjectMap<User> written = new IntObjectMap<>();
+        userService.forEachUser(user -> {
+            users.add(user);
+            written.put(user.getAccNum(), user);
+        });
+
+        // one consistent view, read without holding up bookings
+        ArrayList<Appointment> appointments = new ArrayList<>();
+        appointmentService.snapshot().forEach(appointments::add);
+        IntObjectMap<User> removedUsers = new IntObjectMap<>();
+        for (Appointment appointment : appointments) {
+            addIfMissing(appointment.getPatient(), written, removedUsers);
+            addIfMissing(appointment.getDoctor(), written, removedUsers);
+        }
+        ArrayList<User> removed = new ArrayList<>(removedUsers.size());
+        removedUsers.forEachValue(removed::add);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                    .putLong(idKey).putLong(logSequence).putInt(lastAccountNumber).putInt(lastAppointmentId)
+                    .flip();
+            channel.write(header);
+
+            RecordWriter writer = new RecordWriter(channel);
+            section(writer, users, RecordCodec::writeUser);
+            section(writer, removed, RecordCodec::writeUser);
+            section(writer, appointments, RecordCodec::writeAppointment);
+            writer.finishWithCrc();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads a snapshot into empty services
+     * @param file The snapshot file
+     * @param userService
+     * @param appointmentService
+     * @param removedUsers Filled with the deleted users that appointments still refer to
+     * @return The snapshot's header
+     * @throws IOException If the file cannot be read or is damaged
+     */
+    static Snapshot load(Path file, UserService userService, AppointmentService appointmentService,
+                         IntObjectMap<User> removedUsers) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Snapshot snapshot = readHeader(buffer, file);
+        if (buffer.remaining() < 4) {
+            throw new IOException("Snapshot is truncated: " + file);
+        }
+        ByteBuffer body = buffer.slice(HEADER_SIZE, buffer.limit() - HEADER_SIZE - 4);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Snapshot is damaged: " + file);
+        }
+
+        // resumed first, so the users' own account numbers are already behind the counter when they are reserved
+        userService.resumeAccountNumbers(snapshot.lastAccountNumber);
+        for (int i = RecordCodec.readVarInt(body); i > 0; i--) {
+            userService.restoreUser(RecordCodec.readUser(body));
+        }
+        for (int i = RecordCodec.readVarInt(body); i > 0; i--) {
+            User user = RecordCodec.readUser(body);
+            removedUsers.put(user.getAccNum(), user);
+        }
+
+        RecordCodec.UserLookup lookup = id -> {
+            User user = userService.getUser(id);
+            return user != null ? user : removedUsers.get(id);
+        };
+        for (int i = RecordCodec.readVarInt(body); i > 0; i--) {
+            Appointment appointment = RecordCodec.readAppointment(body, lookup);
+            if (appointment != null) {
+                appointmentService.restoreAppointment(appointment);
+            }
+        }
+
+        appointmentService.reserveAppointmentId(snapshot.lastAppointmentId);
+        return snapshot;
+    }
+
+    /**
+     * Reads just the header of a snapshot
+     * @param file The snapshot file
+     * @return The header, or null if the file does not exist
+     * @throws IOException If the file cannot be read or is not a snapshot
+     */
+    static Snapshot readHeader(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header);
+            return readHeader(header.flip(), file);
+        }
+    }
+
+    private static Snapshot readHeader(ByteBuffer buffer, Path file) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IOException("Not a patient portal snapshot: " + file);
+        }
+        buffer.getShort();
+        return new Snapshot(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+    }
+
+    private static <T> void section(RecordWriter writer, ArrayList<T> records,
+                                    BiConsumer<ByteBuffer, T> encoder) throws IOException {
+        writer.put(buffer -> RecordCodec.writeVarInt(buffer, records.size()));
+        for (T record : records) {
+            writer.put(buffer -> encoder.accept(buffer, record));
+        }
+    }
+
+    private static void addIfMissing(User user, IntObjectMap<User> written, IntObjectMap<User> missing) {
+        if (user != null && !written.containsKey(user.getAccNum())) {
+            missing.put(user.getAccNum(), user);
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.StoreListener;
+import edu.secourse.services.UserService;
+import edu.secourse.types.IntObjectMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of every change made through UserService and AppointmentService.
+ * Register it as a StoreListener on both services and every create, update and delete is appended as a compact
+ * binary record. On startup, replay rebuilds both services from the log.
+ * <p>
+ * Appends only copy the record into a preallocated direct buffer. A background thread writes the buffer to the
+ * file and fsyncs it every few milliseconds (group commit), so many changes share one fsync. An append that finds
+ * the buffer full wakes that thread and waits for it to swap in the empty one, so the I/O never runs on an
+ * appending thread, which may be holding a service's locks. Changes made since the last commit are lost if the
+ * process dies; call sync to wait for everything appended so far to reach the disk.
+ * If a commit fails, the records it held may be partly on disk, so the log stops: every later append, sync, rotate
+ * and close throws, rather than appending after a gap.
+ * <p>
+ * The log is a directory of numbered segment files. Each segment starts with a header holding the key used to
+ * generate user account numbers, so a restarted UserService continues the same id sequence. Each record is framed
+ * as [length][CRC32C][type][body]. Only the newest segment can end in a record cut short by a crash, so replay
+ * trims an incomplete or corrupt record off its end and carries on, while one anywhere in an older segment fails
+ * replay rather than skip the rest of that segment. Segments older than the latest snapshot are deleted by
+ * compaction.
+ */
+public class WriteAheadLog implements StoreListener, Closeable {
+    private static final int MAGIC = 0x50504C47;
+    private static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final int FRAME_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String SEGMENT_PREFIX = "portal-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final long idKey;
+    private final long commitIntervalMillis;
+    private final boolean fsync;
+
+    // appenders fill the active buffer; the committer swaps it with the spare and writes it out
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition work = appendLock.newCondition();
+    private final Condition swapped = appendLock.newCondition();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    private long appendedCount;
+    // guarded by appendLock; flushWanted is set when appenders need the active buffer written out early
+    private boolean flushWanted;
+    private long swapCount;
+    private volatile long durableCount;
+    private volatile boolean closed;
+    // the error that stopped the log, set by the first commit that fails
+    private volatile IOException failure;
+    private final Thread committer;
+
+    // the segment being appended to, guarded by commitLock
+    private FileChannel channel;
+    private volatile long sequence;
+
+    private WriteAheadLog(Path directory, long sequence, FileChannel channel, long idKey, long commitIntervalMillis,
+                          boolean fsync) {
+        this.directory = directory;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.idKey = idKey;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.fsync = fsync;
+        this.active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        committer = new Thread(this::commitLoop, "wal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Opens the log in a directory, creating it with a new random id key if it has no segments.
+     * Commits every 2 milliseconds and fsyncs each commit.
+     * @param directory The directory holding the segment files
+     * @return The open log, appending to its newest segment
+     * @throws IOException If the directory cannot be read or holds a file that is not a log segment
+     */
+    public static WriteAheadLog open(Path directory) throws IOException {
+        return open(directory, 2, true);
+    }
+
+    /**
+     * Opens the log in a directory, creating it with a new random id key if it has no segments
+     * @param directory The directory holding the segment files
+     * @param commitIntervalMillis How long appended records may wait before being written out
+     * @param fsync Whether each commit is forced to the storage device
+     * @return The open log, appending to its newest segment
+     * @throws IOException If the directory cannot be read or holds a file that is not a log segment
+     */
+    public static WriteAheadLog open(Path directory, long commitIntervalMillis, boolean fsync) throws IOException {
+        return open(directory, commitIntervalMillis, fsync, new SecureRandom().nextLong(), 1);
+    }
+
+    /**
+     * Opens the log in a directory
+     * @param newIdKey The id key to use if the directory has no segments
+     * @param newSequence The number to give the first segment if the directory has no segments
+     */
+    static WriteAheadLog open(Path directory, long commitIntervalMillis, boolean fsync, long newIdKey,
+                              long newSequence) throws IOException {
+        Files.createDirectories(directory);
+        long[] sequences = segments(directory);
+        if (sequences.length == 0) {
+            FileChannel channel = createSegment(directory, newSequence, newIdKey);
+            return new WriteAheadLog(directory, newSequence, channel, newIdKey, commitIntervalMillis, fsync);
+        }
+
+        long sequence = sequences[sequences.length - 1];
+        Path file = segmentFile(directory, sequence);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long idKey = readHeader(channel, file);
+            channel.position(channel.size());
+            return new WriteAheadLog(directory, sequence, channel, idKey, commitIntervalMillis, fsync);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the key that the UserService for this log must use for its PermutationIdAllocator
+     * @return The id key stored in the log header
+     */
+    public long getIdKey() {
+        return idKey;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the number of the segment new records are appended to
+     * @return The current segment number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Counts the records appended since the log was opened
+     * @return The number of appended records
+     */
+    long getAppendedCount() {
+        appendLock.lock();
+        try {
+            return appendedCount;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Applies every record in the log to the services, then trims any incomplete record at the end of the newest
+     * segment. Call this before registering the log as a listener, or the replayed changes are logged again.
+     * @param userService The service to load users into
+     * @param appointmentService The service to load appointments into
+     * @throws IOException If a segment cannot be read, or a segment other than the newest is damaged
+     */
+    public void replay(UserService userService, AppointmentService appointmentService) throws IOException {
+        replay(userService, appointmentService, 0, new IntObjectMap<>());
+    }
+
+    /**
+     * Applies the records of every segment numbered fromSequence or later, in order. Every record holds the whole
+     * state of the record it changes, so replaying changes the services already contain is harmless.
+     * @throws IOException If a segment cannot be read, or a segment other than the newest is damaged
+     * @param fromSequence The first segment to replay
+     * @param removedUsers Users that appointments may refer to but that are no longer stored; users deleted during
+     *                     replay are added to it
+     */
+    void replay(UserService userService, AppointmentService appointmentService, long fromSequence,
+                IntObjectMap<User> removedUsers) throws IOException {
+        RecordCodec.UserLookup lookup = id -> {
+            User user = userService.getUser(id);
+            return user != null ? user : removedUsers.get(id);
+        };
+
+        commitLock.lock();
+        appendLock.lock();
+        try {
+            for (long segment : segments(directory)) {
+                if (segment < fromSequence) {
+                    continue;
+                }
+
+                if (segment == sequence) {
+                    long end = replay(channel, userService, appointmentService, removedUsers, lookup);
+                    if (end < channel.size()) {
+                        channel.truncate(end);
+                    }
+                    channel.position(end);
+                } else {
+                    Path file = segmentFile(directory, segment);
+                    try (FileChannel old = FileChannel.open(file, StandardOpenOption.READ)) {
+                        long end = replay(old, userService, appointmentService, removedUsers, lookup);
+                        if (end < old.size()) {
+                            // a closed segment was fully committed, so this is damage, not a crash mid-write
+                            throw new IOException("Log segment is damaged at byte " + end + ": " + file);
+                        }
+                    }
+                }
+            }
+        } finally {
+            appendLock.unlock();
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the records of one segment
+     * @return The position just after the last valid record
+     */
+    private static long replay(FileChannel channel, UserService userService, AppointmentService appointmentService,
+                               IntObjectMap<User> removedUsers, RecordCodec.UserLookup lookup) throws IOException {
+        long from = HEADER_SIZE;
+        long size = channel.size();
+        if (size <= from) {
+            return from;
+        }
+
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        CRC32C check = new CRC32C();
+        long position = from;
+        while (buffer.remaining() >= FRAME_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            check.reset();
+            check.update(record.duplicate());
+            if ((int) check.getValue() != expectedCrc) {
+                break;
+            }
+
+            apply(record, userService, appointmentService, removedUsers, lookup);
+            buffer.position(start + FRAME_SIZE + length);
+            position = from + buffer.position();
+        }
+        return position;
+    }
+
+    private static void apply(ByteBuffer record, UserService userService, AppointmentService appointmentService,
+                              IntObjectMap<User> removedUsers, RecordCodec.UserLookup lookup) {
+        byte type = record.get();
+        switch (type) {
+            case RecordCodec.USER_PUT:
+                userService.restoreUser(RecordCodec.readUser(record));
+                break;
+            case RecordCodec.USER_DELETE: {
+                // keeps the deleted user, since appointments later in the log may still refer to them
+                int id = RecordCodec.readVarInt(record);
+                User user = userService.getUser(id);
+                if (user != null) {
+                    removedUsers.put(id, user);
+                    userService.deleteUser(id);
+                }
+                break;
+            }
+            case RecordCodec.APPOINTMENT_PUT: {
+                Appointment appointment = RecordCodec.readAppointment(record, lookup);
+                if (appointment != null) {
+                    appointmentService.restoreAppointment(appointment);
+                }
+                break;
+            }
+            case RecordCodec.APPOINTMENT_DELETE:
+                appointmentService.deleteAppointment(RecordCodec.readVarInt(record));
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type in log: " + type);
+        }
+    }
+
+    @Override
+    public void onUserSaved(User user) {
+        append(RecordCodec.USER_PUT, user, null, 0);
+    }
+
+    @Override
+    public void onUserDeleted(int id) {
+        append(RecordCodec.USER_DELETE, null, null, id);
+    }
+
+    @Override
+    public void onAppointmentSaved(Appointment appointment) {
+        append(RecordCodec.APPOINTMENT_PUT, null, appointment, 0);
+    }
+
+    @Override
+    public void onAppointmentDeleted(int id) {
+        append(RecordCodec.APPOINTMENT_DELETE, null, null, id);
+    }
+
+    /**
+     * Waits until every record appended so far has been written and, if enabled, fsynced
+     * @throws UncheckedIOException If the log cannot be written
+     */
+    public void sync() {
+        checkFailure();
+        long target;
+        appendLock.lock();
+        try {
+            target = appendedCount;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (durableCount < target) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits everything appended so far and starts a new segment. Records appended after this call returns are
+     * only in the new segment.
+     * @return The number of the new segment
+     * @throws IOException If the old segment cannot be committed or the new one cannot be created
+     */
+    public long rotate() throws IOException {
+        commitLock.lock();
+        try {
+            commit();
+            long next = sequence + 1;
+            FileChannel old = channel;
+            channel = createSegment(directory, next, idKey);
+            sequence = next;
+            old.close();
+            return next;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes every segment numbered below the given one, once a snapshot holds their changes
+     * @param sequence The first segment to keep
+     * @throws IOException If a segment cannot be deleted
+     */
+    public void deleteSegmentsBefore(long sequence) throws IOException {
+        for (long segment : segments(directory)) {
+            if (segment < sequence && segment < this.sequence) {
+                Files.deleteIfExists(segmentFile(directory, segment));
+            }
+        }
+    }
+
+    /**
+     * Commits everything appended so far and closes the file
+     * @throws IOException If the final commit or the close fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        committer.interrupt();
+        try {
+            committer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            commit();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes one record into the active buffer. If it does not fit, waits for the committer to swap in the empty
+     * buffer rather than writing the full one on this thread.
+     */
+    private void append(byte type, User user, Appointment appointment, int id) {
+        if (closed) {
+            throw new IllegalStateException("The log is closed.");
+        }
+        checkFailure();
+
+        while (true) {
+            appendLock.lock();
+            try {
+                int start = active.position();
+                try {
+                    active.position(start + FRAME_SIZE);
+                    active.put(type);
+                    if (user != null) {
+                        RecordCodec.writeUser(active, user);
+                    } else if (appointment != null) {
+                        RecordCodec.writeAppointment(active, appointment);
+                    } else {
+                        RecordCodec.writeVarInt(active, id);
+                    }
+                } catch (BufferOverflowException | IllegalArgumentException ex) {
+                    active.position(start);
+                    if (start == 0) {
+                        // a single record bigger than the buffer
+                        active = ByteBuffer.allocateDirect(active.capacity() * 2);
+                        continue;
+                    }
+                    // fall through to commit the full buffer, then try again
+                    start = -1;
+                }
+
+                if (start >= 0) {
+                    int length = active.position() - start - FRAME_SIZE;
+                    ByteBuffer body = active.duplicate().position(start + FRAME_SIZE).limit(active.position());
+                    crc.reset();
+                    crc.update(body);
+                    active.putInt(start, length);
+                    active.putInt(start + 4, (int) crc.getValue());
+                    appendedCount++;
+                    if (active.position() > active.capacity() / 2 && !flushWanted) {
+                        flushWanted = true;
+                        work.signal();
+                    }
+                    return;
+                }
+
+                awaitSwap();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wakes the committer and waits until it has swapped the active buffer out. Must be called holding appendLock.
+     */
+    private void awaitSwap() {
+        long seen = swapCount;
+        flushWanted = true;
+        work.signal();
+        boolean interrupted = false;
+        try {
+            while (swapCount == seen) {
+                checkFailure();
+                if (closed) {
+                    throw new IllegalStateException("The log is closed.");
+                }
+                try {
+                    swapped.await(commitIntervalMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    // the record must still be appended, so the interrupt is kept for the caller to see afterwards
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes out everything appended so far. Only one commit runs at a time; appends continue into the other buffer
+     * while it runs.
+     */
+    private void commit() {
+        commitLock.lock();
+        try {
+            checkFailure();
+            long count;
+            ByteBuffer toWrite;
+            appendLock.lock();
+            try {
+                count = appendedCount;
+                toWrite = active;
+                active = spare;
+                spare = toWrite;
+                flushWanted = false;
+                swapCount++;
+                swapped.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+            toWrite.clear();
+            if (fsync) {
+                channel.force(false);
+            }
+
+            durableCount = count;
+        } catch (IOException ex) {
+            failure = ex;
+            wakeAppenders();
+            throw new UncheckedIOException(ex);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes appenders waiting for a buffer swap that will not come, so they see why
+     */
+    private void wakeAppenders() {
+        appendLock.lock();
+        try {
+            swapped.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (!closed) {
+            appendLock.lock();
+            try {
+                if (!flushWanted) {
+                    work.await(commitIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                appendLock.unlock();
+            }
+
+            if (durableCount < getAppendedCount()) {
+                try {
+                    commit();
+                } catch (UncheckedIOException ex) {
+                    // the log has stopped; every later append, sync and close reports the failure
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws the error that stopped the log, if a commit has failed
+     */
+    private void checkFailure() {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("An earlier write to the log failed.", failed);
+        }
+    }
+
+    static Path segmentFile(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Lists the numbers of the segments in a directory
+     * @return The segment numbers in ascending order
+     */
+    private static long[] segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .mapToLong(name -> Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    /**
+     * Creates a segment holding just its header. The header is written to a temporary file first, so a crash never
+     * leaves a segment without one.
+     */
+    private static FileChannel createSegment(Path directory, long sequence, long idKey) throws IOException {
+        Path file = segmentFile(directory, sequence);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(idKey).flip();
+            channel.write(header);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(HEADER_SIZE);
+        return channel;
+    }
+
+    private static long readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getShort() != VERSION) {
+            throw new IOException("Not a patient portal log segment: " + file);
+        }
+        header.getShort();
+        return header.getLong();
+    }
+}
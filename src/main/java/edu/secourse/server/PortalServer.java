@@ -0,0 +1,538 @@
+package edu.secourse.server;
+
+import edu.secourse.types.BoundedVirtualExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Line-protocol server for the portal's commands. Every line a client sends is one command, answered with the
+ * command's output followed by a line holding a single ".". Output lines that start with "." get a second "." in
+ * front, as in SMTP, so the end of a response is never ambiguous. Sending "exit", with or without arguments, closes
+ * the connection once the commands before it are answered.
+ * <p>
+ * One selector thread does all socket I/O, so thousands of idle connections cost no threads. Commands run on
+ * workers, by default virtual threads, so a command blocked on I/O does not hold up the others. A client may send
+ * many commands without waiting (pipelining), and they run one after another in the order sent, with their
+ * responses written back in the same order. Each response is sent as soon as it is ready, or with the next few
+ * kilobytes of responses if earlier ones are still being written, rather than once the client pauses. A client that stops reading its responses is not read from, and its queued
+ * commands do not run, until it catches up.
+ */
+public class PortalServer implements Closeable {
+    /**
+     * Runs one command line
+     */
+    @FunctionalInterface
+    public interface RequestHandler {
+        /**
+         * Runs a command
+         * @param line The command line, without its line ending
+         * @param out Where the command prints its response
+         */
+        void handle(String line, PrintStream out);
+    }
+
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    private static final int READ_BUFFER_SIZE = 1 << 13;
+    // a client with this much unsent output, or this many commands waiting to run, is not read from until it catches up
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    // a worker hands its responses to the selector once this much has built up behind unsent output
+    private static final int HANDOVER_SIZE = 1 << 14;
+    private static final int MAX_QUEUED_REQUESTS = 1024;
+    private static final int MAX_RUNNING_COMMANDS = 256;
+    private static final byte[] END_OF_RESPONSE = ".\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final RequestHandler handler;
+    private final ExecutorService workers;
+    // connections with new output or finished work, for the selector thread to pick up
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    private PortalServer(ServerSocketChannel serverChannel, Selector selector, RequestHandler handler,
+                         ExecutorService workers) {
+        this.serverChannel = serverChannel;
+        this.selector = selector;
+        this.handler = handler;
+        this.workers = workers;
+        this.selectorThread = new Thread(this::run, "portal-server");
+    }
+
+    /**
+     * Starts a server that runs each connection's commands on a virtual thread, with at most 256 running at once
+     * @param address The address to listen on; port 0 picks a free port
+     * @param handler Runs each command line
+     * @return The running server
+     * @throws IOException If the address cannot be bound
+     */
+    public static PortalServer start(InetSocketAddress address, RequestHandler handler) throws IOException {
+        return start(address, handler, new BoundedVirtualExecutor("portal-server-worker", MAX_RUNNING_COMMANDS));
+    }
+
+    /**
+     * Starts a server
+     * @param address The address to listen on; port 0 picks a free port
+     * @param handler Runs each command line
+     * @param workers Runs the commands; shut down when the server is closed
+     * @return The running server
+     * @throws IOException If the address cannot be bound
+     */
+    public static PortalServer start(InetSocketAddress address, RequestHandler handler, ExecutorService workers)
+            throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address, 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            selector.close();
+            throw ex;
+        }
+
+        PortalServer server = new PortalServer(serverChannel, selector, handler, workers);
+        server.selectorThread.start();
+        return server;
+    }
+
+    /**
+     * Checks whether a command line ends the session. Any line whose first word is "exit" does, so "exit now" ends
+     * it the same way in the server as in the interactive and batch modes.
+     * @param line The command line
+     * @return True if the line is an exit command
+     */
+    public static boolean isExit(String line) {
+        return line.startsWith("exit") && (line.length() == 4 || line.charAt(4) == ' ');
+    }
+
+    /**
+     * Gets the port the server listens on
+     * @return The local port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections, closes every open connection and waits for running commands to finish
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        write(connection);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection client = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        write(client);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            System.err.println("Server stopped: " + ex.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+            closeQuietly(serverChannel);
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key));
+            } catch (IOException ex) {
+                // such as running out of file descriptors; the clients already connected are unaffected
+                System.err.println("Failed to accept a connection: " + ex.getMessage());
+                if (channel != null) {
+                    closeQuietly(channel);
+                }
+                return;
+            }
+        }
+    }
+
+    private void read(Connection connection) {
+        int count;
+        try {
+            readBuffer.clear();
+            count = connection.channel.read(readBuffer);
+        } catch (IOException ex) {
+            close(connection);
+            return;
+        }
+        if (count < 0) {
+            connection.inputClosed = true;
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            closeIfDone(connection);
+            return;
+        }
+
+        readBuffer.flip();
+        boolean added = false;
+        while (readBuffer.hasRemaining() && !connection.inputClosed) {
+            byte b = readBuffer.get();
+            if (b != '\n') {
+                if (!connection.line.append(b)) {
+                    // a client sending an endless line is misbehaving
+                    close(connection);
+                    return;
+                }
+                continue;
+            }
+
+            String line = connection.line.take();
+            if (isExit(line)) {
+                connection.inputClosed = true;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                break;
+            }
+            synchronized (connection) {
+                connection.requests.add(line);
+            }
+            added = true;
+        }
+
+        if (added) {
+            schedule(connection);
+            if (connection.queued() >= MAX_QUEUED_REQUESTS) {
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+        if (connection.inputClosed) {
+            write(connection);
+        }
+    }
+
+    /**
+     * Starts a worker on a connection's queued commands, unless one is already running them
+     */
+    private void schedule(Connection connection) {
+        synchronized (connection) {
+            if (connection.busy || connection.requests.isEmpty()) {
+                return;
+            }
+            connection.busy = true;
+        }
+        workers.execute(() -> process(connection));
+    }
+
+    /**
+     * Runs a connection's queued commands in order on a worker thread, handing the responses to the selector as they
+     * build up. Stops early, leaving the rest queued, while the client has too much output it has not read yet.
+     */
+    private void process(Connection connection) {
+        ResponseStream response = new ResponseStream();
+        PrintStream out = new PrintStream(response, false, StandardCharsets.UTF_8);
+        boolean finished = false;
+        boolean handling = false;
+        try {
+            while (true) {
+                String line;
+                synchronized (connection) {
+                    line = connection.pendingOutput.get() >= MAX_PENDING_OUTPUT ? null : connection.requests.poll();
+                    if (line == null) {
+                        // queue the responses before clearing busy, so closeIfDone cannot see the work done but not yet answered
+                        handOver(connection, response);
+                        connection.busy = false;
+                        finished = true;
+                        break;
+                    }
+                }
+
+                handling = true;
+                try {
+                    handler.handle(line, out);
+                } catch (RuntimeException ex) {
+                    out.println("Internal error: " + ex);
+                }
+                handling = false;
+                out.flush();
+                response.endResponse();
+                count(connection, response);
+                // sent at once if the socket has nothing else to send, otherwise batched behind what is already queued
+                if (response.size() >= HANDOVER_SIZE || connection.outbound.isEmpty()) {
+                    handOver(connection, response);
+                    ready.add(connection);
+                    selector.wakeup();
+                }
+            }
+        } finally {
+            if (!finished) {
+                // an Error escaped a command; answer it so later responses stay in order, and let another worker
+                // run whatever is still queued rather than leaving the connection busy forever
+                if (handling) {
+                    out.println("Internal error: command failed");
+                    out.flush();
+                    response.endResponse();
+                }
+                count(connection, response);
+                synchronized (connection) {
+                    handOver(connection, response);
+                    connection.busy = false;
+                }
+                schedule(connection);
+            }
+            ready.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Adds the bytes a worker has buffered since it last counted to the connection's pending output, so output that
+     * is not yet queued also holds back reading
+     */
+    private static void count(Connection connection, ResponseStream response) {
+        connection.pendingOutput.addAndGet(response.uncounted());
+    }
+
+    /**
+     * Queues a worker's buffered responses for writing. Their bytes must already be counted.
+     */
+    private static void handOver(Connection connection, ResponseStream response) {
+        if (response.size() > 0) {
+            connection.outbound.add(response.take());
+        }
+    }
+
+    private void write(Connection connection) {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = connection.outbound.peek()) != null) {
+                int written = connection.channel.write(buffer);
+                connection.pendingOutput.addAndGet(-written);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                connection.outbound.poll();
+            }
+        } catch (IOException ex) {
+            close(connection);
+            return;
+        }
+
+        SelectionKey key = connection.key;
+        int ops = connection.outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        boolean caughtUp = connection.pendingOutput.get() < MAX_PENDING_OUTPUT;
+        if (!connection.inputClosed && caughtUp && connection.queued() < MAX_QUEUED_REQUESTS) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+        if (caughtUp) {
+            // restarts commands a worker left queued while the client was behind
+            schedule(connection);
+        }
+        closeIfDone(connection);
+    }
+
+    /**
+     * Closes a connection whose client is done sending once every response has been written
+     */
+    private void closeIfDone(Connection connection) {
+        if (!connection.inputClosed) {
+            return;
+        }
+        synchronized (connection) {
+            // checked under the lock, since a worker queues its last responses just before clearing busy
+            if (connection.busy || !connection.requests.isEmpty() || !connection.outbound.isEmpty()) {
+                return;
+            }
+        }
+        close(connection);
+    }
+
+    private void close(Connection connection) {
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing more can be done with it
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final LineBuffer line = new LineBuffer();
+        // guarded by this
+        private final ArrayDeque<String> requests = new ArrayDeque<>();
+        // guarded by this; true while a worker is running this connection's commands
+        private boolean busy;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        // bytes queued in outbound or still buffered by a worker, less what has been written
+        private final AtomicLong pendingOutput = new AtomicLong();
+        // only used on the selector thread
+        private boolean inputClosed;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        synchronized int queued() {
+            return requests.size();
+        }
+    }
+
+    /**
+     * Collects the bytes of a partial line between reads
+     */
+    private static final class LineBuffer {
+        private byte[] bytes = new byte[128];
+        private int size;
+
+        boolean append(byte b) {
+            if (size == MAX_LINE_LENGTH) {
+                return false;
+            }
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.min(size * 2, MAX_LINE_LENGTH));
+            }
+            bytes[size++] = b;
+            return true;
+        }
+
+        String take() {
+            int length = size > 0 && bytes[size - 1] == '\r' ? size - 1 : size;
+            size = 0;
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Buffers responses, doubling any "." that starts a line and ending each response with a "." line
+     */
+    private static final class ResponseStream extends OutputStream {
+        private Buffer buffer = new Buffer();
+        private int counted;
+        private boolean lineStart = true;
+
+        @Override
+        public void write(int b) {
+            if (lineStart && b == '.') {
+                buffer.write('.');
+            }
+            buffer.write(b);
+            lineStart = b == '\n';
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                write(bytes[i]);
+            }
+        }
+
+        void endResponse() {
+            if (!lineStart) {
+                buffer.write('\n');
+            }
+            buffer.write(END_OF_RESPONSE, 0, END_OF_RESPONSE.length);
+            lineStart = true;
+        }
+
+        int size() {
+            return buffer.size();
+        }
+
+        /**
+         * Gets the number of bytes buffered since the last call
+         */
+        int uncounted() {
+            int size = buffer.size();
+            int added = size - counted;
+            counted = size;
+            return added;
+        }
+
+        /**
+         * Removes the buffered bytes, leaving the stream empty
+         */
+        ByteBuffer take() {
+            ByteBuffer bytes = buffer.toByteBuffer();
+            buffer = new Buffer();
+            counted = 0;
+            return bytes;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(256);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -1,22 +1,89 @@
 package edu.secourse.services;
 
 import java.util.ArrayList;
+import edu.secourse.exceptions.AppointmentConflictException;
+import edu.secourse.exceptions.StaleAppointmentException;
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.Operation;
 import edu.secourse.models.Appointment;
 import edu.secourse.models.Doctor;
 import edu.secourse.models.Patient;
+import edu.secourse.types.DenseIdStore;
+import edu.secourse.types.IntObjectMap;
+import edu.secourse.types.IntervalTree;
+import edu.secourse.types.PersistentTimeline;
+import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * Handles CRUD operations for Appointment model, as well as retaining a cache of Appointments.
+ * Appointment ids are handed out in order, so the cache is a segmented array indexed directly by id. The models
+ * themselves are kept only in an AppointmentTable, on the heap by default, which lookups by id read from; the cache
+ * and the indexes hold small entries with just the keys they need, so with a MappedAppointmentTable no models stay
+ * on the heap. Appointments are also indexed by start time, and by start time within each patient and each doctor.
+ * Active appointments are kept in a per-doctor interval tree, which is used to reject double bookings.
+ * An AppointmentService can be shared between threads. Appointments are immutable, and updates replace a version
+ * only if it is still the one the caller read. Writes are serialized so the indexes always agree with each other.
+ * Lookups by id never lock; the start time index is a persistent tree published once at the end of each write, so
+ * time queries and snapshots never lock either and never see a write half done. The per-patient and per-doctor
+ * queries share a read lock.
  *
  * @author Collin Fair
  */
 public class AppointmentService {
-    private ArrayList<Appointment> appointments;
-    private int aptIdTracker = 0;
+    private static final Operation CREATE_APPOINTMENT = Metrics.operation("AppointmentService.createAppointment");
+    private static final Operation BOOK_APPOINTMENT = Metrics.operation("AppointmentService.bookAppointment");
+    private static final Operation GET_APPOINTMENT = Metrics.operation("AppointmentService.getAppointment");
+    private static final Operation UPDATE_APPOINTMENT = Metrics.operation("AppointmentService.updateAppointment");
+    private static final Operation RESCHEDULE_APPOINTMENT = Metrics.operation("AppointmentService.rescheduleAppointment");
+    private static final Operation FIND_CONFLICT = Metrics.operation("AppointmentService.findConflict");
+    private static final Operation FIND_NEXT_FREE_SLOT = Metrics.operation("AppointmentService.findNextFreeSlot");
+    private static final Operation DELETE_APPOINTMENT = Metrics.operation("AppointmentService.deleteAppointment");
+    private static final Operation GET_APPOINTMENTS_BETWEEN = Metrics.operation("AppointmentService.getAppointmentsBetween");
+    private static final Operation GET_NEXT_APPOINTMENTS = Metrics.operation("AppointmentService.getNextAppointments");
+    private static final Operation GET_DOCTOR_APPOINTMENTS_ON = Metrics.operation("AppointmentService.getDoctorAppointmentsOn");
+    private static final Operation GET_APPOINTMENTS_FOR_PATIENT = Metrics.operation("AppointmentService.getAppointmentsForPatient");
+    private static final Operation GET_APPOINTMENTS_FOR_DOCTOR = Metrics.operation("AppointmentService.getAppointmentsForDoctor");
+    private static final Operation GET_APPOINTMENTS = Metrics.operation("AppointmentService.getAppointments");
+    private static final Operation IMPORT_APPOINTMENTS = Metrics.operation("AppointmentService.importAppointments");
+
+    private static final long MILLIS_PER_MINUTE = 60_000;
+
+    private static final Comparator<Entry> BY_TIME =
+            Comparator.<Entry>comparingLong(e -> e.startMillis).thenComparingInt(e -> e.id);
+
+    private final DenseIdStore<Entry> appointments;
+    private final AppointmentTable table;
+    // replaced, never changed, by writers
+    private volatile PersistentTimeline<Entry> byTime = PersistentTimeline.empty();
+    private final IntObjectMap<TreeSet<Entry>> byPatient;
+    private final IntObjectMap<TreeSet<Entry>> byDoctor;
+    private final IntObjectMap<IntervalTree> busyByDoctor;
+    private final IdAllocator aptIdTracker = new SequentialIdAllocator();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CopyOnWriteArrayList<StoreListener> listeners = new CopyOnWriteArrayList<>();
 
     public AppointmentService() {
-        appointments = new ArrayList<>();
+        this(new HeapAppointmentTable());
+    }
+
+    /**
+     * Creates an AppointmentService that stores its appointment models in the given table
+     * @param table An empty table
+     */
+    public AppointmentService(AppointmentTable table) {
+        this.table = table;
+        appointments = new DenseIdStore<>();
+        byPatient = new IntObjectMap<>();
+        byDoctor = new IntObjectMap<>();
+        busyByDoctor = new IntObjectMap<>();
     }
 
     /**
@@ -28,10 +95,64 @@ public class AppointmentService {
      * @return
      */
     public Appointment createAppointment(Patient patient, Doctor doctor, Date startDateTime, Appointment.Status status) {
-        int aptId = aptIdTracker++;
-        Appointment newApt = new Appointment(aptId, patient, doctor, startDateTime, status);
-        appointments.add(newApt);
-        return newApt;
+        return createAppointment(patient, doctor, startDateTime, Appointment.DEFAULT_DURATION_MINUTES, status);
+    }
+
+    /**
+     * Creates an appointment with the given length. Does not check for double bookings; use bookAppointment for that.
+     * @param patient
+     * @param doctor
+     * @param startDateTime
+     * @param durationMinutes
+     * @param status
+     * @return
+     */
+    public Appointment createAppointment(Patient patient, Doctor doctor, Date startDateTime, int durationMinutes,
+                                         Appointment.Status status) {
+        long started = CREATE_APPOINTMENT.start();
+        try {
+            checkDuration(durationMinutes);
+            lock.writeLock().lock();
+            try {
+                int aptId = aptIdTracker.nextId();
+                Appointment newApt = new Appointment(aptId, patient, doctor, startDateTime, durationMinutes, status);
+                byTime = insert(byTime, newApt);
+                notifySaved(newApt);
+                return newApt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            CREATE_APPOINTMENT.stop(started);
+        }
+    }
+
+    /**
+     * Creates an active appointment, only if the doctor has no other active appointment overlapping it
+     * @param patient
+     * @param doctor
+     * @param startDateTime
+     * @param durationMinutes
+     * @return The created appointment
+     * @throws AppointmentConflictException If the doctor is already booked during the appointment
+     */
+    public Appointment bookAppointment(Patient patient, Doctor doctor, Date startDateTime, int durationMinutes) {
+        long started = BOOK_APPOINTMENT.start();
+        try {
+            checkDuration(durationMinutes);
+            long start = millis(startDateTime);
+
+            // the check and the insert share one write lock, so two threads cannot book the same time
+            lock.writeLock().lock();
+            try {
+                checkAvailable(doctor.getAccNum(), start, start + durationMinutes * MILLIS_PER_MINUTE);
+                return createAppointment(patient, doctor, startDateTime, durationMinutes, Appointment.Status.ACTIVE);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            BOOK_APPOINTMENT.stop(started);
+        }
     }
 
     /**
@@ -40,28 +161,137 @@ public class AppointmentService {
      * @return
      */
     public Appointment getAppointment(int id) {
-        for (int i = 0; i < appointments.size(); i++) {
-            if (appointments.get(i).getAppointmentId() == id) {
-                return appointments.get(i);
+        long started = GET_APPOINTMENT.start();
+        try {
+            return table.get(id);
+        } finally {
+            GET_APPOINTMENT.stop(started);
+        }
+    }
+
+    /**
+     * Stores a new version of an appointment, built with the with methods from the version currently stored.
+     * Fails rather than overwrite a change made since that version was read; the caller should read the
+     * appointment again, and retry if the change still makes sense. An active version that takes up time the stored
+     * one did not, such as a cancelled appointment made active again or one moved or lengthened, is only stored if
+     * its doctor is free for that time.
+     * @param appointment The new version, carrying the version number it was built from
+     * @return The stored version, with its version number bumped
+     * @throws StaleAppointmentException If the appointment has changed since the given version
+     * @throws AppointmentConflictException If the new version would double-book its doctor
+     */
+    public Appointment updateAppointment(Appointment appointment) {
+        long started = UPDATE_APPOINTMENT.start();
+        try {
+            lock.writeLock().lock();
+            try {
+                Entry current = appointments.get(appointment.getAppointmentId());
+                if (current == null) {
+                    throw new RuntimeException("Cannot update appointment");
+                }
+                if (current.version != appointment.getVersion()) {
+                    throw new StaleAppointmentException(String.format(
+                            "Appointment %d has been changed since it was read (version %d, now %d).",
+                            appointment.getAppointmentId(),
+                            appointment.getVersion(),
+                            current.version
+                    ));
+                }
+
+                Appointment next = appointment.withVersion(current.version + 1);
+                checkAvailable(current, next);
+                byTime = insert(byTime, next);
+                notifySaved(next);
+                return next;
+            } finally {
+                lock.writeLock().unlock();
             }
+        } finally {
+            UPDATE_APPOINTMENT.stop(started);
         }
-        return null;
     }
 
     /**
-     * Takes in an appointment and matches it with an appointment currently saved in the cache then updates it with
-     * the new appointment data
-     * @param appointment
+     * Moves an appointment to a new start time, whichever version is stored.
+     * An active appointment is only moved if its doctor is free for the whole new time.
+     * @param id The id of the appointment
+     * @param startDateTime The new start time
+     * @return The stored version
+     * @throws AppointmentConflictException If the appointment is active and the doctor is already booked
      */
-    public void updateAppointment (Appointment appointment) {
-        for (int i  = 0; i < appointments.size(); i++) {
-            if (appointments.get(i).getAppointmentId() == appointment.getAppointmentId()) {
-                appointments.set(i, appointment);
-                return;
+    public Appointment rescheduleAppointment(int id, Date startDateTime) {
+        long started = RESCHEDULE_APPOINTMENT.start();
+        try {
+            lock.writeLock().lock();
+            try {
+                Entry current = appointments.get(id);
+                if (current == null) {
+                    throw new RuntimeException("Cannot update appointment");
+                }
+
+                Appointment next = table.get(id).withStartDateTime(startDateTime).withVersion(current.version + 1);
+                checkAvailable(current, next);
+
+                byTime = insert(byTime, next);
+                notifySaved(next);
+                return next;
+            } finally {
+                lock.writeLock().unlock();
             }
+        } finally {
+            RESCHEDULE_APPOINTMENT.stop(started);
         }
+    }
 
-        throw new RuntimeException("Cannot update appointment");
+    /**
+     * Finds an active appointment of a doctor that overlaps a time range
+     * @param doctorId The account number of the doctor
+     * @param startDateTime The start of the range
+     * @param durationMinutes The length of the range
+     * @return An overlapping appointment, or null if the doctor is free
+     */
+    public Appointment findConflict(int doctorId, Date startDateTime, int durationMinutes) {
+        long started = FIND_CONFLICT.start();
+        try {
+            long start = millis(startDateTime);
+            lock.readLock().lock();
+            try {
+                IntervalTree busy = busyByDoctor.get(doctorId);
+                int id = busy == null ? IntervalTree.NONE : busy.findOverlap(start, endMillis(start, durationMinutes));
+                return id == IntervalTree.NONE ? null : table.get(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            FIND_CONFLICT.stop(started);
+        }
+    }
+
+    /**
+     * Finds the earliest time at or after a given time when a doctor is free for the given length
+     * @param doctorId The account number of the doctor
+     * @param from The earliest acceptable start time
+     * @param durationMinutes The length of the slot
+     * @return The start of the earliest free slot
+     */
+    public Date findNextFreeSlot(int doctorId, Date from, int durationMinutes) {
+        long started = FIND_NEXT_FREE_SLOT.start();
+        try {
+            checkDuration(durationMinutes);
+            lock.readLock().lock();
+            try {
+                IntervalTree busy = busyByDoctor.get(doctorId);
+                if (busy == null) {
+                    return from;
+                }
+
+                return new Date(busy.findFreeStart(from.getTime(), durationMinutes * MILLIS_PER_MINUTE));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            FIND_NEXT_FREE_SLOT.stop(started);
+        }
     }
 
     /**
@@ -70,23 +300,544 @@ public class AppointmentService {
      * @return
      */
     public boolean deleteAppointment(int id) {
-        Appointment apt = getAppointment(id);
+        long started = DELETE_APPOINTMENT.start();
+        try {
+            lock.writeLock().lock();
+            try {
+                Entry entry = appointments.remove(id);
+                if (entry == null) {
+                    return false;
+                }
 
-        if (apt == null) {
-            return false;
+                retire(entry);
+                table.remove(id);
+                unindex(entry);
+                byTime = byTime.without(entry.startMillis, id);
+                notifyDeleted(id);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            DELETE_APPOINTMENT.stop(started);
         }
+    }
 
-        appointments.remove(apt);
+    /**
+     * Gets every appointment starting within a time range, ordered by start time
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @return A new list holding the appointments in the range
+     */
+    public ArrayList<Appointment> getAppointmentsBetween(Date from, Date to) {
+        long started = GET_APPOINTMENTS_BETWEEN.start();
+        try {
+            return snapshot().getAppointmentsBetween(from, to);
+        } finally {
+            GET_APPOINTMENTS_BETWEEN.stop(started);
+        }
+    }
+
+    /**
+     * Gets the next appointments starting at or after a given time, ordered by start time
+     * @param after The earliest start time to include
+     * @param count The maximum number of appointments to return
+     * @return A new list holding at most count appointments
+     */
+    public ArrayList<Appointment> getNextAppointments(Date after, int count) {
+        long started = GET_NEXT_APPOINTMENTS.start();
+        try {
+            ArrayList<Appointment> ret = new ArrayList<>(Math.min(count, 64));
+            if (count > 0) {
+                byTime.forEachFrom(after.getTime(), entry -> {
+                    ret.add(entry.resolve(table));
+                    return ret.size() < count;
+                });
+            }
+            return ret;
+        } finally {
+            GET_NEXT_APPOINTMENTS.stop(started);
+        }
+    }
 
-        return true;
+    /**
+     * Gets a doctor's appointments starting on the same calendar day as a given time, in the system time zone
+     * @param doctorId The account number of the doctor
+     * @param day Any time within the day
+     * @return A new list holding the doctor's appointments for the day, ordered by start time
+     */
+    public ArrayList<Appointment> getDoctorAppointmentsOn(int doctorId, Date day) {
+        long started = GET_DOCTOR_APPOINTMENTS_ON.start();
+        try {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(day);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            long start = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            long end = calendar.getTimeInMillis();
+
+            lock.readLock().lock();
+            try {
+                TreeSet<Entry> entries = byDoctor.get(doctorId);
+                return entries == null
+                        ? new ArrayList<>()
+                        : toList(entries.subSet(probe(start), true, probe(end), false));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            GET_DOCTOR_APPOINTMENTS_ON.stop(started);
+        }
     }
 
+    /**
+     * Gets every appointment booked for a patient, ordered by start time
+     * @param patientId The account number of the patient
+     * @return A new list holding the patient's appointments, empty if they have none
+     */
+    public ArrayList<Appointment> getAppointmentsForPatient(int patientId) {
+        long started = GET_APPOINTMENTS_FOR_PATIENT.start();
+        try {
+            lock.readLock().lock();
+            try {
+                return toList(byPatient.get(patientId));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            GET_APPOINTMENTS_FOR_PATIENT.stop(started);
+        }
+    }
+
+    /**
+     * Gets every appointment booked with a doctor, ordered by start time
+     * @param doctorId The account number of the doctor
+     * @return A new list holding the doctor's appointments, empty if they have none
+     */
+    public ArrayList<Appointment> getAppointmentsForDoctor(int doctorId) {
+        long started = GET_APPOINTMENTS_FOR_DOCTOR.start();
+        try {
+            lock.readLock().lock();
+            try {
+                return toList(byDoctor.get(doctorId));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            GET_APPOINTMENTS_FOR_DOCTOR.stop(started);
+        }
+    }
+
+    /**
+     * Gets every appointment in the cache, ordered by appointment id
+     * @return A new list holding the cached appointments; changes to the list do not affect the cache
+     */
     public ArrayList<Appointment> getAppointments() {
-        return appointments;
+        long started = GET_APPOINTMENTS.start();
+        try {
+            lock.readLock().lock();
+            try {
+                ArrayList<Appointment> ret = new ArrayList<>(appointments.size());
+                appointments.forEach(entry -> ret.add(table.get(entry.id)));
+                return ret;
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            GET_APPOINTMENTS.stop(started);
+        }
     }
 
+    /**
+     * Replaces the contents of the cache. New ids are handed out after the largest id in the given list.
+     * @param appointments
+     */
     public void setAppointments(ArrayList<Appointment> appointments) {
-        this.appointments = appointments;
+        lock.writeLock().lock();
+        try {
+            this.appointments.forEach(entry -> {
+                retire(entry);
+                notifyDeleted(entry.id);
+            });
+            this.appointments.clear();
+            table.clear();
+            byPatient.clear();
+            byDoctor.clear();
+            busyByDoctor.clear();
+            PersistentTimeline<Entry> timeline = PersistentTimeline.empty();
+            try {
+                for (Appointment appointment : appointments) {
+                    timeline = insert(timeline, appointment);
+                    aptIdTracker.reserve(appointment.getAppointmentId());
+                    notifySaved(appointment);
+                }
+            } finally {
+                byTime = timeline;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores an appointment that already has an id, such as one loaded from disk, replacing any appointment with the
+     * same id. Does not check for double bookings. New ids are handed out after the restored one.
+     * @param appointment
+     */
+    public void restoreAppointment(Appointment appointment) {
+        lock.writeLock().lock();
+        try {
+            byTime = insert(byTime, appointment);
+            aptIdTracker.reserve(appointment.getAppointmentId());
+            notifySaved(appointment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a batch of appointments under one write lock, such as rows of a bulk import. Appointments with a
+     * negative id are stored as copies with new ids, all taken in one block; the others keep theirs, replacing any
+     * appointment with the same id. Like restoreAppointment, this does not check for double bookings.
+     * @param batch The appointments to store
+     */
+    public void importAppointments(List<? extends Appointment> batch) {
+        long started = IMPORT_APPOINTMENTS.start();
+        try {
+            lock.writeLock().lock();
+            try {
+                int fresh = 0;
+                for (Appointment appointment : batch) {
+                    if (appointment.getAppointmentId() < 0) {
+                        fresh++;
+                    } else {
+                        aptIdTracker.reserve(appointment.getAppointmentId());
+                    }
+                }
+
+                int[] ids = aptIdTracker.nextIds(fresh);
+                int next = 0;
+                // the whole batch is published at once
+                PersistentTimeline<Entry> timeline = byTime;
+                try {
+                    for (Appointment appointment : batch) {
+                        if (appointment.getAppointmentId() < 0) {
+                            appointment = appointment.withAppointmentId(ids[next++]);
+                        }
+                        timeline = insert(timeline, appointment);
+                        notifySaved(appointment);
+                    }
+                } finally {
+                    byTime = timeline;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            IMPORT_APPOINTMENTS.stop(started);
+        }
+    }
+
+    /**
+     * Calls an action for every appointment, in ascending id order, without copying them into a list first.
+     * Does not lock, so appointments changed while this runs may be visited in either version; use snapshot for a
+     * consistent view.
+     * @param action
+     */
+    public void forEachAppointment(Consumer<? super Appointment> action) {
+        appointments.forEach(entry -> action.accept(entry.resolve(table)));
+    }
+
+    /**
+     * Takes a snapshot of every appointment as stored right now, without locking or copying
+     * @return The snapshot
+     */
+    public AppointmentSnapshot snapshot() {
+        return new AppointmentSnapshot(byTime, table);
     }
 
+    /**
+     * Gets the appointment id handed out or reserved last
+     * @return The last appointment id, or -1 if none has been used
+     */
+    public int getLastAppointmentId() {
+        return aptIdTracker.lastId();
+    }
+
+    /**
+     * Marks an appointment id as used without storing an appointment, so it is never handed out again
+     * @param id
+     */
+    public void reserveAppointmentId(int id) {
+        aptIdTracker.reserve(id);
+    }
+
+    /**
+     * Registers a listener that is told about every change made through this service
+     * @param listener
+     */
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifySaved(Appointment appointment) {
+        for (StoreListener listener : listeners) {
+            listener.onAppointmentSaved(appointment);
+        }
+    }
+
+    private void notifyDeleted(int id) {
+        for (StoreListener listener : listeners) {
+            listener.onAppointmentDeleted(id);
+        }
+    }
+
+    /**
+     * Stores an appointment in the cache, the table and the indexes, replacing any version with the same id. Must be
+     * called with the write lock held.
+     * @param timeline The start time index as built so far by the current write
+     * @param appointment
+     * @return The start time index with the appointment in it, for the write to publish once it is done
+     */
+    private PersistentTimeline<Entry> insert(PersistentTimeline<Entry> timeline, Appointment appointment) {
+        Entry entry = new Entry(appointment);
+        Entry previous = appointments.put(entry.id, entry);
+        if (previous != null) {
+            retire(previous);
+            unindex(previous);
+            timeline = timeline.without(previous.startMillis, previous.id);
+        }
+        table.put(appointment);
+
+        index(entry);
+        return timeline.with(entry.startMillis, entry.id, entry);
+    }
+
+    /**
+     * Keeps the version an entry was made for on the entry, before the table stops holding it, for any snapshot
+     * still reading the entry. Must be called with the write lock held.
+     * @param entry
+     */
+    private void retire(Entry entry) {
+        entry.retired = table.get(entry.id);
+    }
+
+    /**
+     * Adds an entry to the indexes guarded by the lock; the start time index is updated by the caller
+     * @param entry
+     */
+    private void index(Entry entry) {
+        addTo(byPatient, entry.patientId, entry);
+        addTo(byDoctor, entry.doctorId, entry);
+        book(entry);
+    }
+
+    private void unindex(Entry entry) {
+        removeFrom(byPatient, entry.patientId, entry);
+        removeFrom(byDoctor, entry.doctorId, entry);
+        unbook(entry);
+    }
+
+    /**
+     * Blocks out an entry's time for its doctor, if it is active
+     * @param entry
+     */
+    private void book(Entry entry) {
+        if (entry.active) {
+            IntervalTree busy = busyByDoctor.get(entry.doctorId);
+            if (busy == null) {
+                busy = new IntervalTree();
+                busyByDoctor.put(entry.doctorId, busy);
+            }
+            busy.insert(entry.startMillis, entry.endMillis, entry.id);
+        }
+    }
+
+    private void unbook(Entry entry) {
+        if (entry.active) {
+            IntervalTree busy = busyByDoctor.get(entry.doctorId);
+            if (busy != null && busy.remove(entry.startMillis, entry.id) && busy.isEmpty()) {
+                busyByDoctor.remove(entry.doctorId);
+            }
+        }
+    }
+
+    /**
+     * Throws if a new version of an appointment would double-book its doctor. Only a version that books time the
+     * current one did not is checked, and the appointment never conflicts with its own current version. Must be
+     * called with the write lock held.
+     * @param current The stored version's entry
+     * @param next The version about to be stored
+     */
+    private void checkAvailable(Entry current, Appointment next) {
+        if (!isActive(next)) {
+            return;
+        }
+        int doctorId = next.getDoctor().getAccNum();
+        long start = next.getStartMillis();
+        long end = endMillis(next);
+        if (current.active && current.doctorId == doctorId && current.startMillis == start && current.endMillis == end) {
+            return;
+        }
+
+        unbook(current);
+        try {
+            checkAvailable(doctorId, start, end);
+        } finally {
+            book(current);
+        }
+    }
+
+    /**
+     * Throws if a doctor has an active appointment overlapping [start, end)
+     * @param doctorId
+     * @param start
+     * @param end
+     */
+    private void checkAvailable(int doctorId, long start, long end) {
+        IntervalTree busy = busyByDoctor.get(doctorId);
+        int id = busy == null ? IntervalTree.NONE : busy.findOverlap(start, end);
+        if (id != IntervalTree.NONE) {
+            Appointment conflict = table.get(id);
+            throw new AppointmentConflictException(String.format(
+                    "Doctor with ID %d is already booked by appointment %d at %s.",
+                    doctorId,
+                    id,
+                    conflict.getStartDateTime()
+            ));
+        }
+    }
+
+    private static void checkDuration(int durationMinutes) {
+        if (durationMinutes <= 0) {
+            throw new RuntimeException("Appointment duration must be a positive number of minutes.");
+        }
+    }
+
+    private static void addTo(IntObjectMap<TreeSet<Entry>> index, int key, Entry entry) {
+        TreeSet<Entry> entries = index.get(key);
+        if (entries == null) {
+            entries = new TreeSet<>(BY_TIME);
+            index.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void removeFrom(IntObjectMap<TreeSet<Entry>> index, int key, Entry entry) {
+        TreeSet<Entry> entries = index.get(key);
+        if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Reads the appointments of some entries from the table. Must be called with the lock held, so every entry is
+     * the stored version.
+     * @param entries
+     * @return
+     */
+    private ArrayList<Appointment> toList(NavigableSet<Entry> entries) {
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+
+        ArrayList<Appointment> ret = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            ret.add(table.get(entry.id));
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the epoch millis of a date, sorting a missing date before every other time
+     * @param date
+     * @return
+     */
+    private static long millis(Date date) {
+        return date == null ? Appointment.NO_START : date.getTime();
+    }
+
+    private static long endMillis(Appointment appointment) {
+        return endMillis(appointment.getStartMillis(), appointment.getDurationMinutes());
+    }
+
+    private static long endMillis(long startMillis, int durationMinutes) {
+        return startMillis == Appointment.NO_START ? Appointment.NO_START
+                : startMillis + durationMinutes * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Checks whether an appointment should block its doctor's time
+     * @param appointment
+     * @return True if the appointment is active and has a start time
+     */
+    private static boolean isActive(Appointment appointment) {
+        return appointment.getStatus() == Appointment.Status.ACTIVE
+                && appointment.getStartMillis() != Appointment.NO_START;
+    }
+
+    /**
+     * Creates a search key that sorts before every entry starting at the given time
+     * @param startMillis
+     * @return
+     */
+    private static Entry probe(long startMillis) {
+        return new Entry(Integer.MIN_VALUE, startMillis);
+    }
+
+    /**
+     * Index slot for one stored version of an appointment, holding only the keys the indexes sort and filter by,
+     * so the indexes and snapshots hold no models. When the version is replaced or deleted, the model is kept on the
+     * entry, so snapshots taken before can still read it; it is dropped along with the last snapshot holding it.
+     */
+    static final class Entry {
+        private final int id;
+        private final int patientId;
+        private final int doctorId;
+        private final long startMillis;
+        private final long endMillis;
+        private final boolean active;
+        private final long version;
+        // set, before the table changes, once this is no longer the stored version
+        private volatile Appointment retired;
+
+        private Entry(Appointment appointment) {
+            this.id = appointment.getAppointmentId();
+            this.patientId = appointment.getPatient().getAccNum();
+            this.doctorId = appointment.getDoctor().getAccNum();
+            this.startMillis = appointment.getStartMillis();
+            this.endMillis = endMillis(appointment);
+            this.active = isActive(appointment);
+            this.version = appointment.getVersion();
+        }
+
+        private Entry(int id, long startMillis) {
+            this.id = id;
+            this.patientId = 0;
+            this.doctorId = 0;
+            this.startMillis = startMillis;
+            this.endMillis = startMillis;
+            this.active = false;
+            this.version = 0;
+        }
+
+        /**
+         * Gets the version of the appointment this entry was made for, without locking
+         * @param table The table of the service the entry came from
+         * @return
+         */
+        Appointment resolve(AppointmentTable table) {
+            // read after the table, so if the table already holds a newer version, retired is set
+            Appointment stored = table.get(id);
+            Appointment old = retired;
+            return old != null ? old : stored;
+        }
+    }
 }
@@ -0,0 +1,52 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.types.PersistentTimeline;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Every appointment as it was at one moment, from AppointmentService.snapshot. Taking a snapshot copies nothing
+ * and reading one never locks, so a report can walk all appointments while bookings carry on; changes made after
+ * the snapshot was taken are not seen by it. It holds only index entries: appointments are read from the service's
+ * table, or, if they have changed since, from the old version the service keeps for as long as a snapshot needs it.
+ */
+public final class AppointmentSnapshot {
+    private final PersistentTimeline<AppointmentService.Entry> appointments;
+    private final AppointmentTable table;
+
+    AppointmentSnapshot(PersistentTimeline<AppointmentService.Entry> appointments, AppointmentTable table) {
+        this.appointments = appointments;
+        this.table = table;
+    }
+
+    /**
+     * Gets the number of appointments in the snapshot
+     * @return The appointment count
+     */
+    public int size() {
+        return appointments.size();
+    }
+
+    /**
+     * Calls an action for every appointment, ordered by start time, with appointments without one first
+     * @param action
+     */
+    public void forEach(Consumer<? super Appointment> action) {
+        appointments.forEach(entry -> action.accept(entry.resolve(table)));
+    }
+
+    /**
+     * Gets every appointment starting within a time range, ordered by start time
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @return A new list holding the appointments in the range
+     */
+    public ArrayList<Appointment> getAppointmentsBetween(Date from, Date to) {
+        ArrayList<Appointment> ret = new ArrayList<>();
+        appointments.forEachBetween(from.getTime(), to.getTime(), entry -> ret.add(entry.resolve(table)));
+        return ret;
+    }
+}
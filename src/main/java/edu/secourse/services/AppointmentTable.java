@@ -0,0 +1,34 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+
+/**
+ * Storage for the appointment models of an AppointmentService, keyed by appointment id.
+ * The service keeps its own indexes and serializes every write, so implementations only need get to be safe while
+ * another thread writes.
+ */
+public interface AppointmentTable {
+    /**
+     * Gets the appointment stored under an id
+     * @param id The appointment id
+     * @return The appointment, or null if the id is not in use
+     */
+    Appointment get(int id);
+
+    /**
+     * Stores an appointment under its id, replacing any previous one
+     * @param appointment The appointment
+     */
+    void put(Appointment appointment);
+
+    /**
+     * Removes the appointment stored under an id, if there is one
+     * @param id The appointment id
+     */
+    void remove(int id);
+
+    /**
+     * Removes every appointment
+     */
+    void clear();
+}
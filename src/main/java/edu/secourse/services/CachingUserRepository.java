@@ -0,0 +1,310 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Read-through cache in front of a slower UserRepository, such as a FileUserRepository.
+ * <p>
+ * Users matching a pin predicate, by default everyone but patients, are kept in memory from the first time they are
+ * stored or read, and never evicted. Other users are cached in a bounded segmented LRU: a user read once enters a
+ * probation segment, and only a second read while still cached moves it into the larger protected segment. A scan
+ * over many users read once therefore only churns probation, and the users read repeatedly stay cached.
+ * <p>
+ * The cache is split into stripes by account number, each with its own lock and share of the capacity. Writes go
+ * straight through to the backing repository and update cached copies from within its callback, so the cache
+ * never keeps a version older than the one stored.
+ */
+public class CachingUserRepository implements UserRepository {
+    private static final int STRIPES = 64;
+    // share of each stripe's capacity given to the protected segment
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final UserRepository backing;
+    private final Predicate<? super User> pinned;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache that pins every user except patients
+     * @param backing The repository the users are stored in
+     * @param capacity The most unpinned users to keep cached
+     */
+    public CachingUserRepository(UserRepository backing, int capacity) {
+        this(backing, capacity, user -> !(user instanceof Patient));
+    }
+
+    /**
+     * Creates a cache
+     * @param backing The repository the users are stored in
+     * @param capacity The most unpinned users to keep cached
+     * @param pinned Selects the users that are always kept in memory
+     */
+    public CachingUserRepository(UserRepository backing, int capacity, Predicate<? super User> pinned) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        this.backing = backing;
+        this.pinned = pinned;
+        for (int i = 0; i < STRIPES; i++) {
+            // spread the capacity so the stripes add up to it
+            int share = capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0);
+            stripes[i] = new Stripe(share);
+        }
+    }
+
+    @Override
+    public User get(int id) {
+        Stripe stripe = stripeFor(id);
+        long version;
+        synchronized (stripe) {
+            User cached = stripe.lookup(id);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            version = stripe.version;
+        }
+
+        misses.increment();
+        User user = backing.get(id);
+        if (user != null) {
+            synchronized (stripe) {
+                // a write since the miss may have stored a newer version than the one just read
+                if (stripe.version == version) {
+                    stripe.admit(user, pinned.test(user));
+                }
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public void put(User user, Runnable onStored) {
+        backing.put(user, afterStore(user, onStored));
+    }
+
+    @Override
+    public boolean putIfAbsent(User user, Runnable onStored) {
+        return backing.putIfAbsent(user, afterStore(user, onStored));
+    }
+
+    @Override
+    public boolean replace(User user, Runnable onStored) {
+        return backing.replace(user, afterStore(user, onStored));
+    }
+
+    @Override
+    public boolean remove(int id, Runnable onRemoved) {
+        return backing.remove(id, () -> {
+            Stripe stripe = stripeFor(id);
+            synchronized (stripe) {
+                stripe.version++;
+                stripe.invalidate(id);
+            }
+            if (onRemoved != null) {
+                onRemoved.run();
+            }
+        });
+    }
+
+    @Override
+    public void putAll(List<? extends User> users, Consumer<? super User> onStored) {
+        backing.putAll(users, user -> {
+            stored(user);
+            if (onStored != null) {
+                onStored.accept(user);
+            }
+        });
+    }
+
+    /**
+     * Calls an action for every stored user, straight from the backing repository so the scan does not disturb
+     * the cache
+     */
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        backing.forEach(action);
+    }
+
+    /**
+     * Gets the number of reads served from the cache
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of reads that went to the backing repository
+     * @return The miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of users dropped from the cache to make room for others
+     * @return The eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of users currently cached, pinned or not
+     * @return The cached user count
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.pinnedUsers.size() + stripe.probation.size() + stripe.protectedUsers.size();
+            }
+        }
+        return size;
+    }
+
+    private Runnable afterStore(User user, Runnable onStored) {
+        return () -> {
+            stored(user);
+            if (onStored != null) {
+                onStored.run();
+            }
+        };
+    }
+
+    /**
+     * Updates the cache after a user is stored. Runs while the backing repository holds the user's lock, so stores
+     * of the same user reach the cache in order.
+     */
+    private void stored(User user) {
+        Stripe stripe = stripeFor(user.getAccNum());
+        boolean pin = pinned.test(user);
+        synchronized (stripe) {
+            stripe.version++;
+            if (pin) {
+                stripe.invalidate(user.getAccNum());
+                stripe.pinnedUsers.put(user.getAccNum(), user);
+            } else {
+                // a user whose role changed may no longer be pinned
+                stripe.pinnedUsers.remove(user.getAccNum());
+                stripe.refresh(user);
+            }
+        }
+    }
+
+    private Stripe stripeFor(int id) {
+        // account numbers may be sequential or spread out, so mix the bits before picking a stripe
+        int hash = id * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * One stripe of the cache; every method must be called while synchronized on the stripe
+     */
+    private final class Stripe {
+        private final HashMap<Integer, User> pinnedUsers = new HashMap<>();
+        // insertion order, oldest first
+        private final LinkedHashMap<Integer, User> probation = new LinkedHashMap<>();
+        // access order, least recently used first
+        private final LinkedHashMap<Integer, User> protectedUsers = new LinkedHashMap<>(16, 0.75f, true);
+        private final int probationCapacity;
+        private final int protectedCapacity;
+        // bumped by every write, so a read that missed can tell whether its result is still current
+        private long version;
+
+        Stripe(int capacity) {
+            this.protectedCapacity = (int) (capacity * PROTECTED_SHARE);
+            this.probationCapacity = capacity - protectedCapacity;
+        }
+
+        User lookup(int id) {
+            User user = pinnedUsers.get(id);
+            if (user != null) {
+                return user;
+            }
+
+            // a hit in protected also marks the user as recently used
+            user = protectedUsers.get(id);
+            if (user != null) {
+                return user;
+            }
+
+            user = probation.remove(id);
+            if (user != null) {
+                promote(id, user);
+            }
+            return user;
+        }
+
+        void admit(User user, boolean pin) {
+            if (pin) {
+                pinnedUsers.put(user.getAccNum(), user);
+                return;
+            }
+            if (probationCapacity == 0) {
+                return;
+            }
+            probation.put(user.getAccNum(), user);
+            if (probation.size() > probationCapacity) {
+                evictOldest(probation);
+                evictions.increment();
+            }
+        }
+
+        /**
+         * Replaces a cached user with a newer version, leaving users that are not cached out
+         */
+        void refresh(User user) {
+            int id = user.getAccNum();
+            if (protectedUsers.containsKey(id)) {
+                protectedUsers.put(id, user);
+            } else if (probation.containsKey(id)) {
+                probation.put(id, user);
+            }
+        }
+
+        void invalidate(int id) {
+            pinnedUsers.remove(id);
+            probation.remove(id);
+            protectedUsers.remove(id);
+        }
+
+        private void promote(int id, User user) {
+            if (protectedCapacity == 0) {
+                probation.put(id, user);
+                return;
+            }
+            protectedUsers.put(id, user);
+            if (protectedUsers.size() > protectedCapacity) {
+                // the least recently used protected user gets another chance in probation
+                Map.Entry<Integer, User> demoted = protectedUsers.entrySet().iterator().next();
+                protectedUsers.remove(demoted.getKey());
+                probation.put(demoted.getKey(), demoted.getValue());
+                if (probation.size() > probationCapacity) {
+                    evictOldest(probation);
+                    evictions.increment();
+                }
+            }
+        }
+
+        private void evictOldest(LinkedHashMap<Integer, User> segment) {
+            Iterator<Integer> oldest = segment.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
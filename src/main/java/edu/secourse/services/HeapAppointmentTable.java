@@ -0,0 +1,32 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.types.DenseIdStore;
+
+/**
+ * Keeps appointment models on the heap, indexed directly by id. get returns the stored model itself, which is
+ * immutable, so it can be shared with every caller.
+ */
+public class HeapAppointmentTable implements AppointmentTable {
+    private final DenseIdStore<Appointment> appointments = new DenseIdStore<>();
+
+    @Override
+    public Appointment get(int id) {
+        return appointments.get(id);
+    }
+
+    @Override
+    public void put(Appointment appointment) {
+        appointments.put(appointment.getAppointmentId(), appointment);
+    }
+
+    @Override
+    public void remove(int id) {
+        appointments.remove(id);
+    }
+
+    @Override
+    public void clear() {
+        appointments.clear();
+    }
+}
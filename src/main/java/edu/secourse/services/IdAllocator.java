@@ -0,0 +1,48 @@
+package edu.secourse.services;
+
+/**
+ * Hands out unique non-negative ids in constant time, without checking them against existing records.
+ * Implementations must be safe to call from several threads.
+ */
+public interface IdAllocator {
+    /**
+     * Gets the next id. Never returns the same id twice, and never returns an id passed to reserve.
+     * @return A new id
+     */
+    int nextId();
+
+    /**
+     * Gets a block of new ids, as if nextId were called count times
+     * @param count The number of ids
+     * @return The new ids
+     */
+    default int[] nextIds(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * Marks an id as used, so it is never handed out later. Used when records with existing ids are loaded.
+     * @param id The id that is already in use
+     */
+    void reserve(int id);
+
+    /**
+     * Continues the sequence after an id this allocator's sequence handed out earlier, such as one saved from
+     * lastId before a restart. Unlike reserve, every id before it in the sequence is treated as used.
+     * @param lastId The last id handed out, or -1 if none was
+     */
+    default void resume(int lastId) {
+        reserve(lastId);
+    }
+
+    /**
+     * Gets the id handed out or reserved last, in allocation order. Passing it to resume on a new allocator of the
+     * same kind continues the sequence after it, even if the record that used it has since been deleted.
+     * @return The last id, or -1 if no id has been used yet
+     */
+    int lastId();
+}
@@ -0,0 +1,50 @@
+package edu.secourse.services;
+
+import edu.secourse.models.User;
+import edu.secourse.types.ConcurrentIntObjectMap;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps user models on the heap in a lock-striped map. get returns the stored model itself, so changes a caller
+ * makes to it are visible to every other caller.
+ */
+public class InMemoryUserRepository implements UserRepository {
+    private final ConcurrentIntObjectMap<User> users = new ConcurrentIntObjectMap<>();
+
+    @Override
+    public User get(int id) {
+        return users.get(id);
+    }
+
+    @Override
+    public void put(User user, Runnable onStored) {
+        users.put(user.getAccNum(), user, onStored);
+    }
+
+    @Override
+    public boolean putIfAbsent(User user, Runnable onStored) {
+        return users.putIfAbsent(user.getAccNum(), user, onStored);
+    }
+
+    @Override
+    public boolean replace(User user, Runnable onStored) {
+        return users.replace(user.getAccNum(), user, onStored);
+    }
+
+    @Override
+    public boolean remove(int id, Runnable onRemoved) {
+        return users.remove(id, onRemoved) != null;
+    }
+
+    @Override
+    public void putAll(List<? extends User> batch, Consumer<? super User> onStored) {
+        users.putAll(batch, User::getAccNum, onStored);
+    }
+
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        users.forEachValue(action);
+    }
+}
@@ -0,0 +1,278 @@
+package edu.secourse.services;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes and checks passwords with salted PBKDF2-HMAC-SHA256, stored as "pbkdf2-sha256$iterations$salt$hash".
+ * Every derivation runs on a fixed pool of worker threads, so however many threads create users at once, hashing
+ * never takes more than that many cores; callers on virtual threads only wait for the result. When the pool's queue
+ * is full, submitting blocks until there is room.
+ * The iteration count trades security for throughput. The default is read from the portal.passwordIterations system
+ * property, and stored hashes keep their own count, so changing it does not break existing passwords.
+ */
+public class PasswordHasher implements AutoCloseable {
+    public static final int DEFAULT_ITERATIONS = 600_000;
+    // a stored count above this is treated as corrupt rather than run
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int QUEUE_PER_THREAD = 64;
+
+    private static volatile PasswordHasher defaultHasher;
+
+    private final int iterations;
+    private final ThreadPoolExecutor pool;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    /**
+     * Creates a hasher with its own worker threads
+     * @param iterations The PBKDF2 iteration count for new hashes
+     * @param threads The number of worker threads
+     */
+    public PasswordHasher(int iterations, int threads) {
+        if (iterations <= 0 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("iterations must be between 1 and " + MAX_ITERATIONS + ": " + iterations);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.iterations = iterations;
+
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD),
+                task -> {
+                    Thread thread = new Thread(task, "portal-password-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Password hasher is closed.");
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting to hash a password.", ex);
+                    }
+                });
+    }
+
+    /**
+     * Gets the hasher shared by every UserService that is not given one, with one thread per core and the iteration
+     * count from the portal.passwordIterations system property
+     * @return The shared hasher
+     */
+    public static PasswordHasher getDefault() {
+        PasswordHasher hasher = defaultHasher;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                hasher = defaultHasher;
+                if (hasher == null) {
+                    hasher = new PasswordHasher(Integer.getInteger("portal.passwordIterations", DEFAULT_ITERATIONS),
+                            Runtime.getRuntime().availableProcessors());
+                    defaultHasher = hasher;
+                }
+            }
+        }
+        return hasher;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Checks whether a stored password is a hash this class made, rather than a password saved before hashing
+     * @param stored
+     * @return
+     */
+    public static boolean isHash(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    /**
+     * Checks whether a value is a hash that can be verified, with a valid iteration count, salt and hash, rather
+     * than just starting like one
+     * @param stored
+     * @return
+     */
+    public static boolean isWellFormedHash(String stored) {
+        return parse(stored) != null;
+    }
+
+    /**
+     * Hashes a password with a new random salt on the worker threads
+     * @param password
+     * @return A future for the encoded hash, or for null if password is null
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        if (password == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> hashNow(password), pool);
+    }
+
+    /**
+     * Hashes a password on the worker threads and waits for it
+     * @param password
+     * @return The encoded hash
+     */
+    public String hash(String password) {
+        return join(hashAsync(password));
+    }
+
+    /**
+     * Hashes a batch of passwords, such as the rows of an import, split into one task per worker thread rather than
+     * one per password. Values that are already well-formed hashes, or null, are kept as they are; anything else is
+     * hashed, so a corrupt hash is never stored as it is.
+     * @param passwords
+     * @return The encoded hashes, in the same order
+     */
+    public List<String> hashAll(List<String> passwords) {
+        String[] hashes = passwords.toArray(new String[0]);
+        int chunk = Math.max(1, (hashes.length + pool.getMaximumPoolSize() - 1) / pool.getMaximumPoolSize());
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < hashes.length; from += chunk) {
+            int start = from;
+            int end = Math.min(hashes.length, from + chunk);
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (int i = start; i < end; i++) {
+                    if (hashes[i] != null && !isWellFormedHash(hashes[i])) {
+                        hashes[i] = hashNow(hashes[i]);
+                    }
+                }
+            }, pool));
+        }
+        join(CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])));
+        return Arrays.asList(hashes);
+    }
+
+    /**
+     * Checks a password against a stored hash on the worker threads. The hashes are compared in constant time, and
+     * a missing hash still costs a full derivation, so the time taken does not tell whether the user exists.
+     * A stored value that is not a hash is a password saved before hashing, and is compared directly.
+     * @param password
+     * @param stored The stored hash, or null if there is no such user
+     * @return True if the password matches
+     */
+    public boolean verify(String password, String stored) {
+        return join(CompletableFuture.supplyAsync(() -> verifyNow(password, stored), pool));
+    }
+
+    private String hashNow(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    private boolean verifyNow(String password, String stored) {
+        if (stored == null) {
+            derive(password == null ? "" : password, new byte[SALT_BYTES], iterations);
+            return false;
+        }
+        if (password == null) {
+            return false;
+        }
+        if (!isHash(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Encoded encoded = parse(stored);
+        if (encoded == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(derive(password, encoded.salt(), encoded.iterations()), encoded.hash());
+    }
+
+    /**
+     * Splits a stored hash into its parts
+     * @param stored
+     * @return The parts, or null if stored is not a well-formed hash
+     */
+    private static Encoded parse(String stored) {
+        if (!isHash(stored)) {
+            return null;
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] hash = Base64.getDecoder().decode(parts[2]);
+            if (iterations <= 0 || iterations > MAX_ITERATIONS || salt.length == 0 || hash.length != HASH_BITS / 8) {
+                return null;
+            }
+            return new Encoded(iterations, salt, hash);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Waits for a future, rethrowing what its task threw
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    private record Encoded(int iterations, byte[] salt, byte[] hash) {
+    }
+
+    /**
+     * Stops the worker threads once queued work is done
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
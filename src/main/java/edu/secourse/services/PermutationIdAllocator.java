@@ -0,0 +1,206 @@
+package edu.secourse.services;
+
+import edu.secourse.types.ConcurrentIntObjectMap;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids that look random but never collide. A counter is passed through a keyed Feistel permutation of
+ * the non-negative int range, so every counter value maps to a different id, and without the key the next id
+ * cannot be guessed from earlier ones. Both generating and reserving an id take constant time.
+ * <p>
+ * A reserved id keeps its place in the sequence: its counter value is remembered and skipped when the counter
+ * reaches it, so reserving ids from another key, such as those in an import, does not use up the rest of the range.
+ * Ids reserved in the order they were handed out, as when this key's own records are loaded, move the counter past
+ * themselves instead of being remembered.
+ */
+public class PermutationIdAllocator implements IdAllocator {
+    private static final int ROUNDS = 4;
+    private static final long CAPACITY = 1L << 31;
+
+    private final int[] roundKeys = new int[ROUNDS];
+    private final long key;
+    private final AtomicLong counter;
+    private final ConcurrentIntObjectMap<Boolean> reserved = new ConcurrentIntObjectMap<>();
+    private final AtomicInteger reservedCount = new AtomicInteger();
+
+    /**
+     * Creates an allocator with a random key.
+     */
+    public PermutationIdAllocator() {
+        this(new SecureRandom().nextLong(), 0);
+    }
+
+    /**
+     * Creates an allocator with a known key, for example to continue a sequence after a restart
+     * @param key The permutation key
+     * @param counter The number of ids already handed out with this key
+     */
+    public PermutationIdAllocator(long key, long counter) {
+        this.key = key;
+        this.counter = new AtomicLong(counter);
+
+        // derive the round keys with splitmix64
+        long state = key;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            roundKeys[i] = (int) (z ^ (z >>> 31));
+        }
+    }
+
+    @Override
+    public int nextId() {
+        long index;
+        do {
+            index = counter.getAndIncrement();
+            if (index >= CAPACITY) {
+                throw new IllegalStateException("No more ids available.");
+            }
+        } while (isReserved(index));
+        return permute((int) index);
+    }
+
+    /**
+     * Gets a block of new ids with a single update of the shared counter, plus one more for each reserved id in
+     * the block
+     */
+    @Override
+    public int[] nextIds(int count) {
+        int[] ids = new int[count];
+        int filled = 0;
+        while (filled < count) {
+            int wanted = count - filled;
+            long first = counter.getAndAdd(wanted);
+            if (first + wanted > CAPACITY) {
+                throw new IllegalStateException("No more ids available.");
+            }
+            for (int i = 0; i < wanted; i++) {
+                if (!isReserved(first + i)) {
+                    ids[filled++] = permute((int) (first + i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void reserve(int id) {
+        if (id < 0) {
+            return;
+        }
+        int index = unpermute(id);
+        if (index < counter.get()) {
+            return;
+        }
+        if (reserved.put(index, Boolean.TRUE) == null) {
+            reservedCount.incrementAndGet();
+        }
+
+        // step over reserved ids at the front of the sequence so they do not stay in the set
+        long next;
+        while ((next = counter.get()) < CAPACITY && reserved.containsKey((int) next)
+                && counter.compareAndSet(next, next + 1)) {
+            release((int) next);
+        }
+    }
+
+    /**
+     * Continues the sequence after an id handed out with this key, even if it was never reserved, by moving the
+     * counter past it
+     */
+    @Override
+    public void resume(int lastId) {
+        if (lastId < 0) {
+            return;
+        }
+        counter.accumulateAndGet(unpermute(lastId) + 1L, Math::max);
+    }
+
+    @Override
+    public int lastId() {
+        long index = Math.min(counter.get(), CAPACITY) - 1;
+        return index < 0 ? -1 : permute((int) index);
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the number of ids handed out or skipped so far
+     * @return The counter value
+     */
+    public long getCounter() {
+        return counter.get();
+    }
+
+    /**
+     * Maps a counter value to an id. Encrypts the 32-bit value, then cycle-walks until the result is non-negative,
+     * which keeps the mapping a permutation of the non-negative ints.
+     */
+    private int permute(int index) {
+        int value = index;
+        do {
+            value = encrypt(value);
+        } while (value < 0);
+        return value;
+    }
+
+    /**
+     * Checks whether a counter value the caller has just taken belongs to a reserved id, and forgets it if so
+     */
+    private boolean isReserved(long index) {
+        return reservedCount.get() > 0 && release((int) index);
+    }
+
+    private boolean release(int index) {
+        if (reserved.remove(index) == null) {
+            return false;
+        }
+        reservedCount.decrementAndGet();
+        return true;
+    }
+
+    private int unpermute(int id) {
+        int value = id;
+        do {
+            value = decrypt(value);
+        } while (value < 0);
+        return value;
+    }
+
+    private int encrypt(int value) {
+        int left = value >>> 16;
+        int right = value & 0xFFFF;
+        for (int i = 0; i < ROUNDS; i++) {
+            int next = left ^ round(right, roundKeys[i]);
+            left = right;
+            right = next;
+        }
+        return (left << 16) | right;
+    }
+
+    private int decrypt(int value) {
+        int left = value >>> 16;
+        int right = value & 0xFFFF;
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            int previous = right ^ round(left, roundKeys[i]);
+            right = left;
+            left = previous;
+        }
+        return (left << 16) | right;
+    }
+
+    private static int round(int half, int roundKey) {
+        int h = (half ^ roundKey) * 0x9E3779B1;
+        h ^= h >>> 15;
+        h *= 0x85EBCA77;
+        h ^= h >>> 13;
+        return h & 0xFFFF;
+    }
+}
@@ -0,0 +1,141 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.types.IntObjectMap;
+import edu.secourse.types.TimingWheel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends a reminder a fixed time before each active appointment starts. Registered as a listener on an
+ * AppointmentService, it follows every create, reschedule, cancel and delete, keeping one timer per appointment in a
+ * TimingWheel, so adding or dropping a reminder is constant time however many are waiting. One thread advances the
+ * wheel every tick and hands everything that fell due to the sink in one batch. Reminders are never early, and are
+ * late by at most one tick.
+ */
+public class ReminderScheduler implements StoreListener, AutoCloseable {
+    private final ReminderSink sink;
+    private final long leadMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;
+    private final TimingWheel<Appointment> wheel;
+    // the waiting timer of each appointment, by appointment id
+    private final IntObjectMap<TimingWheel.Timer<Appointment>> timers = new IntObjectMap<>();
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Creates a scheduler that only advances when tick is called
+     * @param sink Sends the reminders
+     * @param leadMillis How long before an appointment starts its reminder is sent
+     * @param tickMillis How often tick will be called, which is how late a reminder may be
+     * @param clock The current time in epoch millis
+     */
+    public ReminderScheduler(ReminderSink sink, long leadMillis, long tickMillis, LongSupplier clock) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.sink = sink;
+        this.leadMillis = leadMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(Math.floorDiv(clock.getAsLong(), tickMillis));
+    }
+
+    /**
+     * Creates a scheduler that ticks on its own thread
+     * @param sink Sends the reminders
+     * @param leadMillis How long before an appointment starts its reminder is sent
+     * @param tickMillis The time between ticks
+     * @return The scheduler, to register with an AppointmentService and close when the program ends
+     */
+    public static ReminderScheduler start(ReminderSink sink, long leadMillis, long tickMillis) {
+        ReminderScheduler reminders = new ReminderScheduler(sink, leadMillis, tickMillis, System::currentTimeMillis);
+        reminders.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "portal-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reminders.ticker.scheduleAtFixedRate(() -> {
+            try {
+                reminders.tick();
+            } catch (IOException | RuntimeException ex) {
+                // a failing sink must not stop later ticks
+                System.err.println("Failed to send reminders: " + ex.getMessage());
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        return reminders;
+    }
+
+    /**
+     * Sends every reminder that has fallen due
+     * @return The number of reminders sent
+     * @throws IOException If the sink fails; the batch is not retried
+     */
+    public int tick() throws IOException {
+        List<Appointment> due;
+        synchronized (this) {
+            due = wheel.advance(Math.floorDiv(clock.getAsLong(), tickMillis));
+            for (Appointment appointment : due) {
+                timers.remove(appointment.getAppointmentId());
+            }
+        }
+        // sent outside the lock, so a slow sink never holds up the appointments being changed
+        if (!due.isEmpty()) {
+            sink.send(due);
+        }
+        return due.size();
+    }
+
+    /**
+     * Gets the number of reminders waiting to be sent
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Schedules, moves or drops an appointment's reminder to match its saved state. Also used to schedule the
+     * appointments that exist before the scheduler is registered.
+     * @param appointment
+     */
+    @Override
+    public synchronized void onAppointmentSaved(Appointment appointment) {
+        int id = appointment.getAppointmentId();
+        TimingWheel.Timer<Appointment> old = timers.remove(id);
+        if (old != null) {
+            wheel.cancel(old);
+        }
+
+        long start = appointment.getStartMillis();
+        if (appointment.getStatus() != Appointment.Status.ACTIVE || start == Appointment.NO_START
+                || start <= clock.getAsLong()) {
+            return;
+        }
+        // rounded up so the reminder is never early; one already past its time goes out with the next tick
+        timers.put(id, wheel.schedule(Math.ceilDiv(start - leadMillis, tickMillis), appointment));
+    }
+
+    @Override
+    public synchronized void onAppointmentDeleted(int id) {
+        TimingWheel.Timer<Appointment> old = timers.remove(id);
+        if (old != null) {
+            wheel.cancel(old);
+        }
+    }
+
+    /**
+     * Stops ticking, if the scheduler ticks on its own thread. Reminders still waiting are not sent.
+     */
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdown();
+        }
+    }
+}
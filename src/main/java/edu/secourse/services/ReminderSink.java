@@ -0,0 +1,46 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Delivers the reminders a ReminderScheduler finds due, such as by email or text message.
+ */
+public interface ReminderSink {
+    /**
+     * Sends the reminders for a batch of appointments
+     * @param due The appointments, as they were when last saved, in the order their reminders fell due
+     * @throws IOException If the reminders could not be sent
+     */
+    void send(List<Appointment> due) throws IOException;
+
+    /**
+     * Makes a sink that appends one line per reminder to a file, standing in for a real notification service
+     * @param file The file, created if it does not exist
+     * @return The sink
+     */
+    static ReminderSink toFile(Path file) {
+        return due -> {
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                String sent = Instant.now().toString();
+                for (Appointment appointment : due) {
+                    out.write(String.format("%s reminder: appointment %d for patient %d with doctor %d at %s%n",
+                            sent,
+                            appointment.getAppointmentId(),
+                            appointment.getPatient().getAccNum(),
+                            appointment.getDoctor().getAccNum(),
+                            Instant.ofEpochMilli(appointment.getStartMillis())));
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package edu.secourse.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out ids in order, starting at 0. Suited to ids that are not secret and should stay dense.
+ */
+public class SequentialIdAllocator implements IdAllocator {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public int nextId() {
+        int id = next.getAndIncrement();
+        if (id < 0) {
+            throw new IllegalStateException("No more ids available.");
+        }
+        return id;
+    }
+
+    @Override
+    public int[] nextIds(int count) {
+        int first = next.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("No more ids available.");
+        }
+
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = first + i;
+        }
+        return ids;
+    }
+
+    @Override
+    public void reserve(int id) {
+        next.accumulateAndGet(id + 1, Math::max);
+    }
+
+    @Override
+    public int lastId() {
+        return next.get() - 1;
+    }
+}
@@ -0,0 +1,40 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.User;
+
+/**
+ * Receives every change made through UserService and AppointmentService.
+ * Callbacks run on the thread making the change, while the changed record is still locked, so a listener sees the
+ * changes to any one record in the order they happened. Listeners must be quick and must not call back into the
+ * service that notified them.
+ */
+public interface StoreListener {
+    /**
+     * Called after a user is created or updated
+     * @param user The stored user model
+     */
+    default void onUserSaved(User user) {
+    }
+
+    /**
+     * Called after a user is deleted
+     * @param id The account number of the deleted user
+     */
+    default void onUserDeleted(int id) {
+    }
+
+    /**
+     * Called after an appointment is created, updated, rescheduled or cancelled
+     * @param appointment The stored appointment model
+     */
+    default void onAppointmentSaved(Appointment appointment) {
+    }
+
+    /**
+     * Called after an appointment is deleted
+     * @param id The id of the deleted appointment
+     */
+    default void onAppointmentDeleted(int id) {
+    }
+}
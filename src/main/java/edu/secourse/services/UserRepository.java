@@ -0,0 +1,65 @@
+package edu.secourse.services;
+
+import edu.secourse.models.User;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the user models of a UserService, keyed by account number. Implementations must be thread-safe and
+ * atomic per account number. The callbacks passed to writes run while the change is still exclusive, so changes to
+ * one user reach the service's listeners in the order they were made.
+ */
+public interface UserRepository {
+    /**
+     * Gets the user with an account number
+     * @param id The account number
+     * @return The user, or null if there is none
+     */
+    User get(int id);
+
+    /**
+     * Stores a user under its account number, replacing any user already there
+     * @param user The user
+     * @param onStored Runs once the user is stored; may be null
+     */
+    void put(User user, Runnable onStored);
+
+    /**
+     * Stores a user if its account number is not in use
+     * @param user The user
+     * @param onStored Runs once the user is stored, and only if it was; may be null
+     * @return True if the user was stored
+     */
+    boolean putIfAbsent(User user, Runnable onStored);
+
+    /**
+     * Replaces the user with the same account number, if there is one
+     * @param user The new version of the user
+     * @param onStored Runs once the user is stored, and only if it was; may be null
+     * @return True if a user was replaced
+     */
+    boolean replace(User user, Runnable onStored);
+
+    /**
+     * Removes the user with an account number
+     * @param id The account number
+     * @param onRemoved Runs once the user is removed, and only if there was one; may be null
+     * @return True if a user was removed
+     */
+    boolean remove(int id, Runnable onRemoved);
+
+    /**
+     * Stores a batch of users, replacing any users with the same account numbers
+     * @param users The users
+     * @param onStored Runs for each user once it is stored; may be null
+     */
+    void putAll(List<? extends User> users, Consumer<? super User> onStored);
+
+    /**
+     * Calls an action for every stored user, in no particular order. Users stored or removed while this runs may or
+     * may not be visited.
+     * @param action The action
+     */
+    void forEach(Consumer<? super User> action);
+}
@@ -1,114 +1,730 @@
 package edu.secourse.services;
 
+import edu.secourse.exceptions.DuplicateUserException;
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.Operation;
 import edu.secourse.models.Admin;
 import edu.secourse.models.Doctor;
 import edu.secourse.models.Patient;
 import edu.secourse.models.User;
+import edu.secourse.types.ConcurrentIntObjectMap;
+import edu.secourse.types.NameIndex;
 
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
- * Handles CRUD operations for User models, as well as retaining a cache of Users.
+ * Handles CRUD operations for User models, keeping them in a UserRepository.
+ * The default repository holds every user on the heap, indexed by account number, so lookups, updates and deletes
+ * run in constant time. Repositories are thread-safe, so a UserService can be shared between threads.
+ * Usernames and email addresses are unique, ignoring case and Unicode compatibility forms, and are kept in hash
+ * indexes so users can also be found by either one in constant time. A name is claimed in its index before the user
+ * is stored, so two threads can never both take it. Names and usernames are also kept in a NameIndex, so users can
+ * be searched by partial or misspelled names without scanning them all.
+ * The index of each user's keys is partitioned by role, with its own id map per role, so patients, doctors and
+ * admins can be looked up by type and iterated without visiting the users of other roles.
+ * Passwords are stored as salted hashes made by a PasswordHasher, whose worker threads do the slow part, so user
+ * models never hold a password as typed.
  *
  * @author Matt Robinson
  */
 public class UserService {
-    private ArrayList<User> users;
+    private static final Operation CREATE_USER = Metrics.operation("UserService.createUser");
+    private static final Operation GET_USER = Metrics.operation("UserService.getUser");
+    private static final Operation UPDATE_USER = Metrics.operation("UserService.updateUser");
+    private static final Operation DELETE_USER = Metrics.operation("UserService.deleteUser");
+    private static final Operation IMPORT_USERS = Metrics.operation("UserService.importUsers");
+    private static final Operation FIND_BY_USERNAME = Metrics.operation("UserService.findByUsername");
+    private static final Operation FIND_BY_EMAIL = Metrics.operation("UserService.findByEmail");
+    private static final Operation SEARCH_USERS = Metrics.operation("UserService.searchUsers");
+    private static final Operation GET_PATIENT = Metrics.operation("UserService.getPatient");
+    private static final Operation GET_DOCTOR = Metrics.operation("UserService.getDoctor");
+    private static final Operation GET_ADMIN = Metrics.operation("UserService.getAdmin");
+    private static final Operation CHANGE_PASSWORD = Metrics.operation("UserService.changePassword");
+    private static final Operation VERIFY_PASSWORD = Metrics.operation("UserService.verifyPassword");
 
+    private static final int KEY_LOCKS = 64;
+
+    private final UserRepository users;
+    private final IdAllocator idAllocator;
+    private final PasswordHasher passwordHasher;
+    // normalized username or email to account number
+    private final ConcurrentHashMap<String, Integer> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> byEmail = new ConcurrentHashMap<>();
+    // the keys each user is indexed under, since a caller of updateUser(User) may have changed the stored user in
+    // place, partitioned by role
+    private final ConcurrentIntObjectMap<Keys> patients = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Keys> doctors = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Keys> admins = new ConcurrentIntObjectMap<>();
+    private final NameIndex names = new NameIndex();
+    // serializes index changes for the same account number
+    private final Object[] keyLocks = new Object[KEY_LOCKS];
+    private final CopyOnWriteArrayList<StoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a UserService that hands out random-looking, non-colliding account numbers
+     */
     public UserService() {
-        users = new ArrayList<>();
+        this(new PermutationIdAllocator());
     }
 
     /**
-     * Creates a user, assigning it a random accId, storing the model in the UserService cache, and returning
+     * Creates a UserService with the given source of account numbers
+     * @param idAllocator
+     */
+    public UserService(IdAllocator idAllocator) {
+        this(idAllocator, new InMemoryUserRepository());
+    }
+
+    /**
+     * Creates a UserService with the given source of account numbers, storing users in the given repository
+     * @param idAllocator
+     * @param repository
+     */
+    public UserService(IdAllocator idAllocator, UserRepository repository) {
+        this(idAllocator, repository, PasswordHasher.getDefault());
+    }
+
+    /**
+     * Creates a UserService with the given source of account numbers, storing users in the given repository and
+     * hashing passwords with the given hasher
+     * @param idAllocator
+     * @param repository
+     * @param passwordHasher
+     */
+    public UserService(IdAllocator idAllocator, UserRepository repository, PasswordHasher passwordHasher) {
+        this.users = repository;
+        this.idAllocator = idAllocator;
+        this.passwordHasher = passwordHasher;
+        for (int i = 0; i < KEY_LOCKS; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Creates a user, assigning it a unique accId, storing the model in the repository, and returning
      * @param username
-     * @param password
+     * @param password The password as typed, which is stored hashed
      * @param name
      * @param email
      * @param role
      * @return
+     * @throws DuplicateUserException If the username or email address is already taken
      */
     public User createUser(String username, String password, String name, String email, String role) {
-        int userId = getUniqueId();
-
-        User newUser;
-        switch (role.toLowerCase()) {
-            case "patient":
-                newUser = new Patient(userId, username, password, name, email);
-                break;
-            case "doctor":
-                newUser = new Doctor(userId, username, password, name, email);
-                break;
-            case "admin":
-                newUser = new Admin(userId, username, password, name, email);
-                break;
-            default:
+        long started = CREATE_USER.start();
+        try {
+            // hashing is slow, so a bad role or a name that is already taken is refused first; the claim below still
+            // decides races
+            Keys wanted = new Keys(-1, normalize(username), normalize(email));
+            if (wanted.username != null && byUsername.containsKey(wanted.username)) {
+                throw new DuplicateUserException("Username is already taken.");
+            }
+            if (wanted.email != null && byEmail.containsKey(wanted.email)) {
+                throw new DuplicateUserException("Email address is already in use.");
+            }
+            String kind = role.toLowerCase();
+            if (!kind.equals("patient") && !kind.equals("doctor") && !kind.equals("admin")) {
                 throw new RuntimeException("Invalid role for user: " + role);
-        }
+            }
+            String hash = passwordHasher.hash(password);
+
+            User newUser;
+            switch (kind) {
+                case "patient":
+                    newUser = new Patient(idAllocator.nextId(), username, hash, name, email);
+                    break;
+                case "doctor":
+                    newUser = new Doctor(idAllocator.nextId(), username, hash, name, email);
+                    break;
+                default:
+                    newUser = new Admin(idAllocator.nextId(), username, hash, name, email);
+                    break;
+            }
+
+            int id = newUser.getAccNum();
+            synchronized (keyLockFor(id)) {
+                Keys keys = Keys.of(newUser);
+                claim(keys, null, id);
 
-        users.add(newUser);
+                // the allocator never repeats an id, so this only fails if a user was stored without reserving its id
+                if (!users.putIfAbsent(newUser, () -> notifySaved(newUser))) {
+                    release(keys, null, id);
+                    throw new IllegalStateException("Account number " + id + " is already in use.");
+                }
+                partitionOf(newUser).put(id, keys);
+                names.put(id, newUser.getName(), newUser.getUsername());
+            }
 
-        return newUser;
+            return newUser;
+        } finally {
+            CREATE_USER.stop(started);
+        }
     }
 
     /**
-     * Returns a unique numerical id that is not currently in the cache
+     * Gets a user based off their id and returns said user
+     * @param id
      * @return
      */
-    private int getUniqueId() {
-        int ret;
+    public User getUser(int id) {
+        long started = GET_USER.start();
+        try {
+            return users.get(id);
+        } finally {
+            GET_USER.stop(started);
+        }
+    }
 
-        do {
-            ret = (int)(Math.random() * 1000000);
-        } while(getUser(ret) != null);
+    /**
+     * Gets a patient by id
+     * @param id
+     * @return The patient, or null if no patient has the id
+     */
+    public Patient getPatient(int id) {
+        long started = GET_PATIENT.start();
+        try {
+            // the partition rules out other roles without reading the repository
+            return patients.containsKey(id) && users.get(id) instanceof Patient patient ? patient : null;
+        } finally {
+            GET_PATIENT.stop(started);
+        }
+    }
 
-        return ret;
+    /**
+     * Gets a doctor by id
+     * @param id
+     * @return The doctor, or null if no doctor has the id
+     */
+    public Doctor getDoctor(int id) {
+        long started = GET_DOCTOR.start();
+        try {
+            return doctors.containsKey(id) && users.get(id) instanceof Doctor doctor ? doctor : null;
+        } finally {
+            GET_DOCTOR.stop(started);
+        }
     }
 
     /**
-     * Gets a user based off their id and returns said user
+     * Gets an admin by id
      * @param id
-     * @return
+     * @return The admin, or null if no admin has the id
      */
-    public User getUser(int id) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getAccNum() == id) {
-                return users.get(i);
-            }
+    public Admin getAdmin(int id) {
+        long started = GET_ADMIN.start();
+        try {
+            return admins.containsKey(id) && users.get(id) instanceof Admin admin ? admin : null;
+        } finally {
+            GET_ADMIN.stop(started);
+        }
+    }
+
+    /**
+     * Finds a user by username, ignoring case
+     * @param username
+     * @return The user, or null if no user has the username
+     */
+    public User findByUsername(String username) {
+        long started = FIND_BY_USERNAME.start();
+        try {
+            String key = normalize(username);
+            Integer id = key == null ? null : byUsername.get(key);
+            User user = id == null ? null : users.get(id);
+            // the index may briefly lead to a user whose rename is still being stored
+            return user != null && key.equals(normalize(user.getUsername())) ? user : null;
+        } finally {
+            FIND_BY_USERNAME.stop(started);
         }
+    }
 
-        return null;
+    /**
+     * Finds a user by email address, ignoring case
+     * @param email
+     * @return The user, or null if no user has the email address
+     */
+    public User findByEmail(String email) {
+        long started = FIND_BY_EMAIL.start();
+        try {
+            String key = normalize(email);
+            Integer id = key == null ? null : byEmail.get(key);
+            User user = id == null ? null : users.get(id);
+            return user != null && key.equals(normalize(user.getEmail())) ? user : null;
+        } finally {
+            FIND_BY_EMAIL.stop(started);
+        }
     }
 
     /**
-     * Takes in a user, finds a user from the cache whose id matches theirs and updates the user in the cache with
-     * the new information
+     * Searches users by name and username. Each word of the query matches a word that equals it, starts with it, or
+     * is a few typos away from either.
+     * @param query
+     * @param limit The most users to return
+     * @return The best matching users, best first
+     */
+    public List<User> searchUsers(String query, int limit) {
+        long started = SEARCH_USERS.start();
+        try {
+            int[] ids = names.search(query, limit);
+            List<User> found = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                // a user deleted since the search is skipped
+                User user = users.get(id);
+                if (user != null) {
+                    found.add(user);
+                }
+            }
+            return found;
+        } finally {
+            SEARCH_USERS.stop(started);
+        }
+    }
+
+    /**
+     * Takes in a user, finds a stored user whose id matches theirs and replaces it with the new information.
+     * The password is stored as it is, so it must be a hash; use changePassword to set a new one. To change some
+     * fields of a stored user, use updateUser(int, UnaryOperator), which does not lose concurrent changes.
      * @param user
+     * @throws DuplicateUserException If the new username or email address is taken by another user
      */
     public void updateUser(User user) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getAccNum() == user.getAccNum()) {
-                users.set(i, user);
-                return;
+        long started = UPDATE_USER.start();
+        try {
+            int id = user.getAccNum();
+            synchronized (keyLockFor(id)) {
+                // a user cannot change role, so one with this id in another partition does not count
+                Keys old = partitionOf(user).get(id);
+                if (old == null) {
+                    throw new RuntimeException("Cannot perform update operation on user that does not yet exist.");
+                }
+
+                Keys keys = Keys.of(user);
+                claim(keys, old, id);
+                if (!users.replace(user, () -> notifySaved(user))) {
+                    release(keys, old, id);
+                    throw new RuntimeException("Cannot perform update operation on user that does not yet exist.");
+                }
+                release(old, keys, id);
+                partitionOf(user).put(id, keys);
+                names.put(id, user.getName(), user.getUsername());
             }
+        } finally {
+            UPDATE_USER.stop(started);
+        }
+    }
+
+    /**
+     * Changes a stored user atomically. The change is made to a copy of the user, read while holding the lock that
+     * serializes updates of this account number, and the copy replaces the stored user, so concurrent updates of the
+     * same user never lose each other's changes and no one sees the user half changed. If the copy is rejected, for
+     * example because its new username is taken, the stored user is left as it was.
+     * @param id
+     * @param change Changes the copy it is given, returning it or another user with the same account number and role
+     * @return The stored copy
+     * @throws DuplicateUserException If the new username or email address is taken by another user
+     */
+    public User updateUser(int id, UnaryOperator<User> change) {
+        synchronized (keyLockFor(id)) {
+            User user = users.get(id);
+            if (user == null) {
+                throw new RuntimeException("Cannot perform update operation on user that does not yet exist.");
+            }
+
+            User updated = change.apply(copyOf(user));
+            if (updated.getAccNum() != id || partitionOf(updated) != partitionOf(user)) {
+                throw new IllegalArgumentException("An update cannot change a user's account number or role.");
+            }
+            updateUser(updated);
+            return updated;
+        }
+    }
+
+    /**
+     * Hashes a new password for a user and stores it
+     * @param id
+     * @param password The password as typed
+     */
+    public void changePassword(int id, String password) {
+        long started = CHANGE_PASSWORD.start();
+        try {
+            // hashed before taking the user's lock, so the slow part does not hold up other updates
+            String hash = passwordHasher.hash(password);
+            updateUser(id, user -> {
+                user.setPassword(hash);
+                return user;
+            });
+        } finally {
+            CHANGE_PASSWORD.stop(started);
         }
-        throw new RuntimeException("Cannot perform update operation on user that does not yet exist.");
     }
 
     /**
-     * Finds a user based off their id and removes them from the cache
+     * Checks a user's password. Takes as long whether or not the username exists, so a failed check does not tell
+     * which of the two was wrong.
+     * @param username
+     * @param password The password as typed
+     * @return True if the user exists and the password is theirs
+     */
+    public boolean verifyPassword(String username, String password) {
+        long started = VERIFY_PASSWORD.start();
+        try {
+            User user = findByUsername(username);
+            return passwordHasher.verify(password, user == null ? null : user.getPassword());
+        } finally {
+            VERIFY_PASSWORD.stop(started);
+        }
+    }
+
+    /**
+     * Finds a user based off their id and removes them
      * @param id
      * @return
      */
     public boolean deleteUser(int id) {
-        User user = getUser(id);
+        long started = DELETE_USER.start();
+        try {
+            synchronized (keyLockFor(id)) {
+                if (!users.remove(id, () -> notifyDeleted(id))) {
+                    return false;
+                }
+                Keys keys = unindex(id);
+                if (keys != null) {
+                    release(keys, null, id);
+                }
+                names.remove(id);
+                return true;
+            }
+        } finally {
+            DELETE_USER.stop(started);
+        }
+    }
+
+    /**
+     * Stores a user that already has an account number, such as one loaded from disk, replacing any user with the
+     * same number. The number is reserved so it is never handed out to a new user. Its username and email address
+     * are indexed even if another user already has them, so that loading saved data never fails; lookups then find
+     * the user restored last. A password saved before hashing was added is hashed here, so it does not stay in
+     * memory, and the next snapshot saves the hash instead.
+     * @param user
+     */
+    public void restoreUser(User user) {
+        String password = user.getPassword();
+        if (password != null && !PasswordHasher.isHash(password)) {
+            user.setPassword(passwordHasher.hash(password));
+        }
+
+        int id = user.getAccNum();
+        idAllocator.reserve(id);
+        synchronized (keyLockFor(id)) {
+            Keys old = unindex(id);
+            Keys keys = Keys.of(user);
+            if (old != null) {
+                release(old, keys, id);
+            }
+            if (keys.username != null) {
+                byUsername.put(keys.username, id);
+            }
+            if (keys.email != null) {
+                byEmail.put(keys.email, id);
+            }
+            partitionOf(user).put(id, keys);
+            names.put(id, user.getName(), user.getUsername());
+            users.put(user, () -> notifySaved(user));
+        }
+    }
+
+    /**
+     * Stores a batch of users, such as rows of a bulk import. Users with a negative account number are given new
+     * numbers, all taken from the allocator in one block; the others keep theirs, replacing any user with the same
+     * number. Users whose username or email address is taken, by a stored user or one earlier in the batch, are
+     * not stored. Fields are not validated. Passwords are hashed together on the hasher's worker threads, except
+     * ones that are already hashes, such as those in an export.
+     * @param batch The users to store
+     * @return The users that were not stored because their username or email address was taken
+     */
+    public List<User> importUsers(List<? extends User> batch) {
+        long started = IMPORT_USERS.start();
+        try {
+            int fresh = 0;
+            for (User user : batch) {
+                if (user.getAccNum() < 0) {
+                    fresh++;
+                } else {
+                    idAllocator.reserve(user.getAccNum());
+                }
+            }
+
+            int[] ids = idAllocator.nextIds(fresh);
+            int next = 0;
+            for (User user : batch) {
+                if (user.getAccNum() < 0) {
+                    user.setAccNum(ids[next++]);
+                }
+            }
+
+            // claimed one by one, so each user is checked against the ones before it
+            ArrayList<User> accepted = new ArrayList<>(batch.size());
+            ArrayList<User> refused = new ArrayList<>();
+            for (User user : batch) {
+                int id = user.getAccNum();
+                synchronized (keyLockFor(id)) {
+                    Keys old = indexed(id);
+                    Keys keys = Keys.of(user);
+                    try {
+                        claim(keys, old, id);
+                    } catch (DuplicateUserException ex) {
+                        refused.add(user);
+                        continue;
+                    }
+                    if (old != null) {
+                        release(old, keys, id);
+                        unindex(id);
+                    }
+                    partitionOf(user).put(id, keys);
+                }
+                accepted.add(user);
+            }
+
+            List<String> passwords = new ArrayList<>(accepted.size());
+            for (User user : accepted) {
+                passwords.add(user.getPassword());
+            }
+            List<String> hashes = passwordHasher.hashAll(passwords);
+            for (int i = 0; i < accepted.size(); i++) {
+                accepted.get(i).setPassword(hashes.get(i));
+            }
+
+            users.putAll(accepted, this::notifySaved);
+            for (User user : accepted) {
+                names.put(user.getAccNum(), user.getName(), user.getUsername());
+            }
+            return refused;
+        } finally {
+            IMPORT_USERS.stop(started);
+        }
+    }
+
+    /**
+     * Calls an action for every stored user, in no particular order. Users created or deleted while this runs may
+     * or may not be visited.
+     * @param action
+     */
+    public void forEachUser(Consumer<? super User> action) {
+        users.forEach(action);
+    }
+
+    /**
+     * Calls an action for every stored patient, in no particular order, without visiting other users
+     * @param action
+     */
+    public void forEachPatient(Consumer<? super Patient> action) {
+        forEachIn(patients, Patient.class, action);
+    }
+
+    /**
+     * Calls an action for every stored doctor, in no particular order, without visiting other users
+     * @param action
+     */
+    public void forEachDoctor(Consumer<? super Doctor> action) {
+        forEachIn(doctors, Doctor.class, action);
+    }
+
+    /**
+     * Calls an action for every stored admin, in no particular order, without visiting other users
+     * @param action
+     */
+    public void forEachAdmin(Consumer<? super Admin> action) {
+        forEachIn(admins, Admin.class, action);
+    }
+
+    public int getPatientCount() {
+        return patients.size();
+    }
+
+    public int getDoctorCount() {
+        return doctors.size();
+    }
+
+    public int getAdminCount() {
+        return admins.size();
+    }
+
+    /**
+     * Gets the account number handed out or reserved last, so it can be saved and later passed to
+     * resumeAccountNumbers
+     * @return The last account number, or -1 if none has been used
+     */
+    public int getLastAccountNumber() {
+        return idAllocator.lastId();
+    }
+
+    /**
+     * Continues handing out account numbers after one saved from getLastAccountNumber, so no number handed out
+     * before it is used again, even by users that have since been deleted
+     * @param lastId The saved account number, or -1 if none had been used
+     */
+    public void resumeAccountNumbers(int lastId) {
+        idAllocator.resume(lastId);
+    }
+
+    /**
+     * Registers a listener that is told about every change made through this service
+     * @param listener
+     */
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    private ConcurrentIntObjectMap<Keys> partitionOf(User user) {
+        if (user instanceof Patient) {
+            return patients;
+        }
+        if (user instanceof Doctor) {
+            return doctors;
+        }
+        return admins;
+    }
+
+    private static User copyOf(User user) {
+        if (user instanceof Patient) {
+            return new Patient(user.getAccNum(), user.getUsername(), user.getPassword(), user.getName(),
+                    user.getEmail());
+        }
+        if (user instanceof Doctor) {
+            return new Doctor(user.getAccNum(), user.getUsername(), user.getPassword(), user.getName(),
+                    user.getEmail());
+        }
+        return new Admin(user.getAccNum(), user.getUsername(), user.getPassword(), user.getName(), user.getEmail());
+    }
+
+    /**
+     * Finds the keys a user is indexed under, whatever its role. Must be called with the user's key lock held.
+     * @param id
+     * @return The keys, or null if no user has the id
+     */
+    private Keys indexed(int id) {
+        Keys keys = patients.get(id);
+        if (keys == null) {
+            keys = doctors.get(id);
+        }
+        if (keys == null) {
+            keys = admins.get(id);
+        }
+        return keys;
+    }
+
+    /**
+     * Removes a user from its role's partition. Must be called with the user's key lock held.
+     * @param id
+     * @return The keys the user was indexed under, or null if no user has the id
+     */
+    private Keys unindex(int id) {
+        Keys keys = patients.remove(id);
+        if (keys == null) {
+            keys = doctors.remove(id);
+        }
+        if (keys == null) {
+            keys = admins.remove(id);
+        }
+        return keys;
+    }
+
+    /**
+     * Calls an action for every stored user in a partition
+     * @param partition
+     * @param type The partition's user class
+     * @param action
+     */
+    private <T extends User> void forEachIn(ConcurrentIntObjectMap<Keys> partition, Class<T> type,
+                                            Consumer<? super T> action) {
+        partition.forEachValue(keys -> {
+            // skip users deleted or replaced since the partition was read
+            User user = users.get(keys.id());
+            if (type.isInstance(user)) {
+                action.accept(type.cast(user));
+            }
+        });
+    }
 
-        if (user == null) {
-            return false;
+    private Object keyLockFor(int id) {
+        int hash = id * 0x9E3779B9;
+        return keyLocks[(hash ^ (hash >>> 16)) & (KEY_LOCKS - 1)];
+    }
+
+    /**
+     * Claims the keys a user is changing to. Must be called with the user's key lock held.
+     * @param keys The user's new keys
+     * @param old The keys the user is indexed under now, or null for a new user
+     * @param id The user's account number
+     * @throws DuplicateUserException If a key is taken by another user; nothing is claimed then
+     */
+    private void claim(Keys keys, Keys old, int id) {
+        boolean username = keys.username != null && (old == null || !keys.username.equals(old.username));
+        if (username && byUsername.putIfAbsent(keys.username, id) != null) {
+            throw new DuplicateUserException("Username is already taken.");
         }
 
-        users.remove(user);
+        boolean email = keys.email != null && (old == null || !keys.email.equals(old.email));
+        if (email && byEmail.putIfAbsent(keys.email, id) != null) {
+            if (username) {
+                byUsername.remove(keys.username, id);
+            }
+            throw new DuplicateUserException("Email address is already in use.");
+        }
+    }
+
+    /**
+     * Releases the keys a user no longer has. Must be called with the user's key lock held.
+     * @param keys The keys to release
+     * @param kept Keys the user still has, which are left claimed, or null
+     * @param id The user's account number
+     */
+    private void release(Keys keys, Keys kept, int id) {
+        if (keys.username != null && (kept == null || !keys.username.equals(kept.username))) {
+            byUsername.remove(keys.username, id);
+        }
+        if (keys.email != null && (kept == null || !keys.email.equals(kept.email))) {
+            byEmail.remove(keys.email, id);
+        }
+    }
 
-        return true;
+    /**
+     * Normalizes a username or email address for the indexes: compatibility forms folded, case ignored, and
+     * surrounding whitespace dropped
+     * @param value
+     * @return The index key, or null if value is null
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        return Normalizer.normalize(value, Normalizer.Form.NFKC).strip().toLowerCase(Locale.ROOT);
+    }
+
+    private record Keys(int id, String username, String email) {
+        static Keys of(User user) {
+            return new Keys(user.getAccNum(), normalize(user.getUsername()), normalize(user.getEmail()));
+        }
+    }
+
+    private void notifySaved(User user) {
+        for (StoreListener listener : listeners) {
+            listener.onUserSaved(user);
+        }
+    }
+
+    private void notifyDeleted(int id) {
+        for (StoreListener listener : listeners) {
+            listener.onUserDeleted(id);
+        }
     }
 }
@@ -0,0 +1,128 @@
+package edu.secourse.types;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each task on its own virtual thread, with at most a fixed number running at once. Tasks over the limit wait
+ * on their virtual thread for a permit rather than in a queue, so submitting never blocks the caller and a task
+ * blocked on I/O holds no platform thread.
+ */
+public class BoundedVirtualExecutor extends AbstractExecutorService {
+    private final ExecutorService threads;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    /**
+     * Creates an executor
+     * @param name The name prefix of its threads
+     * @param maxConcurrency The most tasks that may run at once
+     */
+    public BoundedVirtualExecutor(String name, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        this.threads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Gets the most tasks that may run at once
+     * @return The concurrency limit
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Gets the number of tasks started but waiting for a permit
+     * @return An estimate of the waiting tasks
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Runs a task, completing the returned future with its result or with the exception it throws, unwrapped
+     * @param task The task
+     * @return A future for the task's result; cancelled if the executor is shut down before it runs
+     */
+    public <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        threads.execute(() -> {
+            if (!acquire()) {
+                future.completeExceptionally(new CancellationException("Executor shut down."));
+                return;
+            }
+            try {
+                future.complete(task.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.execute(() -> {
+            if (!acquire()) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return threads.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return threads.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return threads.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Waits for a permit
+     * @return False if the thread was interrupted, by shutdownNow, before getting one
+     */
+    private boolean acquire() {
+        try {
+            permits.acquire();
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
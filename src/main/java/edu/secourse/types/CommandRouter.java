@@ -0,0 +1,296 @@
+package edu.secourse.types;
+
+import edu.secourse.exceptions.InvalidArgumentException;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Dispatches command lines to handlers. Command names such as "user create" are stored in a trie keyed by
+ * character, so a line is matched against every command in a single pass over its first characters, without
+ * splitting it or building a lookup key. The rest of the line is split into arguments at spaces, recording only
+ * where each argument starts and ends, and handlers read them as strings, ids or dates.
+ * Registering commands is not thread-safe, but a router that is fully set up can parse lines on any thread.
+ * @param <E> The environment passed to every handler
+ */
+public class CommandRouter<E> {
+    /**
+     * Handler for one command
+     * @param <E> The environment passed to the handler
+     */
+    @FunctionalInterface
+    public interface Command<E> {
+        /**
+         * Runs the command
+         * @param environment The environment the command acts on
+         * @param args The arguments after the command name
+         * @param out Where the command prints its result
+         */
+        void run(E environment, Args args, PrintStream out);
+    }
+
+    private final Node<E> root = new Node<>();
+
+    /**
+     * Adds a command
+     * @param name The command name, with words separated by single spaces
+     * @param command The handler
+     * @throws IllegalArgumentException If the name is empty or already registered
+     */
+    public void register(String name, Command<E> command) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Command name must not be empty.");
+        }
+
+        Node<E> node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.childOrAdd(name.charAt(i));
+        }
+        if (node.command != null) {
+            throw new IllegalArgumentException("Command already registered: " + name);
+        }
+        node.name = name;
+        node.command = command;
+    }
+
+    /**
+     * Matches a line to the longest registered command name it starts with, followed by a space or the end of the
+     * line, and splits what follows into arguments
+     * @param line The command line
+     * @return The command and its arguments, or null if no command matches
+     */
+    public Invocation<E> parse(String line) {
+        Node<E> node = root;
+        Node<E> match = null;
+        int matchEnd = 0;
+        int length = line.length();
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.child(line.charAt(i));
+            if (node != null && node.command != null && (i + 1 == length || line.charAt(i + 1) == ' ')) {
+                match = node;
+                matchEnd = i + 1;
+            }
+        }
+        return match == null ? null : new Invocation<>(match.name, match.command, new Args(line, matchEnd));
+    }
+
+    /**
+     * Finds every command name that starts with a prefix
+     * @param prefix The start of a command name
+     * @return The matching command names in alphabetical order
+     */
+    public List<String> complete(String prefix) {
+        Node<E> node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+
+        List<String> names = new ArrayList<>();
+        if (node != null) {
+            collect(node, names);
+        }
+        return names;
+    }
+
+    private static <E> void collect(Node<E> node, List<String> names) {
+        if (node.command != null) {
+            names.add(node.name);
+        }
+        for (int i = 0; i < node.size; i++) {
+            collect(node.children[i], names);
+        }
+    }
+
+    /**
+     * A parsed command line, ready to run
+     * @param <E> The environment passed to the handler
+     */
+    public static final class Invocation<E> {
+        private final String name;
+        private final Command<E> command;
+        private final Args args;
+
+        private Invocation(String name, Command<E> command, Args args) {
+            this.name = name;
+            this.command = command;
+            this.args = args;
+        }
+
+        /**
+         * Gets the name of the matched command
+         * @return The command name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the arguments after the command name
+         * @return The arguments
+         */
+        public Args getArgs() {
+            return args;
+        }
+
+        /**
+         * Runs the command
+         * @param environment The environment the command acts on
+         * @param out Where the command prints its result
+         */
+        public void run(E environment, PrintStream out) {
+            command.run(environment, args, out);
+        }
+    }
+
+    /**
+     * The arguments of a command line, split at spaces. Runs of spaces count as one separator.
+     */
+    public static final class Args {
+        private final String line;
+        // start and end of each argument in line, in pairs
+        private int[] bounds = new int[8];
+        private int size;
+
+        /**
+         * Splits the part of a line after a command name into arguments
+         * @param line The command line
+         * @param from Where the arguments start
+         */
+        Args(String line, int from) {
+            this.line = line;
+            int length = line.length();
+            int i = from;
+            while (i < length) {
+                while (i < length && line.charAt(i) == ' ') {
+                    i++;
+                }
+                if (i == length) {
+                    break;
+                }
+                int start = i;
+                while (i < length && line.charAt(i) != ' ') {
+                    i++;
+                }
+                if (size * 2 == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[size * 2] = start;
+                bounds[size * 2 + 1] = i;
+                size++;
+            }
+        }
+
+        /**
+         * Gets the number of arguments
+         * @return The argument count
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets an argument as it was typed
+         * @param index The argument, counting from 0 after the command name
+         * @return The argument
+         * @throws InvalidArgumentException If there is no such argument
+         */
+        public String getString(int index) {
+            require(index);
+            return line.substring(bounds[index * 2], bounds[index * 2 + 1]);
+        }
+
+        /**
+         * Gets an argument as an int, such as an account number or appointment id
+         * @param index The argument, counting from 0 after the command name
+         * @return The parsed number
+         * @throws InvalidArgumentException If there is no such argument or it is not a number
+         */
+        public int getInt(int index) {
+            require(index);
+            try {
+                return Integer.parseInt(line, bounds[index * 2], bounds[index * 2 + 1], 10);
+            } catch (NumberFormatException ex) {
+                throw new InvalidArgumentException(
+                        String.format("Argument %d must be a number: %s", index + 1, getString(index)));
+            }
+        }
+
+        /**
+         * Gets an argument and everything after it, for values that may contain spaces such as names
+         * @param index The first argument to include, counting from 0 after the command name
+         * @return The rest of the line from that argument on, or an empty string if there are fewer arguments
+         */
+        public String getRest(int index) {
+            return index < size ? line.substring(bounds[index * 2], bounds[size * 2 - 1]) : "";
+        }
+
+        /**
+         * Gets an argument and everything after it as a date, in any format accepted by Date.parse,
+         * such as "2025-11-14 10:30" or "Nov 14 2025 10:30"
+         * @param index The first argument of the date, counting from 0 after the command name
+         * @return The parsed date
+         * @throws InvalidArgumentException If there is no such argument or it is not a date
+         */
+        @SuppressWarnings("deprecation")
+        public Date getDate(int index) {
+            require(index);
+            String text = getRest(index);
+            try {
+                return new Date(text);
+            } catch (IllegalArgumentException ex) {
+                throw new InvalidArgumentException(String.format("Argument %d must be a date: %s", index + 1, text));
+            }
+        }
+
+        private void require(int index) {
+            if (index >= size) {
+                throw new InvalidArgumentException("Missing argument " + (index + 1) + ".");
+            }
+        }
+    }
+
+    /**
+     * Trie node; children are kept sorted by character
+     */
+    private static final class Node<E> {
+        private char[] keys = new char[0];
+        @SuppressWarnings("unchecked")
+        private Node<E>[] children = (Node<E>[]) new Node<?>[0];
+        private int size;
+        private String name;
+        private Command<E> command;
+
+        Node<E> child(char key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node<E> childOrAdd(char key) {
+            int i = 0;
+            while (i < size && keys[i] < key) {
+                i++;
+            }
+            if (i < size && keys[i] == key) {
+                return children[i];
+            }
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(2, size * 2));
+                children = Arrays.copyOf(children, keys.length);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(children, i, children, i + 1, size - i);
+            keys[i] = key;
+            children[i] = new Node<>();
+            size++;
+            return children[i];
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package edu.secourse.types;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Thread-safe int-keyed map built from lock-striped IntObjectMaps.
+ * A key always lives in the same stripe, so every operation takes exactly one stripe lock and operations on
+ * keys in different stripes never contend. Each operation is atomic with respect to its key.
+ *
+ * @param <V> The type of the mapped values
+ */
+public class ConcurrentIntObjectMap<V> {
+    private static final int STRIPE_BITS = 6;
+
+    private final Stripe<V>[] stripes;
+
+    /**
+     * Creates an empty map.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntObjectMap() {
+        stripes = (Stripe<V>[]) new Stripe<?>[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe<>();
+        }
+    }
+
+    /**
+     * Gets the value mapped to a key
+     * @param key The key
+     * @return The mapped value, or null if the key is not present
+     */
+    public V get(int key) {
+        Stripe<V> stripe = stripeFor(key);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.map.get(key);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous mapping
+     * @param key The key
+     * @param value The value, must not be null
+     * @return The previously mapped value, or null if there was none
+     */
+    public V put(int key, V value) {
+        return put(key, value, null);
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous mapping
+     * @param key The key
+     * @param value The value, must not be null
+     * @param onPut Run after the value is stored, before the key is unlocked; may be null
+     * @return The previously mapped value, or null if there was none
+     */
+    public V put(int key, V value, Runnable onPut) {
+        Stripe<V> stripe = stripeFor(key);
+        stripe.lock.writeLock().lock();
+        try {
+            V previous = stripe.map.put(key, value);
+            if (onPut != null) {
+                onPut.run();
+            }
+            return previous;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps a key to a value, only if the key is not already present
+     * @param key The key
+     * @param value The value, must not be null
+     * @return True if the value was added
+     */
+    public boolean putIfAbsent(int key, V value) {
+        return putIfAbsent(key, value, null);
+    }
+
+    /**
+     * Maps a key to a value, only if the key is not already present
+     * @param key The key
+     * @param value The value, must not be null
+     * @param onAdded Run after the value is added, before the key is unlocked; may be null
+     * @return True if the value was added
+     */
+    public boolean putIfAbsent(int key, V value, Runnable onAdded) {
+        Stripe<V> stripe = stripeFor(key);
+        stripe.lock.writeLock().lock();
+        try {
+            if (stripe.map.containsKey(key)) {
+                return false;
+            }
+            stripe.map.put(key, value);
+            if (onAdded != null) {
+                onAdded.run();
+            }
+            return true;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps a key to a value, only if the key is already present
+     * @param key The key
+     * @param value The value, must not be null
+     * @return True if the value was replaced
+     */
+    public boolean replace(int key, V value) {
+        return replace(key, value, null);
+    }
+
+    /**
+     * Maps a key to a value, only if the key is already present
+     * @param key The key
+     * @param value The value, must not be null
+     * @param onReplaced Run after the value is replaced, before the key is unlocked; may be null
+     * @return True if the value was replaced
+     */
+    public boolean replace(int key, V value, Runnable onReplaced) {
+        Stripe<V> stripe = stripeFor(key);
+        stripe.lock.writeLock().lock();
+        try {
+            if (!stripe.map.containsKey(key)) {
+                return false;
+            }
+            stripe.map.put(key, value);
+            if (onReplaced != null) {
+                onReplaced.run();
+            }
+            return true;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mapping for a key
+     * @param key The key
+     * @return The removed value, or null if the key was not present
+     */
+    public V remove(int key) {
+        return remove(key, null);
+    }
+
+    /**
+     * Removes the mapping for a key
+     * @param key The key
+     * @param onRemoved Run after a value is removed, before the key is unlocked; may be null
+     * @return The removed value, or null if the key was not present
+     */
+    public V remove(int key, Runnable onRemoved) {
+        Stripe<V> stripe = stripeFor(key);
+        stripe.lock.writeLock().lock();
+        try {
+            V removed = stripe.map.remove(key);
+            if (removed != null && onRemoved != null) {
+                onRemoved.run();
+            }
+            return removed;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps a batch of values under their keys, replacing any previous mappings. The batch is grouped by stripe, so
+     * each stripe is locked once however many of the values fall into it. Each mapping is atomic, but the batch as a
+     * whole is not.
+     * @param values The values, none of them null
+     * @param keyOf Gets the key of a value
+     * @param onPut Run for each value after it is stored, before its stripe is unlocked; may be null
+     */
+    public void putAll(List<? extends V> values, ToIntFunction<? super V> keyOf, Consumer<? super V> onPut) {
+        // counting sort of the batch by stripe
+        int[] keys = new int[values.size()];
+        int[] starts = new int[stripes.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyOf.applyAsInt(values.get(i));
+            starts[stripeIndex(keys[i]) + 1]++;
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] order = new int[keys.length];
+        int[] next = Arrays.copyOf(starts, stripes.length);
+        for (int i = 0; i < keys.length; i++) {
+            order[next[stripeIndex(keys[i])]++] = i;
+        }
+
+        for (int s = 0; s < stripes.length; s++) {
+            if (starts[s] == starts[s + 1]) {
+                continue;
+            }
+
+            Stripe<V> stripe = stripes[s];
+            stripe.lock.writeLock().lock();
+            try {
+                for (int i = starts[s]; i < starts[s + 1]; i++) {
+                    V value = values.get(order[i]);
+                    stripe.map.put(keys[order[i]], value);
+                    if (onPut != null) {
+                        onPut.accept(value);
+                    }
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Calls an action for every value in the map, one stripe at a time. The action runs while that stripe is
+     * read-locked, so it must not modify the map.
+     * @param action The action to run on each value
+     */
+    public void forEachValue(Consumer<? super V> action) {
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                stripe.map.forEachValue(action);
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Counts the mappings. Not atomic with respect to concurrent updates.
+     * @return The number of mappings
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.map.size();
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes every mapping. Not atomic with respect to concurrent updates.
+     */
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.writeLock().lock();
+            try {
+                stripe.map.clear();
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Stripe<V> stripeFor(int key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private static int stripeIndex(int key) {
+        // uses the high bits of the hash, so the stripe does not correlate with the slot inside the stripe
+        return (key * 0x9E3779B9) >>> (32 - STRIPE_BITS);
+    }
+
+    private static final class Stripe<V> {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final IntObjectMap<V> map = new IntObjectMap<>();
+    }
+}
@@ -0,0 +1,168 @@
+package edu.secourse.types;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Segmented array store for values keyed by small, dense, non-negative ids, such as ids handed out by a counter.
+ * An id maps directly to a slot, so reads, replacements and removals are a couple of array loads with no hashing
+ * or allocation. Removed slots are left as null tombstones, and a segment is released as soon as its last live
+ * slot is removed, so long runs of deleted ids do not keep memory alive.
+ * Reads never lock and are safe to run while another thread writes, but writes must be serialized by the caller.
+ *
+ * @param <V> The type of the stored values
+ */
+public class DenseIdStore<V> {
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile AtomicReferenceArray<V>[] segments;
+    private int[] liveCounts;
+    private volatile int size;
+
+    /**
+     * Creates an empty store.
+     */
+    @SuppressWarnings("unchecked")
+    public DenseIdStore() {
+        segments = (AtomicReferenceArray<V>[]) new AtomicReferenceArray<?>[4];
+        liveCounts = new int[4];
+    }
+
+    /**
+     * Gets the value stored under an id
+     * @param id The id
+     * @return The value, or null if the id is not in use
+     */
+    public V get(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        AtomicReferenceArray<V>[] segments = this.segments;
+        int s = id >>> SEGMENT_SHIFT;
+        if (s >= segments.length) {
+            return null;
+        }
+
+        AtomicReferenceArray<V> segment = segments[s];
+        return segment == null ? null : segment.get(id & SEGMENT_MASK);
+    }
+
+    /**
+     * Stores a value under an id, replacing any previous value
+     * @param id The id, must not be negative
+     * @param value The value, must not be null
+     * @return The previous value, or null if the id was not in use
+     */
+    public V put(int id, V value) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Id must not be negative: " + id);
+        }
+        if (value == null) {
+            throw new NullPointerException("DenseIdStore does not support null values");
+        }
+
+        AtomicReferenceArray<V>[] segments = this.segments;
+        int s = id >>> SEGMENT_SHIFT;
+        if (s >= segments.length) {
+            int length = segments.length;
+            while (length <= s) {
+                length <<= 1;
+            }
+            segments = Arrays.copyOf(segments, length);
+            liveCounts = Arrays.copyOf(liveCounts, length);
+            this.segments = segments;
+        }
+
+        AtomicReferenceArray<V> segment = segments[s];
+        if (segment == null) {
+            segment = new AtomicReferenceArray<>(SEGMENT_SIZE);
+            segments[s] = segment;
+            // republish the directory so readers see the new segment
+            this.segments = segments;
+        }
+
+        V previous = segment.getAndSet(id & SEGMENT_MASK, value);
+        if (previous == null) {
+            liveCounts[s]++;
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * Replaces the value stored under an id, only if the id is already in use
+     * @param id The id
+     * @param value The new value, must not be null
+     * @return True if the value was replaced
+     */
+    public boolean replace(int id, V value) {
+        if (value == null) {
+            throw new NullPointerException("DenseIdStore does not support null values");
+        }
+
+        if (get(id) == null) {
+            return false;
+        }
+
+        segments[id >>> SEGMENT_SHIFT].set(id & SEGMENT_MASK, value);
+        return true;
+    }
+
+    /**
+     * Removes the value stored under an id, releasing its segment if it was the last live value in it
+     * @param id The id
+     * @return The removed value, or null if the id was not in use
+     */
+    public V remove(int id) {
+        if (get(id) == null) {
+            return null;
+        }
+
+        AtomicReferenceArray<V>[] segments = this.segments;
+        int s = id >>> SEGMENT_SHIFT;
+        V previous = segments[s].getAndSet(id & SEGMENT_MASK, null);
+        size--;
+        if (--liveCounts[s] == 0) {
+            segments[s] = null;
+            this.segments = segments;
+        }
+        return previous;
+    }
+
+    /**
+     * Calls an action for every stored value, in ascending id order
+     * @param action The action to run on each value
+     */
+    public void forEach(Consumer<? super V> action) {
+        for (AtomicReferenceArray<V> segment : segments) {
+            if (segment == null) {
+                continue;
+            }
+            for (int i = 0; i < SEGMENT_SIZE; i++) {
+                V value = segment.get(i);
+                if (value != null) {
+                    action.accept(value);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every value and releases all segments
+     */
+    public void clear() {
+        AtomicReferenceArray<V>[] segments = this.segments;
+        Arrays.fill(segments, null);
+        Arrays.fill(liveCounts, 0);
+        size = 0;
+        this.segments = segments;
+    }
+}
@@ -0,0 +1,219 @@
+package edu.secourse.types;
+
+/**
+ * Balanced (AVL) tree of half-open time intervals [start, end), each tagged with an int id.
+ * Intervals are ordered by start and then id, and every node tracks the largest end in its subtree,
+ * so finding an interval that overlaps a query range takes O(log n) even when stored intervals overlap each other.
+ * This class is not thread-safe.
+ */
+public class IntervalTree {
+    /**
+     * Returned by findOverlap when no stored interval overlaps the query range
+     */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private Node root;
+    private int size;
+
+    /**
+     * Adds an interval
+     * @param start The start of the interval, inclusive
+     * @param end The end of the interval, exclusive
+     * @param id The id the interval is tagged with; start and id together must be unique
+     */
+    public void insert(long start, long end, int id) {
+        root = insert(root, start, end, id);
+        size++;
+    }
+
+    /**
+     * Removes an interval
+     * @param start The start the interval was inserted with
+     * @param id The id the interval was inserted with
+     * @return True if the interval was found and removed
+     */
+    public boolean remove(long start, int id) {
+        int before = size;
+        root = remove(root, start, id);
+        return size != before;
+    }
+
+    /**
+     * Finds a stored interval overlapping [start, end)
+     * @param start The start of the query range, inclusive
+     * @param end The end of the query range, exclusive
+     * @return The id of an overlapping interval, or NONE if there is no overlap
+     */
+    public int findOverlap(long start, long end) {
+        Node node = findOverlapNode(start, end);
+        return node == null ? NONE : node.id;
+    }
+
+    /**
+     * Finds the earliest time at or after a given time where an interval of the given length overlaps nothing
+     * @param from The earliest acceptable start
+     * @param length The length of the interval to place
+     * @return The earliest free start time
+     */
+    public long findFreeStart(long from, long length) {
+        long start = from;
+        Node node;
+        while ((node = findOverlapNode(start, start + length)) != null) {
+            start = node.end;
+        }
+        return start;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private Node findOverlapNode(long start, long end) {
+        Node node = root;
+        while (node != null) {
+            if (node.start < end && node.end > start) {
+                return node;
+            }
+
+            // if anything on the left ends after start, then either it overlaps or it starts at or after end,
+            // and so does everything on the right
+            if (node.left != null && node.left.maxEnd > start) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    private static int compare(long start, int id, Node node) {
+        int c = Long.compare(start, node.start);
+        return c != 0 ? c : Integer.compare(id, node.id);
+    }
+
+    private Node insert(Node node, long start, long end, int id) {
+        if (node == null) {
+            return new Node(start, end, id);
+        }
+
+        if (compare(start, id, node) < 0) {
+            node.left = insert(node.left, start, end, id);
+        } else {
+            node.right = insert(node.right, start, end, id);
+        }
+        return balance(node);
+    }
+
+    private Node remove(Node node, long start, int id) {
+        if (node == null) {
+            return null;
+        }
+
+        int c = compare(start, id, node);
+        if (c < 0) {
+            node.left = remove(node.left, start, id);
+        } else if (c > 0) {
+            node.right = remove(node.right, start, id);
+        } else {
+            size--;
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+
+            // replace with the smallest node of the right subtree
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = removeMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        long maxEnd = node.end;
+        if (node.left != null) {
+            maxEnd = Math.max(maxEnd, node.left.maxEnd);
+        }
+        if (node.right != null) {
+            maxEnd = Math.max(maxEnd, node.right.maxEnd);
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    private static Node balance(Node node) {
+        update(node);
+        int skew = height(node.left) - height(node.right);
+        if (skew > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (skew < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static final class Node {
+        private final long start;
+        private final long end;
+        private final int id;
+        private long maxEnd;
+        private int height;
+        private Node left;
+        private Node right;
+
+        private Node(long start, long end, int id) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.maxEnd = end;
+            this.height = 1;
+        }
+    }
+}
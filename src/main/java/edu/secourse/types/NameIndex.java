@@ -0,0 +1,359 @@
+package edu.secourse.types;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory search index over short texts, such as a user's name and username, keyed by an int id.
+ * Texts are split into words, ignoring case and accents. A query word matches an indexed word that equals it, starts
+ * with it, or starts with something within one or two edits of it. Prefixes are found in a sorted map of the words,
+ * and fuzzy candidates through an inverted index from trigrams to words, so a search never scans every word.
+ * An id is returned only if every word of the query matches, best matches first.
+ * This class is thread-safe: searches share a read lock and changes take a write lock.
+ */
+public class NameIndex {
+    // edits allowed for query words at least this long; shorter words must match exactly or as a prefix
+    private static final int ONE_EDIT_LENGTH = 4;
+    private static final int TWO_EDIT_LENGTH = 7;
+    private static final int MAX_EDITS = 2;
+
+    private final TreeMap<String, Posting> postings = new TreeMap<>();
+    private final HashMap<String, HashSet<String>> wordsByTrigram = new HashMap<>();
+    private final IntObjectMap<Entry> entries = new IntObjectMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Indexes an id under the words of some texts, replacing whatever it was indexed under before
+     * @param id The id
+     * @param texts The texts, any of which may be null
+     */
+    public void put(int id, String... texts) {
+        Entry entry = new Entry(words(texts));
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old != null) {
+                unlink(old);
+            }
+            for (int i = 0; i < entry.words.length; i++) {
+                entry.slots[i] = link(entry.words[i], id);
+            }
+            entries.put(id, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an id from the index
+     * @param id The id
+     * @return True if the id was indexed
+     */
+    public boolean remove(int id) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old == null) {
+                return false;
+            }
+            unlink(old);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the ids whose texts best match a query
+     * @param query One or more words, each matched exactly, as a prefix, or with a few typos
+     * @param limit The most ids to return
+     * @return The matching ids, best match first and then by id
+     */
+    public int[] search(String query, int limit) {
+        String[] queryWords = words(query);
+        if (queryWords.length == 0 || limit <= 0) {
+            return new int[0];
+        }
+
+        Map<Integer, Integer> scores = null;
+        lock.readLock().lock();
+        try {
+            for (String queryWord : queryWords) {
+                Map<Integer, Integer> wordScores = match(queryWord);
+                if (scores == null) {
+                    scores = wordScores;
+                } else {
+                    // an id must match every query word, so keep only ids both maps have
+                    Map<Integer, Integer> previous = scores;
+                    scores = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> entry : wordScores.entrySet()) {
+                        Integer score = previous.get(entry.getKey());
+                        if (score != null) {
+                            scores.put(entry.getKey(), score + entry.getValue());
+                        }
+                    }
+                }
+                if (scores.isEmpty()) {
+                    return new int[0];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // keep the best limit results in a min-heap of score and id packed so larger is better
+        PriorityQueue<Long> best = new PriorityQueue<>();
+        for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+            best.add(((long) entry.getValue() << 32) | (~entry.getKey() & 0xFFFFFFFFL));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        int[] ids = new int[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = ~(int) (long) best.poll();
+        }
+        return ids;
+    }
+
+    /**
+     * Scores every id with a word matching a query word. Must be called with the read lock held.
+     * @param queryWord
+     * @return Each matching id and the score of its best matching word
+     */
+    private Map<Integer, Integer> match(String queryWord) {
+        HashMap<Integer, Integer> scores = new HashMap<>();
+        for (Map.Entry<String, Posting> entry
+                : postings.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false).entrySet()) {
+            entry.getValue().score(score(0, entry.getKey().length() == queryWord.length()), scores);
+        }
+
+        int edits = queryWord.length() >= TWO_EDIT_LENGTH ? 2 : queryWord.length() >= ONE_EDIT_LENGTH ? 1 : 0;
+        if (edits == 0) {
+            return scores;
+        }
+
+        // a word starting within k edits of the query word shares at least this many of its trigrams
+        String[] trigrams = trigrams(queryWord);
+        int needed = trigrams.length - 3 * edits;
+        HashMap<String, Integer> shared = new HashMap<>();
+        for (String trigram : trigrams) {
+            HashSet<String> words = wordsByTrigram.get(trigram);
+            if (words != null) {
+                for (String word : words) {
+                    shared.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> candidate : shared.entrySet()) {
+            String word = candidate.getKey();
+            if (candidate.getValue() < needed || word.startsWith(queryWord)) {
+                continue;
+            }
+            long distances = prefixDistance(queryWord, word, edits);
+            int prefix = (int) (distances >>> 32);
+            if (prefix <= edits) {
+                postings.get(word).score(score(prefix, (int) distances == prefix), scores);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Scores a matching word: fewer edits are better, and a whole word beats a prefix with as many edits
+     * @param edits
+     * @param whole
+     * @return
+     */
+    private static int score(int edits, boolean whole) {
+        return (MAX_EDITS - edits) * 2 + (whole ? 2 : 1);
+    }
+
+    /**
+     * Computes how many edits turn a query word into the closest prefix of a word, and into the whole word
+     * @param query
+     * @param word
+     * @param limit Distances above this are not needed, so the search stops once every prefix is further
+     * @return The prefix distance in the high half and the whole word distance in the low half
+     */
+    private static long prefixDistance(String query, String word, int limit) {
+        int[] previous = new int[word.length() + 1];
+        int[] current = new int[word.length() + 1];
+        for (int j = 0; j <= word.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= query.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= word.length(); j++) {
+                int cost = query.charAt(i - 1) == word.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return ((long) (limit + 1) << 32) | (limit + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int prefix = Integer.MAX_VALUE;
+        for (int distance : previous) {
+            prefix = Math.min(prefix, distance);
+        }
+        return ((long) prefix << 32) | previous[word.length()];
+    }
+
+    /**
+     * Adds an id to a word's posting
+     * @param word
+     * @param id
+     * @return The id's slot in the posting
+     */
+    private int link(String word, int id) {
+        Posting posting = postings.get(word);
+        if (posting == null) {
+            posting = new Posting();
+            postings.put(word, posting);
+            for (String trigram : trigrams(word)) {
+                wordsByTrigram.computeIfAbsent(trigram, key -> new HashSet<>()).add(word);
+            }
+        }
+        return posting.add(id);
+    }
+
+    /**
+     * Removes an entry's id from the postings of all its words. Common words can have a posting per user, so each
+     * removal fills the freed slot with the posting's last id instead of searching or shifting.
+     * @param entry
+     */
+    private void unlink(Entry entry) {
+        for (int i = 0; i < entry.words.length; i++) {
+            String word = entry.words[i];
+            Posting posting = postings.get(word);
+            int slot = entry.slots[i];
+            if (posting.removeAt(slot)) {
+                Entry moved = entries.get(posting.ids[slot]);
+                moved.slots[moved.indexOf(word)] = slot;
+            } else if (posting.size == 0) {
+                // forget words nobody has any more, so renames do not grow the index
+                postings.remove(word);
+                for (String trigram : trigrams(word)) {
+                    HashSet<String> words = wordsByTrigram.get(trigram);
+                    if (words != null && words.remove(word) && words.isEmpty()) {
+                        wordsByTrigram.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the trigrams of a word, padded at the front so its first letters count the most
+     * @param word
+     * @return
+     */
+    private static String[] trigrams(String word) {
+        String padded = "  " + word;
+        String[] trigrams = new String[word.length()];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = padded.substring(i, i + 3);
+        }
+        return trigrams;
+    }
+
+    /**
+     * Splits texts into distinct lower-case words without accents
+     * @param texts
+     * @return
+     */
+    static String[] words(String... texts) {
+        List<String> words = new ArrayList<>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            String folded = Normalizer.normalize(text, Normalizer.Form.NFKD)
+                    .replaceAll("\\p{M}+", "")
+                    .toLowerCase(Locale.ROOT);
+            for (String word : folded.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty() && !words.contains(word)) {
+                    words.add(word);
+                }
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * The words an id is indexed under, and its slot in each word's posting
+     */
+    private static final class Entry {
+        private final String[] words;
+        private final int[] slots;
+
+        Entry(String[] words) {
+            this.words = words;
+            this.slots = new int[words.length];
+        }
+
+        int indexOf(String word) {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i].equals(word)) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Word is not indexed: " + word);
+        }
+    }
+
+    /**
+     * The ids indexed under one word, unordered
+     */
+    private static final class Posting {
+        private int[] ids = new int[2];
+        private int size;
+
+        int add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size] = id;
+            return size++;
+        }
+
+        /**
+         * Removes the id in a slot, moving the last id into it
+         * @param slot
+         * @return True if another id was moved into the slot
+         */
+        boolean removeAt(int slot) {
+            ids[slot] = ids[--size];
+            return slot < size;
+        }
+
+        void score(int score, Map<Integer, Integer> scores) {
+            for (int i = 0; i < size; i++) {
+                scores.merge(ids[i], score, Math::max);
+            }
+        }
+    }
+}
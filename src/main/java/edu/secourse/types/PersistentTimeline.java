@@ -0,0 +1,226 @@
+package edu.secourse.types;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Immutable sorted map from a time and an int id to a value, ordered by time and then id.
+ * Adding or removing a value returns a new timeline that shares all but O(log n) nodes with the old one, which is
+ * left unchanged, so a timeline can be read by any number of threads while a writer builds the next one.
+ * Stored as a treap whose node priorities are a hash of the key, so the shape does not depend on insertion order.
+ */
+public final class PersistentTimeline<V> {
+    private static final PersistentTimeline<?> EMPTY = new PersistentTimeline<>(null);
+
+    private final Node<V> root;
+
+    private PersistentTimeline(Node<V> root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the empty timeline
+     * @return A timeline holding nothing
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentTimeline<V> empty() {
+        return (PersistentTimeline<V>) EMPTY;
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Gets the value stored under a key
+     * @param time
+     * @param id
+     * @return The value, or null if there is none
+     */
+    public V get(long time, int id) {
+        Node<V> node = root;
+        while (node != null) {
+            int cmp = compare(time, id, node);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a timeline with a value stored under a key, replacing any value already there
+     * @param time
+     * @param id
+     * @param value
+     * @return The new timeline
+     */
+    public PersistentTimeline<V> with(long time, int id, V value) {
+        return new PersistentTimeline<>(insert(root, time, id, priority(time, id), value));
+    }
+
+    /**
+     * Returns a timeline without the value stored under a key
+     * @param time
+     * @param id
+     * @return The new timeline, or this one if the key is not stored
+     */
+    public PersistentTimeline<V> without(long time, int id) {
+        Node<V> removed = remove(root, time, id);
+        return removed == root ? this : new PersistentTimeline<>(removed);
+    }
+
+    /**
+     * Calls an action for every value, in order
+     * @param action
+     */
+    public void forEach(Consumer<? super V> action) {
+        forEachFrom(Long.MIN_VALUE, value -> {
+            action.accept(value);
+            return true;
+        });
+    }
+
+    /**
+     * Calls an action for every value with a time in [from, to), in order
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @param action
+     */
+    public void forEachBetween(long from, long to, Consumer<? super V> action) {
+        forEachBetween(root, from, to, action);
+    }
+
+    /**
+     * Calls an action for values with a time at or after a given time, in order, until it returns false
+     * @param from The earliest time to include
+     * @param action Returns false to stop
+     */
+    public void forEachFrom(long from, Predicate<? super V> action) {
+        forEachFrom(root, from, action);
+    }
+
+    private static <V> void forEachBetween(Node<V> node, long from, long to, Consumer<? super V> action) {
+        while (node != null) {
+            if (node.time >= from) {
+                forEachBetween(node.left, from, to, action);
+                if (node.time >= to) {
+                    return;
+                }
+                action.accept(node.value);
+            }
+            node = node.right;
+        }
+    }
+
+    private static <V> boolean forEachFrom(Node<V> node, long from, Predicate<? super V> action) {
+        while (node != null) {
+            if (node.time >= from) {
+                if (!forEachFrom(node.left, from, action) || !action.test(node.value)) {
+                    return false;
+                }
+            }
+            node = node.right;
+        }
+        return true;
+    }
+
+    private static <V> Node<V> insert(Node<V> node, long time, int id, int priority, V value) {
+        if (node == null) {
+            return new Node<>(time, id, priority, value, null, null);
+        }
+
+        int cmp = compare(time, id, node);
+        if (cmp == 0) {
+            return new Node<>(time, id, node.priority, value, node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node<V> left = insert(node.left, time, id, priority, value);
+            if (left.priority > node.priority) {
+                // rotate right so the higher priority node stays on top
+                return left.withChildren(left.left, node.withChildren(left.right, node.right));
+            }
+            return node.withChildren(left, node.right);
+        }
+        Node<V> right = insert(node.right, time, id, priority, value);
+        if (right.priority > node.priority) {
+            return right.withChildren(node.withChildren(node.left, right.left), right.right);
+        }
+        return node.withChildren(node.left, right);
+    }
+
+    private static <V> Node<V> remove(Node<V> node, long time, int id) {
+        if (node == null) {
+            return null;
+        }
+
+        int cmp = compare(time, id, node);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node<V> left = remove(node.left, time, id);
+            return left == node.left ? node : node.withChildren(left, node.right);
+        }
+        Node<V> right = remove(node.right, time, id);
+        return right == node.right ? node : node.withChildren(node.left, right);
+    }
+
+    /**
+     * Joins two treaps where every key in the first sorts before every key in the second
+     */
+    private static <V> Node<V> merge(Node<V> a, Node<V> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        }
+        return b.withChildren(merge(a, b.left), b.right);
+    }
+
+    private static int compare(long time, int id, Node<?> node) {
+        int cmp = Long.compare(time, node.time);
+        return cmp != 0 ? cmp : Integer.compare(id, node.id);
+    }
+
+    private static int priority(long time, int id) {
+        long h = time * 0x9E3779B97F4A7C15L + id;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static final class Node<V> {
+        private final long time;
+        private final int id;
+        private final int priority;
+        private final V value;
+        private final Node<V> left;
+        private final Node<V> right;
+        private final int size;
+
+        private Node(long time, int id, int priority, V value, Node<V> left, Node<V> right) {
+            this.time = time;
+            this.id = id;
+            this.priority = priority;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+        }
+
+        private Node<V> withChildren(Node<V> left, Node<V> right) {
+            return new Node<>(time, id, priority, value, left, right);
+        }
+    }
+}
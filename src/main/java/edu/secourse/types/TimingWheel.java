@@ -0,0 +1,230 @@
+package edu.secourse.types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: values scheduled for a future tick, found again when time advances to that tick.
+ * Each level is a ring of 64 slots, and a slot on level k covers 64^k ticks, so a few levels reach centuries ahead.
+ * A value goes on the lowest level whose range holds its tick, and moves down a level each time the wheel reaches
+ * its slot, at most once per level. Slots are doubly linked lists, so scheduling and cancelling are constant time
+ * however many values are waiting, and advancing one tick costs only the values that fall due or move down.
+ * This class is not thread-safe.
+ *
+ * @param <V> The type of the scheduled values
+ */
+public class TimingWheel<V> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    // 64^10 ticks is far beyond any deadline worth scheduling; later ones wait in the top level's slots
+    private static final int LEVELS = 10;
+
+    private final Timer<V>[][] levels;
+    // timers scheduled at or before the current tick, fired by the next advance
+    private final Timer<V> overdue = Timer.head();
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel
+     * @param currentTick The tick the wheel starts at; values must be scheduled relative to it
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+        this.levels = (Timer<V>[][]) new Timer<?>[LEVELS][SLOTS];
+        for (Timer<V>[] slots : levels) {
+            for (int i = 0; i < SLOTS; i++) {
+                slots[i] = Timer.head();
+            }
+        }
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Schedules a value
+     * @param tick The tick the value falls due at; a tick already reached falls due at the next advance
+     * @param value The value
+     * @return A handle for cancelling the value
+     */
+    public Timer<V> schedule(long tick, V value) {
+        Timer<V> timer = new Timer<>(tick, value);
+        if (tick <= currentTick) {
+            overdue.append(timer);
+        } else {
+            insert(timer);
+        }
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a scheduled value
+     * @param timer The handle schedule returned
+     * @return True if the value was waiting, false if it had already fallen due or been cancelled
+     */
+    public boolean cancel(Timer<V> timer) {
+        if (!timer.isScheduled()) {
+            return false;
+        }
+        timer.unlink();
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to a tick, collecting every value that falls due on the way
+     * @param tick The tick to advance to; an earlier tick only collects overdue values
+     * @return The values that fell due, in the order of their ticks
+     */
+    public List<V> advance(long tick) {
+        List<V> due = new ArrayList<>();
+        drain(overdue, due);
+        while (currentTick < tick) {
+            if (size == 0) {
+                // nothing can fall due, so there is no need to visit the ticks in between
+                currentTick = tick;
+                break;
+            }
+            currentTick++;
+
+            // move timers down from every level whose slot starts at this tick, highest first, so a timer can move
+            // down several levels at once
+            for (int level = highestLevelStartingAt(currentTick); level > 0; level--) {
+                Timer<V> slot = levels[level][slotOf(currentTick, level)];
+                Timer<V> timer = slot.detach();
+                while (timer != null) {
+                    Timer<V> next = timer.next;
+                    timer.next = null;
+                    timer.prev = null;
+                    if (timer.tick <= currentTick) {
+                        overdue.append(timer);
+                    } else {
+                        insert(timer);
+                    }
+                    timer = next;
+                }
+            }
+            drain(overdue, due);
+            drain(levels[0][slotOf(currentTick, 0)], due);
+        }
+        return due;
+    }
+
+    private void insert(Timer<V> timer) {
+        long delta = timer.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        levels[level][slotOf(timer.tick, level)].append(timer);
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+    }
+
+    /**
+     * Finds the highest level whose slots turn over at a tick, which is every level below the tick's lowest nonzero
+     * slot digit
+     */
+    private static int highestLevelStartingAt(long tick) {
+        int level = Long.numberOfTrailingZeros(tick) / SLOT_BITS;
+        return Math.min(level, LEVELS - 1);
+    }
+
+    private void drain(Timer<V> slot, List<V> due) {
+        Timer<V> timer = slot.detach();
+        while (timer != null) {
+            Timer<V> next = timer.next;
+            timer.next = null;
+            timer.prev = null;
+            due.add(timer.value);
+            size--;
+            timer = next;
+        }
+    }
+
+    /**
+     * A value waiting in the wheel. The head of each slot is a timer too, holding no value, and each slot is a
+     * circular list through its head, so a timer can unlink itself without knowing which slot it is in.
+     *
+     * @param <V> The type of the value
+     */
+    public static final class Timer<V> {
+        private final long tick;
+        private final V value;
+        private Timer<V> prev;
+        private Timer<V> next;
+
+        private Timer(long tick, V value) {
+            this.tick = tick;
+            this.value = value;
+        }
+
+        private static <V> Timer<V> head() {
+            Timer<V> head = new Timer<>(0, null);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+
+        public long getTick() {
+            return tick;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * Checks whether the value is still waiting
+         * @return False once it has fallen due or been cancelled
+         */
+        public boolean isScheduled() {
+            return prev != null;
+        }
+
+        private void append(Timer<V> timer) {
+            timer.prev = prev;
+            timer.next = this;
+            prev.next = timer;
+            prev = timer;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+
+        /**
+         * Empties a slot
+         * @return The first timer of the slot, linked to the rest through next and ending with null, or null if the
+         *         slot was empty
+         */
+        private Timer<V> detach() {
+            if (next == this) {
+                return null;
+            }
+            Timer<V> first = next;
+            prev.next = null;
+            prev = this;
+            next = this;
+            return first;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.secourse.types;
+
+import edu.secourse.metrics.Metrics;
+import edu.secourse.metrics.Operation;
+
+/**
+ * Validates user account fields with hand-written character scans instead of regular expressions.
+ * The rules match the patterns the controllers used before: "[a-zA-Z ]+" for names, "\w+@\w+\.\w+" for email
+ * addresses, and a letter and a digit for passwords. Validation never allocates; only building an error message does.
+ */
+public final class UserValidator {
+    private static final Operation VALIDATE = Metrics.operation("UserValidator.validate");
+    private static final Operation VALIDATE_USERNAME = Metrics.operation("UserValidator.isValidUsername");
+    private static final Operation VALIDATE_PASSWORD = Metrics.operation("UserValidator.isValidPassword");
+    private static final Operation VALIDATE_NAME = Metrics.operation("UserValidator.isValidName");
+    private static final Operation VALIDATE_EMAIL = Metrics.operation("UserValidator.isValidEmail");
+
+    public static final int USERNAME = 1;
+    public static final int PASSWORD = 1 << 1;
+    public static final int NAME = 1 << 2;
+    public static final int EMAIL = 1 << 3;
+
+    private static final int MAX_USERNAME_LENGTH = 64;
+    private static final int MIN_PASSWORD_LENGTH = 8;
+    private static final int MAX_PASSWORD_LENGTH = 128;
+
+    private UserValidator() {
+    }
+
+    /**
+     * Validates every field of a new user in one pass
+     * @param username
+     * @param password
+     * @param name
+     * @param email
+     * @return A bit set of the invalid fields (USERNAME, PASSWORD, NAME, EMAIL), or 0 if every field is valid
+     */
+    public static int validate(String username, String password, String name, String email) {
+        long started = VALIDATE.start();
+        try {
+            int errors = 0;
+            if (!isValidUsername(username)) {
+                errors |= USERNAME;
+            }
+            if (!isValidPassword(password)) {
+                errors |= PASSWORD;
+            }
+            if (!isValidName(name)) {
+                errors |= NAME;
+            }
+            if (!isValidEmail(email)) {
+                errors |= EMAIL;
+            }
+            return errors;
+        } finally {
+            VALIDATE.stop(started);
+        }
+    }
+
+    /**
+     * Builds the error message for a set of invalid fields
+     * @param errors A bit set of invalid fields, as returned by validate
+     * @return One sentence per invalid field, separated by spaces
+     */
+    public static String describe(int errors) {
+        StringBuilder message = new StringBuilder();
+        if ((errors & USERNAME) != 0) {
+            message.append("Username is formatted incorrectly. ");
+        }
+        if ((errors & PASSWORD) != 0) {
+            message.append("Password is formatted incorrectly. ");
+        }
+        if ((errors & NAME) != 0) {
+            message.append("Name is formatted incorrectly. ");
+        }
+        if ((errors & EMAIL) != 0) {
+            message.append("Email address is formatted incorrectly. ");
+        }
+        return message.toString().trim();
+    }
+
+    /**
+     * Username: not empty, max 64 chars
+     */
+    public static boolean isValidUsername(String username) {
+        long started = VALIDATE_USERNAME.start();
+        try {
+            return username != null && !username.isEmpty() && username.length() <= MAX_USERNAME_LENGTH;
+        } finally {
+            VALIDATE_USERNAME.stop(started);
+        }
+    }
+
+    /**
+     * Password: min 8 chars, max 128 chars, at least 1 letter and 1 number, and no line breaks
+     */
+    public static boolean isValidPassword(String password) {
+        long started = VALIDATE_PASSWORD.start();
+        try {
+            if (password == null || password.length() < MIN_PASSWORD_LENGTH || password.length() > MAX_PASSWORD_LENGTH) {
+                return false;
+            }
+
+            boolean letter = false;
+            boolean digit = false;
+            for (int i = 0; i < password.length(); i++) {
+                char c = password.charAt(i);
+                if (isLineTerminator(c)) {
+                    return false;
+                }
+                letter |= isAsciiLetter(c);
+                digit |= c >= '0' && c <= '9';
+            }
+            return letter && digit;
+        } finally {
+            VALIDATE_PASSWORD.stop(started);
+        }
+    }
+
+    /**
+     * Name: starts with a capital, only consists of letters and spaces
+     */
+    public static boolean isValidName(String name) {
+        long started = VALIDATE_NAME.start();
+        try {
+            if (name == null || name.isEmpty() || !Character.isUpperCase(name.charAt(0))) {
+                return false;
+            }
+
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!isAsciiLetter(c) && c != ' ') {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            VALIDATE_NAME.stop(started);
+        }
+    }
+
+    /**
+     * Email: word characters, '@', word characters, '.', word characters
+     */
+    public static boolean isValidEmail(String email) {
+        long started = VALIDATE_EMAIL.start();
+        try {
+            if (email == null) {
+                return false;
+            }
+
+            int i = scanWord(email, 0);
+            if (i == 0 || i == email.length() || email.charAt(i) != '@') {
+                return false;
+            }
+
+            int domainStart = i + 1;
+            i = scanWord(email, domainStart);
+            if (i == domainStart || i == email.length() || email.charAt(i) != '.') {
+                return false;
+            }
+
+            int suffixStart = i + 1;
+            i = scanWord(email, suffixStart);
+            return i != suffixStart && i == email.length();
+        } finally {
+            VALIDATE_EMAIL.stop(started);
+        }
+    }
+
+    /**
+     * Finds the end of a run of word characters ([a-zA-Z_0-9])
+     * @param s The string to scan
+     * @param from The index to start at
+     * @return The index of the first non-word character at or after from, or the length of s
+     */
+    private static int scanWord(String s, int from) {
+        int i = from;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '_') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Characters that '.' does not match in a regular expression
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -1,5 +1,6 @@
 package edu.secourse.controllers;
 
+import edu.secourse.exceptions.AppointmentConflictException;
 import edu.secourse.exceptions.AppointmentDoesNotExistException;
 import edu.secourse.exceptions.InvalidIdException;
 import edu.secourse.models.Appointment;
@@ -11,6 +12,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.Date;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -101,8 +103,7 @@ class AppointmentControllerTest {
     void testCancelAppointmentAlreadyCancelled() {
         Appointment appt = controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), new Date());
         // Manually cancel to hit the exception branch
-        appt.setStatus(Appointment.Status.CANCELLED);
-        appointmentService.updateAppointment(appt);
+        appointmentService.updateAppointment(appt.withStatus(Appointment.Status.CANCELLED));
 
         AppointmentDoesNotExistException ex = assertThrows(AppointmentDoesNotExistException.class,
                 () -> controller.cancelAppointment(appt.getAppointmentId()));
@@ -212,4 +213,70 @@ class AppointmentControllerTest {
         assertNotEquals(appt1.getAppointmentId(), appt2.getAppointmentId());
         assertNotEquals(appt1.getStartDateTime(), appt2.getStartDateTime());
     }
+
+    // ---------- PATIENT / DOCTOR QUERIES ----------
+
+    /**
+     * Tests that the per-patient and per-doctor queries follow creates, cancels and deletes.
+     */
+    @Test
+    void testPatientAndDoctorAppointments() {
+        Patient otherPatient = (Patient) userService.createUser("otherPatient", "pass", "Other Patient", "other@example.com", "patient");
+        Date now = new Date();
+        Appointment appt1 = controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), now);
+        Appointment appt2 = controller.createAppointment(otherPatient.getAccNum(), doctor.getAccNum(), new Date(now.getTime() + 3600_000));
+        Appointment appt3 = controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), new Date(now.getTime() + 7200_000));
+
+        controller.cancelAppointment(appt3.getAppointmentId());
+        controller.deleteAppointment(appt2.getAppointmentId());
+        // cancelling stored a new version of appt3
+        Appointment cancelled = appointmentService.getAppointment(appt3.getAppointmentId());
+
+        assertEquals(List.of(appt1, cancelled), controller.getPatientAppointments(patient.getAccNum()));
+        assertTrue(controller.getPatientAppointments(otherPatient.getAccNum()).isEmpty());
+        assertEquals(List.of(appt1, cancelled), controller.getDoctorAppointments(doctor.getAccNum()));
+    }
+
+    /**
+     * Tests that the per-patient and per-doctor queries reject users with the wrong role.
+     */
+    @Test
+    void testPatientAndDoctorAppointmentsInvalidId() {
+        assertThrows(InvalidIdException.class, () -> controller.getPatientAppointments(doctor.getAccNum()));
+        assertThrows(InvalidIdException.class, () -> controller.getDoctorAppointments(patient.getAccNum()));
+    }
+
+    // ---------- DOUBLE BOOKING ----------
+
+    /**
+     * Tests that an appointment overlapping one of the doctor's active appointments is rejected,
+     * on both create and reschedule, while cancelled appointments free up their time.
+     */
+    @Test
+    void testDoubleBookingRejected() {
+        Date nine = new Date(1_800_000_000_000L);
+        Date nineFifteen = new Date(nine.getTime() + 15 * 60_000);
+        Date ten = new Date(nine.getTime() + 60 * 60_000);
+
+        Appointment appt1 = controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), nine, 30);
+        Appointment appt2 = controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), ten, 30);
+
+        // Overlapping create and reschedule are rejected
+        assertThrows(AppointmentConflictException.class,
+                () -> controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), nineFifteen, 30));
+        assertThrows(AppointmentConflictException.class,
+                () -> controller.rescheduleAppointment(appt2.getAppointmentId(), nineFifteen));
+        assertEquals(ten, appt2.getStartDateTime());
+
+        // Rescheduling within its own slot is allowed
+        assertDoesNotThrow(() -> controller.rescheduleAppointment(appt1.getAppointmentId(), nineFifteen));
+
+        // The next free 30 minute slot after 9:00 starts once both appointments are over
+        assertEquals(new Date(ten.getTime() + 30 * 60_000), controller.findNextFreeSlot(doctor.getAccNum(), nine, 30));
+
+        // Cancelling frees the time
+        controller.cancelAppointment(appt1.getAppointmentId());
+        assertEquals(nine, controller.findNextFreeSlot(doctor.getAccNum(), nine, 30));
+        assertDoesNotThrow(() -> controller.createAppointment(patient.getAccNum(), doctor.getAccNum(), nine, 30));
+    }
 }
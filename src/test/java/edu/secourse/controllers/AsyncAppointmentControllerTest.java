@@ -0,0 +1,57 @@
+package edu.secourse.controllers;
+
+import edu.secourse.exceptions.AppointmentConflictException;
+import edu.secourse.models.Appointment;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.UserService;
+import edu.secourse.types.BoundedVirtualExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncAppointmentControllerTest {
+    UserService uService = new UserService();
+    AppointmentController aController = new AppointmentController(new AppointmentService(), uService);
+    AsyncAppointmentController asyncController =
+            new AsyncAppointmentController(aController, new BoundedVirtualExecutor("test", 16));
+
+    @Test
+    void concurrentBookingsForOneSlot() {
+        User patient = uService.createUser("patient", "password1", "Pat", "pat@mail.com", "Patient");
+        User doctor = uService.createUser("doctor", "password1", "Doc", "doc@mail.com", "Doctor");
+        Date start = new Date(1_700_000_000_000L);
+
+        List<CompletableFuture<Appointment>> bookings = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bookings.add(asyncController.createAppointment(patient.getAccNum(), doctor.getAccNum(), start));
+        }
+
+        long booked = 0;
+        long conflicts = 0;
+        for (CompletableFuture<Appointment> booking : bookings) {
+            try {
+                booking.join();
+                booked++;
+            } catch (CompletionException ex) {
+                assertInstanceOf(AppointmentConflictException.class, ex.getCause());
+                conflicts++;
+            }
+        }
+
+        long bookedCount = booked;
+        long conflictCount = conflicts;
+        assertAll(
+                // Test that exactly one of the racing bookings wins the slot
+                () -> assertEquals(1, bookedCount),
+                () -> assertEquals(99, conflictCount),
+                () -> assertEquals(1, asyncController.getDoctorAppointments(doctor.getAccNum()).join().size())
+        );
+    }
+}
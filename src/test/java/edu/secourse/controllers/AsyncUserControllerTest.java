@@ -0,0 +1,81 @@
+package edu.secourse.controllers;
+
+import edu.secourse.exceptions.InvalidIdException;
+import edu.secourse.models.User;
+import edu.secourse.services.UserService;
+import edu.secourse.types.BoundedVirtualExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncUserControllerTest {
+    UserController uController = new UserController(new UserService());
+    AsyncUserController asyncController = new AsyncUserController(uController, new BoundedVirtualExecutor("test", 16));
+
+    @Test
+    void operationsComplete() {
+        List<CompletableFuture<User>> created = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            created.add(asyncController.createUser("user" + i, "password1", "Name", "user" + i + "@mail.com", "Patient"));
+        }
+        User user = created.get(500).join();
+        asyncController.updateName(user.getAccNum(), "New Name").join();
+
+        assertAll(
+                // Test that every user was created
+                () -> assertEquals(1000, created.stream().map(CompletableFuture::join).distinct().count()),
+                // Test that later operations see the earlier ones
+                () -> assertEquals("New Name", asyncController.getUser(user.getAccNum()).join().getName()),
+                () -> assertEquals("user500", uController.getUser(user.getAccNum()).getUsername())
+        );
+    }
+
+    @Test
+    void searchUsers() {
+        User alice = asyncController.createUser("alice", "password1", "Alice Smith", "alice@mail.com", "Patient").join();
+        asyncController.createUser("bob", "password1", "Bob Jones", "bob@mail.com", "Doctor").join();
+        CompletionException ex = assertThrows(CompletionException.class,
+                () -> asyncController.searchUsers(" ", 10).join());
+
+        assertAll(
+                // Test that a misspelled name finds the user
+                () -> assertEquals(List.of(alice.getAccNum()),
+                        asyncController.searchUsers("smitt", 10).join().stream().map(User::getAccNum).toList()),
+                // Test that the controller rejects an empty query
+                () -> assertInstanceOf(RuntimeException.class, ex.getCause())
+        );
+    }
+
+    @Test
+    void getUsersByRole() {
+        User bob = asyncController.createUser("bob", "password1", "Bob Jones", "bob@mail.com", "Doctor").join();
+        asyncController.createUser("alice", "password1", "Alice Smith", "alice@mail.com", "Patient").join();
+
+        assertAll(
+                // Test that only users with the role are returned
+                () -> assertEquals(List.of(bob.getAccNum()),
+                        asyncController.getUsersByRole("doctor").join().stream().map(User::getAccNum).toList()),
+                () -> assertTrue(asyncController.getUsersByRole("admin").join().isEmpty()),
+                // Test that an unknown role completes exceptionally
+                () -> assertThrows(CompletionException.class, () -> asyncController.getUsersByRole("nurse").join())
+        );
+    }
+
+    @Test
+    void failuresCompleteExceptionally() {
+        CompletionException ex = assertThrows(CompletionException.class, () -> asyncController.getUser(-1).join());
+        CompletableFuture<Void> removed = asyncController.removeUser(-1);
+
+        assertAll(
+                // Test that the controller's exception is passed through
+                () -> assertInstanceOf(InvalidIdException.class, ex.getCause()),
+                () -> assertThrows(CompletionException.class, removed::join),
+                () -> assertTrue(removed.isCompletedExceptionally())
+        );
+    }
+}
@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.ArrayList;
 
+import edu.secourse.exceptions.DuplicateUserException;
 import edu.secourse.models.*;
 import edu.secourse.services.UserService;
 
@@ -84,6 +85,10 @@ class UserControllerTest {
                 // Tests correct functionality
                 () -> assertDoesNotThrow(() -> {uController.updatePassword(users.get(0).getAccNum(), "amazingPaSSword5278");}),
 
+                // Tests that the new password is the one that works
+                () -> assertTrue(uController.verifyPassword(usernames[0], "amazingPaSSword5278")),
+                () -> assertFalse(uController.verifyPassword(usernames[0], passwords[0])),
+
                 // Tests for a password that does not have numbers
                 () -> assertThrows(Exception.class, () -> {uController.updatePassword(users.get(1).getAccNum(), "badpassword");}),
 
@@ -189,6 +194,43 @@ class UserControllerTest {
         );
     }
 
+    @Test
+    void duplicateUsernameAndEmail() {
+        populateUsers();
+        User user = users.get(0);
+
+        assertAll(
+                // Tests that a taken username is refused and the user keeps theirs
+                () -> assertThrows(DuplicateUserException.class, () -> {uController.updateUsername(user.getAccNum(), "maurice");}),
+                () -> assertEquals("JohnJimbo", uController.getUser(user.getAccNum()).getUsername()),
+
+                // Tests that a taken email address is refused and the user keeps theirs
+                () -> assertThrows(DuplicateUserException.class, () -> {uController.updateEmailAddress(user.getAccNum(), "ATECH@company.com");}),
+                () -> assertEquals("johnman@company.com", uController.getUser(user.getAccNum()).getEmail()),
+
+                // Tests that a user can change the case of their own username
+                () -> assertDoesNotThrow(() -> {uController.updateUsername(user.getAccNum(), "johnjimbo");}),
+
+                // Tests that a new user cannot reuse a taken username
+                () -> assertThrows(DuplicateUserException.class, () -> {uController.createUser("Smafty", "tester7854", "John Doe", "new@testers.com", "Doctor");})
+        );
+    }
+
+    @Test
+    void getUsersByRole() {
+        populateUsers();
+
+        assertAll(
+                // Tests that each role lists only its own users
+                () -> assertEquals(3, uController.getUsersByRole("Doctor").size()),
+                () -> assertEquals(3, uController.getUsersByRole("patient").size()),
+                () -> assertTrue(uController.getUsersByRole("admin").stream().allMatch(user -> user instanceof Admin)),
+
+                // Tests for a role that does not exist
+                () -> assertThrows(Exception.class, () -> {uController.getUsersByRole("nurse");})
+        );
+    }
+
     private void populateUsers(){
         // Populate uController with users and add them to User ArrayList
         for(int i = 0; i < usernames.length; i++){
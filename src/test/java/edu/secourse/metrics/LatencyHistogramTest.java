@@ -0,0 +1,47 @@
+package edu.secourse.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    @Test
+    void bucketsHoldTheirValues() {
+        Random random = new Random(427);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong(1L << (1 + random.nextInt(39)));
+            long top = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+            // Test that every value is at most its bucket's top, and the top is within the stated error
+            assertTrue(top >= value, "value " + value + " top " + top);
+            assertTrue(top - value <= value / 16, "value " + value + " top " + top);
+        }
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        assertAll(
+                () -> assertEquals(100_000, histogram.getCount()),
+                () -> assertEquals(100_000, histogram.getMax()),
+                () -> assertEquals(50_000.5, histogram.getMean(), 1e-6),
+                // Test that percentiles land within one bucket of the exact answer
+                () -> assertEquals(50_000, histogram.getPercentile(50), 50_000 / 16.0),
+                () -> assertEquals(99_000, histogram.getPercentile(99), 99_000 / 16.0),
+                () -> assertEquals(100_000, histogram.getPercentile(100))
+        );
+
+        histogram.reset();
+        // Test that reset forgets everything
+        assertAll(
+                () -> assertEquals(0, histogram.getCount()),
+                () -> assertEquals(0, histogram.getPercentile(99)),
+                () -> assertEquals(0, histogram.getMean())
+        );
+    }
+}
@@ -0,0 +1,64 @@
+package edu.secourse.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+    @AfterEach
+    void turnOff() {
+        Metrics.setEnabled(false);
+    }
+
+    @Test
+    void recordsOnlyWhileEnabled() {
+        Operation operation = Metrics.operation("MetricsTest.recordsOnlyWhileEnabled");
+        Metrics.setEnabled(false);
+        operation.stop(operation.start());
+
+        // Test that nothing is recorded, or even allocated, while metrics are off
+        assertNull(operation.getLatency());
+
+        Metrics.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            operation.stop(operation.start());
+        }
+        Metrics.gauge("MetricsTest.gauge", () -> 42);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Metrics.report(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        String report = bytes.toString(StandardCharsets.UTF_8);
+        assertAll(
+                // Test that the same name gives the same operation
+                () -> assertSame(operation, Metrics.operation("MetricsTest.recordsOnlyWhileEnabled")),
+                () -> assertEquals(3, operation.getLatency().getCount()),
+                // Test that the report lists the operation and the gauge
+                () -> assertTrue(report.contains("MetricsTest.recordsOnlyWhileEnabled")),
+                () -> assertTrue(report.matches("(?s).*MetricsTest\\.gauge\\s+42.*"))
+        );
+    }
+
+    @Test
+    void reporterWritesTheFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("metrics.txt");
+        Metrics.setEnabled(true);
+        Operation operation = Metrics.operation("MetricsTest.reporterWritesTheFile");
+        operation.stop(operation.start());
+
+        MetricsReporter reporter = MetricsReporter.start(file, 1, TimeUnit.HOURS);
+        reporter.close();
+
+        // Test that closing writes a final dump
+        String written = Files.readString(file);
+        assertTrue(written.contains("MetricsTest.reporterWritesTheFile"));
+    }
+}
@@ -0,0 +1,147 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkTransferTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void csvImportValidatesRows() throws IOException {
+        Path file = dir.resolve("users.csv");
+        Files.writeString(file, String.join("\n",
+                "id,role,username,password,name,email",
+                ",patient,pat,password1,Pat,pat@mail.com",
+                "42,doctor,\"doc, md\",\"pass\"\"word1\",Doc,doc@mail.com",
+                ",patient,bad,short,lower,not-an-email",
+                ",nurse,nurse,password1,Nurse,nurse@mail.com",
+                ",admin,corrupt,pbkdf2-sha256$1$AAAA$AAAA1,Corrupt,corrupt@mail.com",
+                ""));
+
+        UserService userService = new UserService();
+        BulkTransfer.Result result = BulkTransfer.importUsers(file, userService);
+
+        User doctor = userService.getUser(42);
+        assertAll(
+                // Test that valid rows are imported and invalid ones reported
+                () -> assertEquals(2, result.getImported()),
+                () -> assertEquals(3, result.getRejected()),
+                () -> assertTrue(result.getErrors().get(0).startsWith("Row 3: Password is formatted incorrectly.")),
+                () -> assertEquals("Row 4: Invalid role for user: nurse", result.getErrors().get(1)),
+                // Test that a value that only looks like a hash is not stored as one
+                () -> assertEquals("Row 5: Password is a corrupt hash.", result.getErrors().get(2)),
+                () -> assertNull(userService.findByUsername("corrupt")),
+                // Test that quoted fields and explicit ids are kept
+                () -> assertInstanceOf(Doctor.class, doctor),
+                () -> assertEquals("doc, md", doctor.getUsername()),
+                () -> assertTrue(userService.verifyPassword("doc, md", "pass\"word1"))
+        );
+    }
+
+    @Test
+    void csvImportRejectsDuplicates() throws IOException {
+        Path file = dir.resolve("users.csv");
+        Files.writeString(file, String.join("\n",
+                "id,role,username,password,name,email",
+                ",patient,pat,password1,Pat,pat@mail.com",
+                ",patient,PAT,password1,Pat,other@mail.com",
+                ",patient,other,password1,Pat,Pat@Mail.com",
+                ",doctor,taken,password1,Doc,doc@mail.com",
+                ""));
+
+        UserService userService = new UserService();
+        userService.createUser("taken", "password1", "Taken", "taken@mail.com", "patient");
+        BulkTransfer.Result result = BulkTransfer.importUsers(file, userService);
+
+        assertAll(
+                // Test that rows reusing a username or email address are rejected, in row order
+                () -> assertEquals(1, result.getImported()),
+                () -> assertEquals(3, result.getRejected()),
+                () -> assertEquals("Row 2: Username or email address is already taken.", result.getErrors().get(0)),
+                () -> assertEquals("Row 4: Username or email address is already taken.", result.getErrors().get(2)),
+                // Test that the user already stored was left alone
+                () -> assertEquals("taken@mail.com", userService.findByUsername("taken").getEmail())
+        );
+    }
+
+    @Test
+    void exportImportRoundTrip() throws IOException {
+        UserService userService = new UserService();
+        AppointmentService appointmentService = new AppointmentService();
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+        for (int i = 0; i < 10_000; i++) {
+            Patient patient = (Patient) userService.createUser(
+                    "user" + i, "pass,word" + i, "Name", "user" + i + "@mail.com", "patient");
+            appointmentService.createAppointment(patient, doctor, i % 2 == 0 ? new Date(i * 60_000L) : null, 15,
+                    Appointment.Status.ACTIVE);
+        }
+
+        for (String extension : new String[] {".csv", ".bin"}) {
+            Path users = dir.resolve("users" + extension);
+            Path appointments = dir.resolve("appointments" + extension);
+            long exportedUsers = BulkTransfer.exportUsers(userService, users);
+            long exportedAppointments = BulkTransfer.exportAppointments(appointmentService, appointments);
+
+            UserService importedUsers = new UserService();
+            AppointmentService importedAppointments = new AppointmentService();
+            BulkTransfer.Result userResult = BulkTransfer.importUsers(users, importedUsers);
+            BulkTransfer.Result appointmentResult = BulkTransfer.importAppointments(
+                    appointments, importedAppointments, importedUsers);
+
+            Appointment original = appointmentService.getAppointment(1234);
+            Appointment copy = importedAppointments.getAppointment(1234);
+            assertAll(
+                    // Test that every row is exported and imported again
+                    () -> assertEquals(10_001, exportedUsers),
+                    () -> assertEquals(10_000, exportedAppointments),
+                    () -> assertEquals(10_001, userResult.getImported()),
+                    () -> assertEquals(10_000, appointmentResult.getImported()),
+                    // Test that the fields and ids survive
+                    () -> assertEquals(userService.getUser(doctor.getAccNum()).getUsername(),
+                            importedUsers.getUser(doctor.getAccNum()).getUsername()),
+                    () -> assertEquals(original.getPatient().getPassword(), copy.getPatient().getPassword()),
+                    () -> assertEquals(original.getStartDateTime(), copy.getStartDateTime()),
+                    () -> assertNull(importedAppointments.getAppointment(1235).getStartDateTime()),
+                    () -> assertEquals(15, copy.getDurationMinutes())
+            );
+        }
+    }
+
+    @Test
+    void appointmentImportRejectsUnknownUsers() throws IOException {
+        UserService userService = new UserService();
+        Patient patient = (Patient) userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+
+        Path file = dir.resolve("appointments.csv");
+        Files.writeString(file, String.join("\n",
+                "id,patientId,doctorId,start,durationMinutes,status",
+                String.format(",%d,%d,2025-01-01T09:00:00Z,30,ACTIVE", patient.getAccNum(), doctor.getAccNum()),
+                String.format(",%d,%d,2025-01-01T10:00:00Z,30,ACTIVE", doctor.getAccNum(), doctor.getAccNum()),
+                String.format(",%d,%d,yesterday,30,ACTIVE", patient.getAccNum(), doctor.getAccNum())));
+
+        AppointmentService appointmentService = new AppointmentService();
+        BulkTransfer.Result result = BulkTransfer.importAppointments(file, appointmentService, userService);
+        assertAll(
+                // Test that only the row with a real patient and doctor is imported, with a new id
+                () -> assertEquals(1, result.getImported()),
+                () -> assertEquals(2, result.getRejected()),
+                () -> assertEquals(patient, appointmentService.getAppointment(0).getPatient()),
+                () -> assertEquals("Row 3: Invalid start time: yesterday", result.getErrors().get(1))
+        );
+    }
+}
@@ -0,0 +1,96 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.CachingUserRepository;
+import edu.secourse.services.PermutationIdAllocator;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileUserRepositoryTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void serviceOnCachedFile() throws IOException {
+        try (FileUserRepository file = new FileUserRepository(dir.resolve("users.table"))) {
+            CachingUserRepository cache = new CachingUserRepository(file, 100);
+            UserService userService = new UserService(new PermutationIdAllocator(), cache);
+
+            User doctor = userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+            List<User> patients = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                patients.add(new Patient(-1, "user" + i, "password1", "Name", "user" + i + "@mail.com"));
+            }
+            userService.importUsers(patients);
+
+            User patient = userService.getUser(patients.get(10).getAccNum());
+            patient.setName("Renamed");
+            userService.updateUser(patient);
+            userService.deleteUser(patients.get(11).getAccNum());
+
+            AtomicInteger count = new AtomicInteger();
+            userService.forEachUser(user -> count.incrementAndGet());
+            for (int round = 0; round < 3; round++) {
+                for (User user : patients) {
+                    userService.getUser(user.getAccNum());
+                }
+            }
+
+            assertAll(
+                    // Test that users read back from the file match what was stored
+                    () -> assertEquals("Renamed", file.get(patient.getAccNum()).getName()),
+                    () -> assertEquals("user999", userService.getUser(patients.get(999).getAccNum()).getUsername()),
+                    () -> assertInstanceOf(Doctor.class, file.get(doctor.getAccNum())),
+                    () -> assertNull(userService.getUser(patients.get(11).getAccNum())),
+                    () -> assertEquals(1000, count.get()),
+                    // Test that the doctor is always served from memory and the cache stays bounded
+                    () -> assertSame(doctor, userService.getUser(doctor.getAccNum())),
+                    () -> assertTrue(cache.size() <= 101, "cached " + cache.size()),
+                    () -> assertTrue(cache.getEvictionCount() > 0),
+                    () -> assertTrue(file.getFileSize() > 0)
+            );
+        }
+    }
+
+    @Test
+    void snapshotAndReloadThroughFile() throws IOException {
+        Path data = dir.resolve("data");
+        int doctorId;
+        // the store is closed first, since closing it writes a snapshot from the file
+        try (FileUserRepository file = new FileUserRepository(dir.resolve("users.table"));
+             PortalStore store = PortalStore.open(data, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(store.getIdKey(), 0),
+                    new CachingUserRepository(file, 10));
+            store.load(userService, new AppointmentService());
+            doctorId = userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor").getAccNum();
+            userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+        }
+
+        try (FileUserRepository file = new FileUserRepository(dir.resolve("users.table"));
+             PortalStore store = PortalStore.open(data, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(store.getIdKey(), 0),
+                    new CachingUserRepository(file, 10));
+            store.load(userService, new AppointmentService());
+
+            AtomicInteger count = new AtomicInteger();
+            userService.forEachUser(user -> count.incrementAndGet());
+            assertAll(
+                    // Test that the cleared file is refilled from the snapshot
+                    () -> assertEquals(2, count.get()),
+                    () -> assertEquals("doc", userService.getUser(doctorId).getUsername())
+            );
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.AppointmentSnapshot;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedAppointmentTableTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void serviceOnMappedTable() throws IOException {
+        UserService userService = new UserService();
+        Patient patient = (Patient) userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+
+        try (MappedAppointmentTable table = new MappedAppointmentTable(dir.resolve("appointments.table"),
+                userService::getUser)) {
+            AppointmentService appointmentService = new AppointmentService(table);
+            Date start = new Date(1_700_000_000_000L);
+            int first = appointmentService.bookAppointment(patient, doctor, start, 45).getAppointmentId();
+
+            // ids past the first mapped chunk
+            Appointment far = new Appointment(200_000, patient, doctor, null, Appointment.Status.CANCELLED);
+            appointmentService.restoreAppointment(far);
+
+            Appointment view = appointmentService.getAppointment(first);
+            appointmentService.updateAppointment(view.withStatus(Appointment.Status.CANCELLED));
+            appointmentService.rescheduleAppointment(first, new Date(start.getTime() + 3_600_000L));
+
+            Appointment stored = appointmentService.getAppointment(first);
+            userService.deleteUser(patient.getAccNum());
+            Appointment orphan = appointmentService.getAppointment(first);
+            assertAll(
+                    // Test that every field round-trips through the table
+                    () -> assertEquals(patient, stored.getPatient()),
+                    () -> assertEquals(doctor, stored.getDoctor()),
+                    () -> assertEquals(45, stored.getDurationMinutes()),
+                    () -> assertEquals(Appointment.Status.CANCELLED, stored.getStatus()),
+                    () -> assertEquals(start.getTime() + 3_600_000L, stored.getStartDateTime().getTime()),
+                    () -> assertNull(appointmentService.getAppointment(200_000).getStartDateTime()),
+                    // Test that a cancelled appointment frees the doctor
+                    () -> assertNull(appointmentService.findConflict(doctor.getAccNum(), start, 30)),
+                    // Test that a deleted patient is replaced by a stand-in with the same account number
+                    () -> assertEquals(patient.getAccNum(), orphan.getPatient().getAccNum()),
+                    () -> assertTrue(appointmentService.deleteAppointment(first)),
+                    () -> assertNull(appointmentService.getAppointment(first)),
+                    () -> assertNull(appointmentService.getAppointment(150_000))
+            );
+        }
+    }
+
+    @Test
+    void snapshotOnMappedTable() throws IOException {
+        UserService userService = new UserService();
+        Patient patient = (Patient) userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+
+        try (MappedAppointmentTable table = new MappedAppointmentTable(dir.resolve("appointments.table"),
+                userService::getUser)) {
+            AppointmentService appointmentService = new AppointmentService(table);
+            long start = 1_700_000_000_000L;
+            int moved = appointmentService.bookAppointment(patient, doctor, new Date(start), 30).getAppointmentId();
+            int deleted = appointmentService.bookAppointment(patient, doctor, new Date(start + 3_600_000L), 30)
+                    .getAppointmentId();
+            AppointmentSnapshot snapshot = appointmentService.snapshot();
+
+            appointmentService.rescheduleAppointment(moved, new Date(start + 7_200_000L));
+            appointmentService.deleteAppointment(deleted);
+
+            List<Appointment> seen = new ArrayList<>();
+            snapshot.forEach(seen::add);
+            assertAll(
+                    // Test that the snapshot still reads the versions it was taken with
+                    () -> assertEquals(2, seen.size()),
+                    () -> assertEquals(moved, seen.get(0).getAppointmentId()),
+                    () -> assertEquals(start, seen.get(0).getStartDateTime().getTime()),
+                    () -> assertEquals(1, seen.get(0).getVersion()),
+                    () -> assertEquals(deleted, seen.get(1).getAppointmentId()),
+                    // Test that the service itself sees the changes
+                    () -> assertEquals(start + 7_200_000L,
+                            appointmentService.getAppointment(moved).getStartDateTime().getTime()),
+                    () -> assertEquals(1, appointmentService.snapshot().size())
+            );
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.PermutationIdAllocator;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortalStoreTest {
+    @TempDir
+    Path dir;
+
+    @TempDir
+    Path crashDir;
+
+    @Test
+    void snapshotPlusLogTail() throws IOException {
+        int patientId;
+        int doctorId;
+        int lateId;
+        int removedId;
+        int aptId;
+
+        PortalStore store = PortalStore.open(dir, 1, false);
+        UserService userService = new UserService(new PermutationIdAllocator(store.getIdKey(), 0));
+        AppointmentService appointmentService = new AppointmentService();
+        store.load(userService, appointmentService);
+
+        Patient patient = (Patient) userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+        aptId = appointmentService.bookAppointment(patient, doctor, new Date(1_700_000_000_000L), 30)
+                .getAppointmentId();
+        store.snapshot();
+
+        // changed after the snapshot, so only in the log tail
+        userService.deleteUser(patient.getAccNum());
+        lateId = userService.createUser("late", "password1", "Late", "late@mail.com", "admin").getAccNum();
+        removedId = userService.createUser("temp", "password1", "Temp", "temp@mail.com", "admin").getAccNum();
+        userService.deleteUser(removedId);
+        patientId = patient.getAccNum();
+        doctorId = doctor.getAccNum();
+
+        // simulate a crash by copying the files without the final snapshot that close writes
+        store.sync();
+        long segments;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, crashDir.resolve(file.getFileName()));
+            }
+        }
+        try (Stream<Path> files = Files.list(crashDir)) {
+            segments = files.filter(file -> file.toString().endsWith(".wal")).count();
+        }
+        store.close();
+
+        PortalStore reopened = PortalStore.open(crashDir, 1, false);
+        UserService restoredUsers = new UserService(new PermutationIdAllocator(reopened.getIdKey(), 0));
+        AppointmentService restoredAppointments = new AppointmentService();
+        reopened.load(restoredUsers, restoredAppointments);
+        int nextId = restoredUsers.createUser("next", "password1", "Next", "next@mail.com", "admin").getAccNum();
+        Appointment apt = restoredAppointments.getAppointment(aptId);
+        reopened.close();
+
+        assertAll(
+                // Test that compaction left only the segment written since the snapshot
+                () -> assertEquals(1, segments),
+                // Test that changes from before and after the snapshot are restored
+                () -> assertNull(restoredUsers.getUser(patientId)),
+                () -> assertNotNull(restoredUsers.getUser(doctorId)),
+                () -> assertNotNull(restoredUsers.getUser(lateId)),
+                // Test that an appointment keeps its patient after the patient is deleted
+                () -> assertEquals(patientId, apt.getPatient().getAccNum()),
+                // Test that the account number of a deleted user is not handed out again
+                () -> assertNotEquals(removedId, nextId)
+        );
+    }
+
+    @Test
+    void coldStartFromSnapshot() throws IOException {
+        int count = 100_000;
+        PortalStore store = PortalStore.open(dir, 1, false);
+        UserService userService = new UserService(new PermutationIdAllocator(store.getIdKey(), 0));
+        AppointmentService appointmentService = new AppointmentService();
+        store.load(userService, appointmentService);
+
+        Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+        for (int i = 0; i < count; i++) {
+            Patient patient = (Patient) userService.createUser(
+                    "user" + i, "password1", "Name", "user" + i + "@mail.com", "patient");
+            appointmentService.createAppointment(patient, doctor, new Date(i * 3_600_000L), Appointment.Status.ACTIVE);
+        }
+        store.close();
+
+        PortalStore reopened = PortalStore.open(dir, 1, false);
+        UserService restoredUsers = new UserService(new PermutationIdAllocator(reopened.getIdKey(), 0));
+        AppointmentService restoredAppointments = new AppointmentService();
+        reopened.load(restoredUsers, restoredAppointments);
+        reopened.close();
+
+        long logBytes;
+        try (Stream<Path> files = Files.list(dir)) {
+            logBytes = files.filter(file -> file.toString().endsWith(".wal")).mapToLong(file -> file.toFile().length())
+                    .sum();
+        }
+
+        assertAll(
+                // Test that every record is restored from the snapshot
+                () -> assertEquals(count, restoredAppointments.getAppointments().size()),
+                () -> assertEquals(count, restoredAppointments.getAppointmentsForDoctor(doctor.getAccNum()).size()),
+                // Test that closing compacts the log down to one empty segment
+                () -> assertEquals(WriteAheadLog.HEADER_SIZE, logBytes)
+        );
+    }
+}
@@ -0,0 +1,213 @@
+package edu.secourse.persistence;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import edu.secourse.services.AppointmentService;
+import edu.secourse.services.PermutationIdAllocator;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRestoresServices() throws IOException {
+                int patientId;
+        int doctorId;
+        int deletedId;
+        int aptId;
+        Date start = new Date(1_700_000_000_000L);
+
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+            AppointmentService appointmentService = new AppointmentService();
+            userService.addListener(log);
+            appointmentService.addListener(log);
+
+            Patient patient = (Patient) userService.createUser("pat", "password1", "Pat", "pat@mail.com", "patient");
+            Doctor doctor = (Doctor) userService.createUser("doc", "password1", "Doc", "doc@mail.com", "doctor");
+            deletedId = userService.createUser("gone", "password1", "Gone", "gone@mail.com", "admin").getAccNum();
+            userService.deleteUser(deletedId);
+            patient.setName("Patricia");
+            userService.updateUser(patient);
+
+            Appointment apt = appointmentService.bookAppointment(patient, doctor, start, 45);
+            appointmentService.deleteAppointment(
+                    appointmentService.bookAppointment(patient, doctor, new Date(start.getTime() + 3_600_000L), 30)
+                            .getAppointmentId());
+            patientId = patient.getAccNum();
+            doctorId = doctor.getAccNum();
+            aptId = apt.getAppointmentId();
+            log.sync();
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+            AppointmentService appointmentService = new AppointmentService();
+            log.replay(userService, appointmentService);
+
+            Appointment apt = appointmentService.getAppointment(aptId);
+            User next = userService.createUser("new", "password1", "New", "new@mail.com", "patient");
+            assertAll(
+                    // Test that updates and deletes are replayed
+                    () -> assertEquals("Patricia", userService.getUser(patientId).getName()),
+                    () -> assertNull(userService.getUser(deletedId)),
+                    () -> assertEquals(1, appointmentService.getAppointments().size()),
+                    // Test that the appointment is linked to the restored users
+                    () -> assertEquals(doctorId, apt.getDoctor().getAccNum()),
+                    () -> assertEquals(start, apt.getStartDateTime()),
+                    () -> assertEquals(45, apt.getDurationMinutes()),
+                    // Test that restored ids are not handed out again
+                    () -> assertNotEquals(patientId, next.getAccNum()),
+                    () -> assertNotEquals(doctorId, next.getAccNum()),
+                    () -> assertNotEquals(deletedId, next.getAccNum())
+            );
+        }
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+                int first;
+        int second;
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+            userService.addListener(log);
+            first = userService.createUser("one", "password1", "One", "one@mail.com", "patient").getAccNum();
+            second = userService.createUser("two", "password1", "Two", "two@mail.com", "patient").getAccNum();
+        }
+
+        // cut the last record in half, as if the process died mid-write
+        Path segment = WriteAheadLog.segmentFile(dir, 1);
+        long fullSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(fullSize - 5);
+        }
+
+        UserService userService = new UserService();
+        int third;
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            log.replay(userService, new AppointmentService());
+
+            userService.addListener(log);
+            third = userService.createUser("three", "password1", "Three", "three@mail.com", "patient").getAccNum();
+        }
+
+        UserService reloaded = new UserService();
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            log.replay(reloaded, new AppointmentService());
+        }
+
+        assertAll(
+                // Test that the torn record is dropped and the rest are kept
+                () -> assertNotNull(userService.getUser(first)),
+                () -> assertNull(userService.getUser(second)),
+                // Test that records appended after the repair are readable
+                () -> assertNotNull(reloaded.getUser(first)),
+                () -> assertEquals("three", reloaded.getUser(third).getUsername())
+        );
+    }
+
+    @Test
+    void damagedOlderSegmentFailsReplay() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+            userService.addListener(log);
+            userService.createUser("one", "password1", "One", "one@mail.com", "patient");
+            userService.createUser("two", "password1", "Two", "two@mail.com", "patient");
+            log.rotate();
+            userService.createUser("three", "password1", "Three", "three@mail.com", "patient");
+        }
+
+        // flip a byte in the first record of the closed segment
+        try (FileChannel channel = FileChannel.open(WriteAheadLog.segmentFile(dir, 1), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), WriteAheadLog.HEADER_SIZE + 10);
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            IOException ex = assertThrows(IOException.class,
+                    () -> log.replay(new UserService(), new AppointmentService()));
+            // Test that damage in an older segment is reported instead of skipping the rest of it
+            assertTrue(ex.getMessage().contains("damaged"), ex.getMessage());
+        }
+    }
+
+    @Test
+    void fullBufferIsCommittedByTheCommitter() throws IOException {
+        int count = 20_000;
+        int last;
+        // a long commit interval, so only a full buffer makes the committer write before close
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 60_000, false)) {
+            UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+            userService.addListener(log);
+            String longName = "N".repeat(100);
+            User user = null;
+            for (int i = 0; i < count; i++) {
+                user = userService.createUser("user" + i, "password1", longName, "user" + i + "@mail.com", "patient");
+            }
+            last = user.getAccNum();
+            // Test that appends filling the buffer many times over are written out without waiting for the interval
+            assertTrue(Files.size(WriteAheadLog.segmentFile(dir, 1)) > 2 * (1 << 20));
+        }
+
+        UserService reloaded = new UserService();
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 1, false)) {
+            log.replay(reloaded, new AppointmentService());
+        }
+        // Test that no record is lost across the buffer swaps
+        assertAll(
+                () -> assertEquals(count, reloaded.getPatientCount()),
+                () -> assertEquals("user" + (count - 1), reloaded.getUser(last).getUsername())
+        );
+    }
+
+    @Test
+    void failedCommitStopsTheLog() throws IOException {
+        int first;
+        // a long commit interval, so only the commits the test asks for run
+        WriteAheadLog log = WriteAheadLog.open(dir, 60_000, false);
+        UserService userService = new UserService(new PermutationIdAllocator(log.getIdKey(), 0));
+        userService.addListener(log);
+        first = userService.createUser("one", "password1", "One", "one@mail.com", "patient").getAccNum();
+        log.sync();
+        userService.createUser("two", "password1", "Two", "two@mail.com", "patient");
+
+        // writing from an interrupted thread closes the file mid-commit, as a failing disk would
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(UncheckedIOException.class, log::sync);
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertAll(
+                // Test that the failure is reported by every later use of the log instead of records being dropped
+                () -> assertThrows(UncheckedIOException.class,
+                        () -> userService.createUser("three", "password1", "Three", "three@mail.com", "patient")),
+                () -> assertThrows(UncheckedIOException.class, log::sync),
+                () -> assertThrows(IOException.class, log::rotate),
+                () -> assertThrows(IOException.class, log::close)
+        );
+
+        UserService reloaded = new UserService();
+        try (WriteAheadLog reopened = WriteAheadLog.open(dir, 1, false)) {
+            reopened.replay(reloaded, new AppointmentService());
+        }
+        // Test that the records committed before the failure are kept
+        assertNotNull(reloaded.getUser(first));
+    }
+}
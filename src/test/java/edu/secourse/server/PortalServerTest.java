@@ -0,0 +1,200 @@
+package edu.secourse.server;
+
+import edu.secourse.controllers.UserController;
+import edu.secourse.models.User;
+import edu.secourse.services.UserService;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortalServerTest {
+    private static final InetSocketAddress LOCALHOST = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    @Test
+    void pipelinedRequestsAnsweredInOrder() throws IOException {
+        PortalServer.RequestHandler handler = (line, out) -> {
+            if (line.equals("dots")) {
+                out.print(".hidden\n..\nlast");
+            } else {
+                out.println(new StringBuilder(line).reverse());
+            }
+        };
+
+        try (PortalServer server = PortalServer.start(LOCALHOST, handler);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                requests.append("request ").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+            }
+            requests.append("dots\nexit\nnever run\n");
+            socket.getOutputStream().write(requests.toString().getBytes(StandardCharsets.UTF_8));
+
+            List<List<String>> responses = readResponses(socket);
+            assertAll(
+                    // Test that every pipelined request is answered, in order, and nothing after exit runs
+                    () -> assertEquals(501, responses.size()),
+                    () -> assertEquals(List.of("0 tseuqer"), responses.get(0)),
+                    () -> assertEquals(List.of("994 tseuqer"), responses.get(499)),
+                    // Test that lines starting with a dot survive and a missing final line ending is added
+                    () -> assertEquals(List.of(".hidden", "..", "last"), responses.get(500))
+            );
+        }
+    }
+
+    @Test
+    void errorInCommandDoesNotStallConnection() throws IOException {
+        PortalServer.RequestHandler handler = (line, out) -> {
+            if (line.equals("fail")) {
+                throw new AssertionError("handler failed");
+            }
+            out.println(line);
+        };
+
+        try (PortalServer server = PortalServer.start(LOCALHOST, handler);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write("first\nfail\nlast\nexit\n".getBytes(StandardCharsets.UTF_8));
+
+            List<List<String>> responses = readResponses(socket);
+            // Test that the failed command is answered and the commands after it still run
+            assertEquals(List.of(List.of("first"), List.of("Internal error: command failed"), List.of("last")),
+                    responses);
+        }
+    }
+
+    @Test
+    void responsesSentWhileCommandsRun() throws Exception {
+        CountDownLatch answered = new CountDownLatch(1);
+        PortalServer.RequestHandler handler = (line, out) -> {
+            if (line.equals("wait")) {
+                try {
+                    // only returns once the client has read the response before it
+                    assertTrue(answered.await(1, TimeUnit.MINUTES));
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            out.println(line);
+        };
+
+        try (PortalServer server = PortalServer.start(LOCALHOST, handler);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write("first\nwait\n".getBytes(StandardCharsets.UTF_8));
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // Test that a response arrives while the client's later commands are still running
+            assertEquals("first", reader.readLine());
+            assertEquals(".", reader.readLine());
+            answered.countDown();
+
+            socket.getOutputStream().write("exit now\nnever run\n".getBytes(StandardCharsets.UTF_8));
+            // Test that exit with arguments also closes the connection
+            assertEquals(List.of(List.of("wait")), readResponses(socket));
+        }
+    }
+
+    @Test
+    void slowReaderHoldsBackCommands() throws Exception {
+        String large = "x".repeat(1 << 18);
+        AtomicInteger handled = new AtomicInteger();
+        PortalServer.RequestHandler handler = (line, out) -> {
+            handled.incrementAndGet();
+            out.println(large);
+        };
+
+        int commands = 200;
+        try (PortalServer server = PortalServer.start(LOCALHOST, handler);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write("go\n".repeat(commands).concat("exit\n").getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(500);
+            int handledBeforeReading = handled.get();
+
+            List<List<String>> responses = readResponses(socket);
+            assertAll(
+                    // Test that commands stop running while the client is not reading their output
+                    () -> assertTrue(handledBeforeReading < commands / 2, "ran " + handledBeforeReading),
+                    // Test that they all run and are answered once it reads
+                    () -> assertEquals(commands, responses.size()),
+                    () -> assertTrue(responses.stream().allMatch(response -> response.equals(List.of(large))))
+            );
+        }
+    }
+
+    @Test
+    void manyClientsShareOneService() throws Exception {
+        UserController controller = new UserController(new UserService());
+        PortalServer.RequestHandler handler = (line, out) -> {
+            String[] words = line.split(" ");
+            User user = controller.createUser(words[0], "password1", "Client", words[0] + "@mail.com", "patient");
+            out.println(user.getAccNum());
+        };
+
+        int clients = 500;
+        int requestsPerClient = 20;
+        try (PortalServer server = PortalServer.start(LOCALHOST, handler)) {
+            // every connection is open before any of them sends a request
+            List<Socket> sockets = new ArrayList<>();
+            try {
+                for (int i = 0; i < clients; i++) {
+                    sockets.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+                }
+                for (int i = 0; i < clients; i++) {
+                    StringBuilder requests = new StringBuilder();
+                    for (int j = 0; j < requestsPerClient; j++) {
+                        requests.append("client").append(i).append('x').append(j).append('\n');
+                    }
+                    OutputStream out = sockets.get(i).getOutputStream();
+                    out.write(requests.append("exit\n").toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+
+                for (int i = 0; i < clients; i++) {
+                    List<List<String>> responses = readResponses(sockets.get(i));
+                    assertEquals(requestsPerClient, responses.size());
+                    for (int j = 0; j < requestsPerClient; j++) {
+                        User user = controller.getUser(Integer.parseInt(responses.get(j).get(0)));
+                        // Test that each response belongs to the request in the same position
+                        assertEquals("client" + i + "x" + j, user.getUsername());
+                    }
+                }
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads responses until the server closes the connection
+     */
+    private static List<List<String>> readResponses(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        List<List<String>> responses = new ArrayList<>();
+        List<String> response = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals(".")) {
+                responses.add(response);
+                response = new ArrayList<>();
+            } else {
+                response.add(line.startsWith(".") ? line.substring(1) : line);
+            }
+        }
+        return responses;
+    }
+}
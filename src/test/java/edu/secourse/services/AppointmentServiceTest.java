@@ -4,12 +4,22 @@ import edu.secourse.services.AppointmentService;
 import edu.secourse.models.Appointment;
 import edu.secourse.models.Patient;
 import edu.secourse.models.Doctor;
+import edu.secourse.exceptions.AppointmentConflictException;
+import edu.secourse.exceptions.StaleAppointmentException;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -79,20 +89,26 @@ public class AppointmentServiceTest {
         Appointment apt2 = aptService.createAppointment(p1, d1, date, Appointment.Status.ACTIVE);
         Appointment uapt2 = new Appointment(apt2.getAppointmentId(), p2, d1, date, Appointment.Status.ACTIVE);
 
-        aptService.updateAppointment(uapt1);
-        aptService.updateAppointment(uapt2);
+        Appointment stored1 = aptService.updateAppointment(uapt1);
+        Appointment stored2 = aptService.updateAppointment(uapt2);
 
         assertAll(
                 // Test updated apt holds correct id
-                () -> assertEquals(0, uapt1.getAppointmentId()),
+                () -> assertEquals(0, stored1.getAppointmentId()),
+                // Test that each update stored the next version
+                () -> assertEquals(2, stored1.getVersion()),
+                () -> assertEquals(Appointment.Status.CANCELLED, stored1.getStatus()),
                 // Test updated appointments did not change arraylist size
                 () -> assertEquals(2, aptService.getAppointments().size()),
                 // Check apt1 and apt2 no longer are in the arraylist
                 () -> assertNotSame(apt1, aptService.getAppointments().get(0)),
                 () -> assertNotSame(apt2, aptService.getAppointments().get(1)),
                 // Check updated appointments are in the arraylist
-                () -> assertSame(uapt1, aptService.getAppointments().get(0)),
-                () -> assertSame(uapt2, aptService.getAppointments().get(1))
+                () -> assertSame(stored1, aptService.getAppointments().get(0)),
+                () -> assertSame(stored2, aptService.getAppointments().get(1)),
+                // Test that the versions read before the update are left as they were
+                () -> assertEquals(Appointment.Status.ACTIVE, apt1.getStatus()),
+                () -> assertEquals(1, apt1.getVersion())
         );
     }
 
@@ -134,4 +150,294 @@ public class AppointmentServiceTest {
         );
     }
 
+    @Test
+    @DisplayName("deleteAppointment(int id): Deleting many appointments keeps the rest reachable by id")
+    void deleteManyAptTest() {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(1, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        Date date = new Date();
+
+        // Spans several storage segments so whole segments get emptied
+        for (int i = 0; i < 5000; i++) {
+            aptService.createAppointment(p1, d1, date, Appointment.Status.ACTIVE);
+        }
+        for (int i = 0; i < 4000; i++) {
+            assertTrue(aptService.deleteAppointment(i));
+        }
+
+        Appointment next = aptService.createAppointment(p1, d1, date, Appointment.Status.ACTIVE);
+
+        assertAll(
+                // Test that deleted appointments are gone
+                () -> assertNull(aptService.getAppointment(0)),
+                () -> assertNull(aptService.getAppointment(3999)),
+                // Test that the remaining appointments are still found
+                () -> assertEquals(4000, aptService.getAppointment(4000).getAppointmentId()),
+                () -> assertEquals(4999, aptService.getAppointment(4999).getAppointmentId()),
+                // Test that ids are not reused after deletes
+                () -> assertEquals(5000, next.getAppointmentId()),
+                // Test that the list holds only live appointments in id order
+                () -> assertEquals(1001, aptService.getAppointments().size()),
+                () -> assertEquals(4000, aptService.getAppointments().get(0).getAppointmentId())
+        );
+    }
+
+    @Test
+    @DisplayName("updateAppointment (Appointment appointment): Moves an appointment between patient and doctor indexes")
+    void updateAptIndexTest() {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Patient p2 = new Patient(2, "rfant1", "123", "Ryan", "rfant1@brockport.edu");
+        Doctor d1 = new Doctor(3, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        Date date = new Date();
+
+        Appointment apt = aptService.updateAppointment(
+                aptService.createAppointment(p1, d1, date, Appointment.Status.ACTIVE).withPatient(p2));
+
+        assertAll(
+                // Test that the appointment left the old patient's index
+                () -> assertTrue(aptService.getAppointmentsForPatient(1).isEmpty()),
+                // Test that the appointment is in the new patient's index
+                () -> assertSame(apt, aptService.getAppointmentsForPatient(2).get(0)),
+                // Test that the doctor index is unchanged
+                () -> assertSame(apt, aptService.getAppointmentsForDoctor(3).get(0)),
+                // Test that deleting clears the indexes
+                () -> assertTrue(aptService.deleteAppointment(apt.getAppointmentId())),
+                () -> assertTrue(aptService.getAppointmentsForPatient(2).isEmpty()),
+                () -> assertTrue(aptService.getAppointmentsForDoctor(3).isEmpty())
+        );
+    }
+
+    @Test
+    @DisplayName("getAppointmentsBetween / getNextAppointments / getDoctorAppointmentsOn: Time ordered queries")
+    void timeQueryTest() {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        Doctor d2 = new Doctor(3, "drwho", "123", "Who", "who@goat.com");
+        long hour = 3600_000;
+        long base = LocalDateTime.of(2025, 11, 3, 9, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        Appointment nine = aptService.createAppointment(p1, d1, new Date(base), Appointment.Status.ACTIVE);
+        Appointment eleven = aptService.createAppointment(p1, d2, new Date(base + 2 * hour), Appointment.Status.ACTIVE);
+        Appointment ten = aptService.createAppointment(p1, d1, new Date(base + hour), Appointment.Status.ACTIVE);
+        Appointment tomorrow = aptService.createAppointment(p1, d1, new Date(base + 24 * hour), Appointment.Status.ACTIVE);
+
+        assertAll(
+                // Test that a range is returned in start time order, excluding the end
+                () -> assertEquals(List.of(nine, ten), aptService.getAppointmentsBetween(new Date(base), new Date(base + 2 * hour))),
+                // Test that the next N appointments are limited to N
+                () -> assertEquals(List.of(ten, eleven), aptService.getNextAppointments(new Date(base + 1), 2)),
+                // Test that a doctor's day view only holds that doctor and that day
+                () -> assertEquals(List.of(nine, ten), aptService.getDoctorAppointmentsOn(2, new Date(base + 5 * hour))),
+                () -> assertEquals(List.of(tomorrow), aptService.getDoctorAppointmentsOn(2, new Date(base + 24 * hour)))
+        );
+
+        // Test that rescheduling moves the appointment within the indexes
+        Appointment movedTen = aptService.rescheduleAppointment(ten.getAppointmentId(), new Date(base + 3 * hour));
+        assertEquals(List.of(nine, eleven, movedTen), aptService.getNextAppointments(new Date(base), 3));
+        assertEquals(base + 3 * hour, movedTen.getStartDateTime().getTime());
+
+        // Test that a new version with a new start time is re-sorted by updateAppointment
+        Appointment movedNine = aptService.updateAppointment(nine.withStartDateTime(new Date(base + 4 * hour)));
+        assertEquals(List.of(eleven, movedTen, movedNine), aptService.getNextAppointments(new Date(base), 3));
+    }
+
+    @Test
+    @DisplayName("bookAppointment: Concurrent bookings of the same slots only succeed once per slot")
+    void concurrentBookingStressTest() throws Exception {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        final int threads = 8;
+        final int slots = 500;
+        final long base = 1_800_000_000_000L;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        // Every thread tries to book every slot while also reading the time index
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                int booked = 0;
+                for (int slot = 0; slot < slots; slot++) {
+                    try {
+                        Appointment apt = aptService.bookAppointment(p1, d1, new Date(base + slot * 30 * 60_000L), 30);
+                        assertSame(apt, aptService.getAppointment(apt.getAppointmentId()));
+                        booked++;
+                    } catch (AppointmentConflictException ex) {
+                        // another thread won this slot
+                    }
+                    aptService.getNextAppointments(new Date(base), 5);
+                }
+                return booked;
+            });
+        }
+
+        int booked = 0;
+        for (Future<Integer> future : pool.invokeAll(tasks)) {
+            booked += future.get();
+        }
+        pool.shutdown();
+
+        final int total = booked;
+        assertAll(
+                // Test that each slot was booked exactly once
+                () -> assertEquals(slots, total),
+                () -> assertEquals(slots, aptService.getAppointments().size()),
+                () -> assertEquals(slots, aptService.getAppointmentsForDoctor(2).size()),
+                // Test that ids were handed out without gaps or repeats
+                () -> assertEquals(slots - 1, aptService.getAppointments().get(slots - 1).getAppointmentId())
+        );
+    }
+
+    @Test
+    @DisplayName("updateAppointment: Rejects a new version that would double-book the doctor")
+    void updateConflictTest() {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        Date nine = new Date(1_800_000_000_000L);
+        Date nineThirty = new Date(nine.getTime() + 30 * 60_000L);
+        Appointment first = aptService.bookAppointment(p1, d1, nine, 30);
+        Appointment cancelled = aptService.updateAppointment(first.withStatus(Appointment.Status.CANCELLED));
+        Appointment second = aptService.bookAppointment(p1, d1, nine, 30);
+        Appointment third = aptService.bookAppointment(p1, d1, nineThirty, 30);
+
+        assertAll(
+                // Test that a cancelled appointment cannot be made active over another booking
+                () -> assertThrows(AppointmentConflictException.class,
+                        () -> aptService.updateAppointment(cancelled.withStatus(Appointment.Status.ACTIVE))),
+                // Test that an appointment cannot be lengthened or moved into another one
+                () -> assertThrows(AppointmentConflictException.class,
+                        () -> aptService.updateAppointment(second.withDurationMinutes(45))),
+                () -> assertThrows(AppointmentConflictException.class,
+                        () -> aptService.updateAppointment(third.withStartDateTime(new Date(nine.getTime() + 60_000L))))
+        );
+
+        // Test that rejected versions change nothing, and that changes that book no new time still succeed
+        assertAll(
+                () -> assertEquals(Appointment.Status.CANCELLED,
+                        aptService.getAppointment(first.getAppointmentId()).getStatus()),
+                () -> assertEquals(30, aptService.getAppointment(second.getAppointmentId()).getDurationMinutes()),
+                () -> assertEquals(nineThirty, aptService.getAppointment(third.getAppointmentId()).getStartDateTime()),
+                () -> assertDoesNotThrow(() -> aptService.updateAppointment(second.withDurationMinutes(15))),
+                () -> assertDoesNotThrow(() -> aptService.updateAppointment(
+                        third.withStartDateTime(new Date(nineThirty.getTime() + 60 * 60_000L)))),
+                () -> assertEquals(nine, aptService.findConflict(2, nine, 15).getStartDateTime())
+        );
+    }
+
+    @Test
+    @DisplayName("updateAppointment: Rejects a version that has been changed since it was read")
+    void staleUpdateTest() throws Exception {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        Appointment apt = aptService.createAppointment(p1, d1, new Date(), Appointment.Status.ACTIVE);
+        aptService.updateAppointment(apt.withDurationMinutes(60));
+
+        // Test that an update built from the old version is refused and changes nothing
+        assertThrows(StaleAppointmentException.class,
+                () -> aptService.updateAppointment(apt.withStatus(Appointment.Status.CANCELLED)));
+        Appointment stored = aptService.getAppointment(apt.getAppointmentId());
+
+        // Concurrent read-modify-write loops that retry on conflict lose no updates
+        final int threads = 8;
+        final int increments = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < increments; i++) {
+                    while (true) {
+                        Appointment current = aptService.getAppointment(apt.getAppointmentId());
+                        try {
+                            aptService.updateAppointment(
+                                    current.withDurationMinutes(current.getDurationMinutes() + 1));
+                            break;
+                        } catch (StaleAppointmentException ex) {
+                            // another thread got there first; read it again
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            future.get();
+        }
+        pool.shutdown();
+
+        Appointment last = aptService.getAppointment(apt.getAppointmentId());
+        assertAll(
+                () -> assertEquals(Appointment.Status.ACTIVE, stored.getStatus()),
+                () -> assertEquals(2, stored.getVersion()),
+                // Test that every increment was applied exactly once
+                () -> assertEquals(60 + threads * increments, last.getDurationMinutes()),
+                () -> assertEquals(2 + threads * increments, last.getVersion())
+        );
+    }
+
+    @Test
+    @DisplayName("snapshot: Keeps the appointments as they were when it was taken")
+    void snapshotTest() {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        long hour = 3600_000;
+        long base = 1_800_000_000_000L;
+
+        Appointment nine = aptService.createAppointment(p1, d1, new Date(base), Appointment.Status.ACTIVE);
+        Appointment ten = aptService.createAppointment(p1, d1, new Date(base + hour), Appointment.Status.ACTIVE);
+        AppointmentSnapshot snapshot = aptService.snapshot();
+
+        aptService.rescheduleAppointment(nine.getAppointmentId(), new Date(base + 5 * hour));
+        aptService.deleteAppointment(ten.getAppointmentId());
+        aptService.createAppointment(p1, d1, new Date(base + 2 * hour), Appointment.Status.ACTIVE);
+
+        ArrayList<Appointment> all = new ArrayList<>();
+        snapshot.forEach(all::add);
+        assertAll(
+                // Test that later writes are not seen by the snapshot
+                () -> assertEquals(2, snapshot.size()),
+                () -> assertEquals(List.of(nine, ten), all),
+                () -> assertEquals(List.of(nine, ten),
+                        snapshot.getAppointmentsBetween(new Date(base), new Date(base + 3 * hour))),
+                // Test that a new snapshot sees them
+                () -> assertEquals(2, aptService.snapshot().size()),
+                () -> assertEquals(base + 2 * hour,
+                        aptService.snapshot().getAppointmentsBetween(new Date(base), new Date(base + 3 * hour))
+                                .get(0).getStartDateTime().getTime())
+        );
+    }
+
+    @Test
+    @DisplayName("snapshot: Never sees a write half done")
+    void snapshotConsistencyTest() throws Exception {
+        Patient p1 = new Patient(1, "cfair4", "123", "Collin", "cfair4@brockport.edu");
+        Doctor d1 = new Doctor(2, "GMoney527", "123", "Stan", "GMoney527@goat.com");
+        long base = 1_800_000_000_000L;
+        Appointment apt = aptService.bookAppointment(p1, d1, new Date(base), 30);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Void> writer = pool.submit(() -> {
+            for (int i = 1; i <= 20_000; i++) {
+                aptService.rescheduleAppointment(apt.getAppointmentId(), new Date(base + i * 60_000L));
+            }
+            return null;
+        });
+        Future<Integer> reader = pool.submit(() -> {
+            int bad = 0;
+            while (!writer.isDone()) {
+                AppointmentSnapshot snapshot = aptService.snapshot();
+                ArrayList<Appointment> seen = new ArrayList<>();
+                snapshot.forEach(seen::add);
+                if (snapshot.size() != 1 || seen.size() != 1 || seen.get(0) == null
+                        || aptService.getNextAppointments(new Date(base), 5).size() != 1) {
+                    bad++;
+                }
+            }
+            return bad;
+        });
+        writer.get();
+        int bad = reader.get();
+        pool.shutdown();
+
+        // Test that the appointment is never missing or doubled while it is being moved
+        assertEquals(0, bad);
+    }
 }
@@ -0,0 +1,91 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import edu.secourse.models.User;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingUserRepositoryTest {
+    /**
+     * Counts reads, and returns a copy each time like a repository that is not on the heap
+     */
+    static class CountingRepository extends InMemoryUserRepository {
+        int reads;
+
+        @Override
+        public User get(int id) {
+            reads++;
+            User user = super.get(id);
+            return user == null ? null : new Patient(user.getAccNum(), user.getUsername(), user.getPassword(),
+                    user.getName(), user.getEmail());
+        }
+    }
+
+    @Test
+    void segmentedLruKeepsRepeatedReads() {
+        CountingRepository backing = new CountingRepository();
+        CachingUserRepository cache = new CachingUserRepository(backing, 0, user -> false);
+        for (int id = 0; id < 10; id++) {
+            cache.put(new Patient(id, "user" + id, "password1", "Name", "a@b.com"), null);
+        }
+        cache.get(1);
+        cache.get(1);
+
+        CountingRepository hotBacking = new CountingRepository();
+        CachingUserRepository hotCache = new CachingUserRepository(hotBacking, 6400, user -> false);
+        for (int id = 0; id < 100_000; id++) {
+            hotCache.put(new Patient(id, "user" + id, "password1", "Name", "a@b.com"), null);
+        }
+        // read a small hot set twice so it is protected, then scan everything once
+        for (int round = 0; round < 2; round++) {
+            for (int id = 0; id < 100; id++) {
+                hotCache.get(id);
+            }
+        }
+        for (int id = 0; id < 100_000; id++) {
+            hotCache.get(id);
+        }
+        int readsBefore = hotBacking.reads;
+        for (int id = 0; id < 100; id++) {
+            hotCache.get(id);
+        }
+
+        assertAll(
+                // Test that a cache with no capacity always reads through
+                () -> assertEquals(2, backing.reads),
+                () -> assertEquals(0, cache.getHitCount()),
+                // Test that a scan does not push out users read repeatedly
+                () -> assertEquals(readsBefore, hotBacking.reads),
+                () -> assertTrue(hotCache.getEvictionCount() > 0),
+                () -> assertTrue(hotCache.size() <= 6400)
+        );
+    }
+
+    @Test
+    void writesKeepCacheCurrent() {
+        CountingRepository backing = new CountingRepository();
+        CachingUserRepository cache = new CachingUserRepository(backing, 1000);
+        Doctor doctor = new Doctor(1, "doc", "password1", "Doc", "doc@mail.com");
+        cache.putIfAbsent(doctor, null);
+        cache.put(new Patient(2, "pat", "password1", "Pat", "pat@mail.com"), null);
+
+        User first = cache.get(2);
+        cache.replace(new Patient(2, "pat", "password1", "Renamed", "pat@mail.com"), null);
+        User renamed = cache.get(2);
+        boolean removed = cache.remove(2, null);
+
+        assertAll(
+                // Test that pinned users are served from memory without a read
+                () -> assertSame(doctor, cache.get(1)),
+                // Test that replacing and removing update the cached copy
+                () -> assertEquals("Pat", first.getName()),
+                () -> assertEquals("Renamed", renamed.getName()),
+                () -> assertTrue(removed),
+                () -> assertNull(cache.get(2)),
+                () -> assertEquals(2, cache.getMissCount()),
+                () -> assertEquals(2, cache.getHitCount())
+        );
+    }
+}
@@ -0,0 +1,96 @@
+package edu.secourse.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdAllocatorTest {
+    @Test
+    void permutationIdsDoNotCollide() {
+        PermutationIdAllocator allocator = new PermutationIdAllocator();
+        BitSet seen = new BitSet();
+
+        for (int i = 0; i < 2_000_000; i++) {
+            int id = allocator.nextId();
+            // Test that ids are non-negative and never repeat, past the old limit of 1,000,000 users
+            assertTrue(id >= 0);
+            assertFalse(seen.get(id));
+            seen.set(id);
+        }
+    }
+
+    @Test
+    void permutationIdsAreNotSequential() {
+        PermutationIdAllocator allocator = new PermutationIdAllocator(427, 0);
+        int first = allocator.nextId();
+        int second = allocator.nextId();
+
+        assertAll(
+                // Test that consecutive ids are not adjacent
+                () -> assertNotEquals(first + 1, second),
+                // Test that a different key gives a different sequence
+                () -> assertNotEquals(first, new PermutationIdAllocator(428, 0).nextId()),
+                // Test that the same key and counter continue the same sequence
+                () -> assertEquals(second, new PermutationIdAllocator(427, 1).nextId())
+        );
+    }
+
+    @Test
+    void reservedIdsAreSkipped() {
+        PermutationIdAllocator allocator = new PermutationIdAllocator(427, 0);
+        int[] ids = new int[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = allocator.nextId();
+        }
+
+        // A fresh allocator with the same key that resumes after the 6th id continues after it
+        PermutationIdAllocator restarted = new PermutationIdAllocator(427, 0);
+        restarted.resume(ids[5]);
+        assertEquals(ids[6], restarted.nextId());
+
+        // Ids reserved in the order they were handed out move the counter past themselves
+        PermutationIdAllocator reloaded = new PermutationIdAllocator(427, 0);
+        for (int i = 0; i < 6; i++) {
+            reloaded.reserve(ids[i]);
+        }
+        assertAll(
+                () -> assertEquals(6, reloaded.getCounter()),
+                () -> assertEquals(ids[6], reloaded.nextId())
+        );
+
+        // A reserved id further along is skipped when the sequence reaches it
+        PermutationIdAllocator skipping = new PermutationIdAllocator(427, 0);
+        skipping.reserve(ids[2]);
+        int[] block = skipping.nextIds(3);
+        assertAll(
+                () -> assertArrayEquals(new int[] {ids[0], ids[1], ids[3]}, block),
+                () -> assertEquals(ids[4], skipping.nextId())
+        );
+
+        SequentialIdAllocator sequential = new SequentialIdAllocator();
+        sequential.reserve(41);
+        assertEquals(42, sequential.nextId());
+    }
+
+    @Test
+    void foreignIdsDoNotUseUpTheRange() {
+        PermutationIdAllocator allocator = new PermutationIdAllocator(427, 0);
+        for (int id = 0; id < 1_000_000; id++) {
+            allocator.reserve(id);
+        }
+
+        BitSet handedOut = new BitSet();
+        for (int i = 0; i < 10_000; i++) {
+            handedOut.set(allocator.nextId());
+        }
+        assertAll(
+                // Test that reserving ids from another key leaves the counter near the start
+                () -> assertTrue(allocator.getCounter() < 20_000),
+                // Test that none of the reserved ids are handed out
+                () -> assertEquals(10_000, handedOut.cardinality()),
+                () -> assertEquals(-1, handedOut.previousSetBit(999_999))
+        );
+    }
+}
@@ -0,0 +1,92 @@
+package edu.secourse.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+    @Test
+    void hashAndVerify() {
+        try (PasswordHasher hasher = new PasswordHasher(1000, 2)) {
+            String hash = hasher.hash("Password1!");
+            String again = hasher.hash("Password1!");
+
+            assertAll(
+                    // Test that the password itself is not stored
+                    () -> assertTrue(PasswordHasher.isHash(hash)),
+                    () -> assertFalse(hash.contains("Password1!")),
+                    () -> assertTrue(hash.startsWith("pbkdf2-sha256$1000$")),
+                    // Test that each hash gets its own salt
+                    () -> assertNotEquals(hash, again),
+                    // Test that the right password matches and others do not
+                    () -> assertTrue(hasher.verify("Password1!", hash)),
+                    () -> assertTrue(hasher.verify("Password1!", again)),
+                    () -> assertFalse(hasher.verify("Password1", hash)),
+                    () -> assertFalse(hasher.verify(null, hash)),
+                    // Test that only complete hashes count as well-formed
+                    () -> assertTrue(PasswordHasher.isWellFormedHash(hash)),
+                    () -> assertFalse(PasswordHasher.isWellFormedHash("pbkdf2-sha256$1000$AAAA$AAAA")),
+                    () -> assertFalse(PasswordHasher.isWellFormedHash("Password1!")),
+                    // Test that a missing or corrupt hash never matches
+                    () -> assertFalse(hasher.verify("Password1!", null)),
+                    () -> assertFalse(hasher.verify("Password1!", "pbkdf2-sha256$1000$!!$!!")),
+                    () -> assertFalse(hasher.verify("Password1!", "pbkdf2-sha256$0$AAAA$AAAA")),
+                    // Test that passwords saved before hashing still match
+                    () -> assertTrue(hasher.verify("Password1!", "Password1!")),
+                    () -> assertFalse(hasher.verify("Password2!", "Password1!"))
+            );
+        }
+    }
+
+    @Test
+    void iterationsAreKeptPerHash() {
+        String hash;
+        try (PasswordHasher weak = new PasswordHasher(10, 1)) {
+            hash = weak.hash("Password1!");
+        }
+        try (PasswordHasher strong = new PasswordHasher(2000, 1)) {
+            // Test that raising the iteration count does not break existing hashes
+            assertTrue(strong.verify("Password1!", hash));
+        }
+
+        // Test that an invalid iteration count or pool size is rejected
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> new PasswordHasher(0, 1)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new PasswordHasher(1000, 0))
+        );
+    }
+
+    @Test
+    void hashAll() {
+        try (PasswordHasher hasher = new PasswordHasher(1000, 3)) {
+            String existing = hasher.hash("Existing1");
+            List<String> passwords = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                passwords.add("Password" + i);
+            }
+            passwords.add(existing);
+            passwords.add(null);
+            passwords.add("pbkdf2-sha256$1000$AAAA$AAAA");
+
+            List<String> hashes = hasher.hashAll(passwords);
+
+            assertAll(
+                    // Test that every password is hashed, in order
+                    () -> assertEquals(passwords.size(), hashes.size()),
+                    () -> assertTrue(hasher.verify("Password0", hashes.get(0))),
+                    () -> assertTrue(hasher.verify("Password99", hashes.get(99))),
+                    // Test that hashes and nulls are kept as they are
+                    () -> assertSame(existing, hashes.get(100)),
+                    () -> assertNull(hashes.get(101)),
+                    // Test that a corrupt hash is hashed like a password instead of kept
+                    () -> assertTrue(hasher.verify("pbkdf2-sha256$1000$AAAA$AAAA", hashes.get(102))),
+                    // Test that an empty batch works
+                    () -> assertEquals(List.of(), hasher.hashAll(Arrays.asList()))
+            );
+        }
+    }
+}
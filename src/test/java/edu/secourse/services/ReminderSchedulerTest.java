@@ -0,0 +1,120 @@
+package edu.secourse.services;
+
+import edu.secourse.models.Appointment;
+import edu.secourse.models.Doctor;
+import edu.secourse.models.Patient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReminderSchedulerTest {
+    private static final long MINUTE = 60_000;
+    // on a minute boundary, so reminders fall exactly on ticks
+    private static final long START = 1_700_000_040_000L;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong now = new AtomicLong(START);
+    private final List<List<Appointment>> batches = new ArrayList<>();
+    private final Patient patient = new Patient(1, "pat", "password1", "Pat", "pat@mail.com");
+    private final Doctor doctor = new Doctor(2, "doc", "password1", "Doc", "doc@mail.com");
+
+    @Test
+    void followsAppointmentChanges() throws IOException {
+        AppointmentService appointments = new AppointmentService();
+        ReminderScheduler reminders = new ReminderScheduler(batches::add, 60 * MINUTE, MINUTE, now::get);
+        appointments.addListener(reminders);
+
+        Appointment early = appointments.createAppointment(patient, doctor, new Date(START + 90 * MINUTE), 30,
+                Appointment.Status.ACTIVE);
+        Appointment moved = appointments.createAppointment(patient, doctor, new Date(START + 100 * MINUTE), 30,
+                Appointment.Status.ACTIVE);
+        Appointment cancelled = appointments.createAppointment(patient, doctor, new Date(START + 110 * MINUTE), 30,
+                Appointment.Status.ACTIVE);
+        Appointment deleted = appointments.createAppointment(patient, doctor, new Date(START + 120 * MINUTE), 30,
+                Appointment.Status.ACTIVE);
+        appointments.createAppointment(patient, doctor, null, 30, Appointment.Status.ACTIVE);
+
+        appointments.rescheduleAppointment(moved.getAppointmentId(), new Date(START + 300 * MINUTE));
+        appointments.updateAppointment(appointments.getAppointment(cancelled.getAppointmentId())
+                .withStatus(Appointment.Status.CANCELLED));
+        appointments.deleteAppointment(deleted.getAppointmentId());
+
+        // Test that only active appointments with a start time wait for a reminder
+        assertEquals(2, reminders.getPendingCount());
+
+        // Test that nothing is sent before the reminder time
+        now.set(START + 30 * MINUTE - 1);
+        assertEquals(0, reminders.tick());
+
+        // Test that the reminder is sent once it is due, and only once
+        now.set(START + 30 * MINUTE);
+        assertEquals(1, reminders.tick());
+        assertEquals(0, reminders.tick());
+        assertEquals(early.getAppointmentId(), batches.get(0).get(0).getAppointmentId());
+
+        // Test that a rescheduled appointment is reminded at its new time
+        now.set(START + 240 * MINUTE);
+        assertEquals(1, reminders.tick());
+        assertAll(
+                () -> assertEquals(moved.getAppointmentId(), batches.get(1).get(0).getAppointmentId()),
+                () -> assertEquals(START + 300 * MINUTE, batches.get(1).get(0).getStartMillis()),
+                () -> assertEquals(0, reminders.getPendingCount()),
+                () -> assertEquals(2, batches.size())
+        );
+    }
+
+    @Test
+    void dueRemindersAreBatched() throws IOException {
+        ReminderScheduler reminders = new ReminderScheduler(batches::add, 15 * MINUTE, 1000, now::get);
+        for (int i = 0; i < 500; i++) {
+            reminders.onAppointmentSaved(new Appointment(i, patient, doctor, START + 20 * MINUTE + i * 10,
+                    30, Appointment.Status.ACTIVE, 1));
+        }
+        // one that is already past its reminder time, but has not started
+        reminders.onAppointmentSaved(new Appointment(1000, patient, doctor, START + 5 * MINUTE, 30,
+                Appointment.Status.ACTIVE, 1));
+        // one that has already started
+        reminders.onAppointmentSaved(new Appointment(1001, patient, doctor, START - MINUTE, 30,
+                Appointment.Status.ACTIVE, 1));
+
+        // Test that a late reminder goes out with the next tick
+        assertEquals(1, reminders.tick());
+        assertEquals(1000, batches.get(0).get(0).getAppointmentId());
+
+        // Test that everything due within one tick goes to the sink in one batch
+        now.set(START + 6 * MINUTE);
+        assertEquals(500, reminders.tick());
+        assertAll(
+                () -> assertEquals(2, batches.size()),
+                () -> assertEquals(500, batches.get(1).size()),
+                () -> assertEquals(0, reminders.getPendingCount())
+        );
+    }
+
+    @Test
+    void fileSink() throws IOException {
+        Path file = dir.resolve("reminders.log");
+        ReminderSink sink = ReminderSink.toFile(file);
+        sink.send(List.of(new Appointment(7, patient, doctor, START, 30, Appointment.Status.ACTIVE, 1)));
+        sink.send(List.of(new Appointment(8, patient, doctor, START, 30, Appointment.Status.ACTIVE, 1)));
+
+        List<String> lines = Files.readAllLines(file);
+        assertAll(
+                // Test that each reminder is appended as its own line
+                () -> assertEquals(2, lines.size()),
+                () -> assertTrue(lines.get(0).endsWith("reminder: appointment 7 for patient 1 with doctor 2 at 2023-11-14T22:14:00Z")),
+                () -> assertTrue(lines.get(1).contains("appointment 8"))
+        );
+    }
+}
@@ -1,9 +1,21 @@
 package edu.secourse.services;
 
+import edu.secourse.exceptions.DuplicateUserException;
+import edu.secourse.models.Admin;
+import edu.secourse.models.Doctor;
 import edu.secourse.models.Patient;
 import edu.secourse.models.User;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class UserServiceTest {
@@ -124,4 +136,330 @@ class UserServiceTest {
                 () -> assertTrue(service.deleteUser(user1.getAccNum()))
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void concurrentStress() throws Exception {
+        final UserService service = new UserService();
+        final int threads = 8;
+        final int usersPerThread = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        // Each thread creates users, reads and updates them, then deletes every other one
+        List<Callable<List<User>>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                List<User> kept = new ArrayList<>();
+                for (int i = 0; i < usersPerThread; i++) {
+                    User user = service.createUser("user" + thread + "_" + i, "Password1!", "User", "u" + thread + "_" + i + "@test.com", "patient");
+                    assertSame(user, service.getUser(user.getAccNum()));
+                    user.setName("Updated");
+                    service.updateUser(user);
+                    if (i % 2 == 0) {
+                        assertTrue(service.deleteUser(user.getAccNum()));
+                        assertNull(service.getUser(user.getAccNum()));
+                    } else {
+                        kept.add(user);
+                    }
+                }
+                return kept;
+            });
+        }
+
+        HashSet<Integer> ids = new HashSet<>();
+        for (Future<List<User>> future : pool.invokeAll(tasks)) {
+            for (User user : future.get()) {
+                // Test that no two threads were handed the same id
+                assertTrue(ids.add(user.getAccNum()));
+                // Test that every surviving user is still stored
+                assertSame(user, service.getUser(user.getAccNum()));
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(threads * usersPerThread / 2, ids.size());
+    }
+
+    @Test
+    void uniqueKeys() {
+        final UserService service = new UserService();
+        User user1 = service.createUser("username1", "Password1!", "User One", "user1@test.com", "patient");
+        User user2 = service.createUser("username2", "Password1!", "User Two", "user2@test.com", "patient");
+
+        assertAll(
+                // Test that a username is taken regardless of case or surrounding spaces
+                () -> assertThrows(DuplicateUserException.class, () -> service.createUser(
+                        " USERNAME1 ", "Password1!", "User", "other@test.com", "patient")),
+                // Test that an email address is taken regardless of case
+                () -> assertThrows(DuplicateUserException.class, () -> service.createUser(
+                        "other", "Password1!", "User", "User1@Test.com", "patient")),
+                // Test that a refused user claims neither key
+                () -> assertNull(service.findByUsername("other")),
+                // Test that users can be found by either key
+                () -> assertSame(user1, service.findByUsername("UserName1")),
+                () -> assertSame(user2, service.findByEmail("USER2@test.com")),
+                () -> assertNull(service.findByEmail("nobody@test.com"))
+        );
+    }
+
+    @Test
+    void uniqueKeysOnUpdateAndDelete() {
+        final UserService service = new UserService();
+        User user1 = service.createUser("username1", "Password1!", "User One", "user1@test.com", "patient");
+        User user2 = service.createUser("username2", "Password1!", "User Two", "user2@test.com", "patient");
+
+        // Test that a user cannot be renamed to another user's username
+        User renamed = new Patient(user2.getAccNum(), "username1", "Password1!", "User Two", "user2@test.com");
+        assertThrows(DuplicateUserException.class, () -> service.updateUser(renamed));
+        assertSame(user2, service.findByUsername("username2"));
+
+        // Test that a rename frees the old username
+        user1.setUsername("renamed1");
+        service.updateUser(user1);
+        assertAll(
+                () -> assertSame(user1, service.findByUsername("renamed1")),
+                () -> assertNull(service.findByUsername("username1"))
+        );
+
+        // Test that deleting a user frees both keys
+        assertTrue(service.deleteUser(user2.getAccNum()));
+        assertAll(
+                () -> assertNull(service.findByUsername("username2")),
+                () -> assertDoesNotThrow(() -> service.createUser(
+                        "username2", "Password1!", "User Two", "user2@test.com", "patient"))
+        );
+    }
+
+    @Test
+    void concurrentCreatesOfOneUsername() throws Exception {
+        final UserService service = new UserService();
+        final int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Every thread races to create the same username with its own email address
+        List<Callable<User>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                start.await();
+                try {
+                    return service.createUser("racer", "Password1!", "User", "racer" + thread + "@test.com", "patient");
+                } catch (DuplicateUserException ex) {
+                    return null;
+                }
+            });
+        }
+        List<Future<User>> futures = new ArrayList<>();
+        for (Callable<User> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        start.countDown();
+
+        List<User> winners = new ArrayList<>();
+        for (Future<User> future : futures) {
+            User user = future.get();
+            if (user != null) {
+                winners.add(user);
+            }
+        }
+        pool.shutdown();
+
+        assertAll(
+                // Test that exactly one thread won the username
+                () -> assertEquals(1, winners.size()),
+                () -> assertSame(winners.get(0), service.findByUsername("racer")),
+                // Test that the losers left no email address behind
+                () -> assertEquals(1, countUsers(service))
+        );
+    }
+
+    @Test
+    void searchUsers() {
+        final UserService service = new UserService();
+        User alice = service.createUser("aTech", "Password1!", "Alice Sanchez", "alice@test.com", "patient");
+        User alicia = service.createUser("akeys", "Password1!", "Alicia Keys", "alicia@test.com", "patient");
+        service.createUser("bstone", "Password1!", "Bob Stone", "bob@test.com", "doctor");
+
+        assertAll(
+                // Test that users are found by a partial name, best match first
+                () -> assertEquals(List.of(alice, alicia), service.searchUsers("alice", 10)),
+                // Test that users are found by a misspelled name
+                () -> assertEquals(List.of(alice), service.searchUsers("sanchex", 10))
+        );
+
+        // Test that the index follows renames and deletes
+        alice.setName("Alice Walker");
+        service.updateUser(alice);
+        assertTrue(service.deleteUser(alicia.getAccNum()));
+        assertAll(
+                () -> assertEquals(List.of(), service.searchUsers("sanchez", 10)),
+                () -> assertEquals(List.of(alice), service.searchUsers("alic walk", 10))
+        );
+    }
+
+    @Test
+    void rolePartitions() {
+        final UserService service = new UserService();
+        User patient = service.createUser("patient1", "Password1!", "Pat", "pat@test.com", "patient");
+        User doctor = service.createUser("doctor1", "Password1!", "Doc", "doc@test.com", "doctor");
+        User admin = service.createUser("admin1", "Password1!", "Ad", "ad@test.com", "admin");
+
+        List<Doctor> doctors = new ArrayList<>();
+        service.forEachDoctor(doctors::add);
+        assertAll(
+                // Test that typed lookups find users of their own role only
+                () -> assertSame(patient, service.getPatient(patient.getAccNum())),
+                () -> assertNull(service.getPatient(doctor.getAccNum())),
+                () -> assertSame(doctor, service.getDoctor(doctor.getAccNum())),
+                () -> assertNull(service.getDoctor(admin.getAccNum())),
+                () -> assertSame(admin, service.getAdmin(admin.getAccNum())),
+                () -> assertNull(service.getAdmin(-1)),
+                // Test that iterating a role visits only that role
+                () -> assertEquals(List.of(doctor), doctors),
+                () -> assertEquals(1, service.getPatientCount())
+        );
+
+        // Test that an update cannot change a user's role
+        Patient impostor = new Patient(doctor.getAccNum(), "doctor1", "Password1!", "Doc", "doc@test.com");
+        assertThrows(RuntimeException.class, () -> service.updateUser(impostor));
+        assertSame(doctor, service.getDoctor(doctor.getAccNum()));
+
+        // Test that restoring a user under another role moves it to that role's partition
+        Admin promoted = new Admin(patient.getAccNum(), "patient1", "Password1!", "Pat", "pat@test.com");
+        service.restoreUser(promoted);
+        assertAll(
+                () -> assertNull(service.getPatient(patient.getAccNum())),
+                () -> assertSame(promoted, service.getAdmin(patient.getAccNum())),
+                () -> assertEquals(0, service.getPatientCount()),
+                () -> assertEquals(2, service.getAdminCount())
+        );
+
+        // Test that deleting a user removes it from its partition
+        assertTrue(service.deleteUser(doctor.getAccNum()));
+        assertAll(
+                () -> assertNull(service.getDoctor(doctor.getAccNum())),
+                () -> assertEquals(0, service.getDoctorCount())
+        );
+    }
+
+    @Test
+    void passwords() {
+        final UserService service = new UserService();
+        User user = service.createUser("username1", "Password1!", "User One", "user1@test.com", "patient");
+
+        assertAll(
+                // Test that the password is stored hashed
+                () -> assertTrue(PasswordHasher.isHash(user.getPassword())),
+                // Test that the password can be checked by username
+                () -> assertTrue(service.verifyPassword("USERNAME1", "Password1!")),
+                () -> assertFalse(service.verifyPassword("username1", "Password2!")),
+                () -> assertFalse(service.verifyPassword("nobody", "Password1!"))
+        );
+
+        // Test that a changed password replaces the old one
+        service.changePassword(user.getAccNum(), "Password2!");
+        assertAll(
+                () -> assertTrue(service.verifyPassword("username1", "Password2!")),
+                () -> assertFalse(service.verifyPassword("username1", "Password1!")),
+                () -> assertThrows(RuntimeException.class, () -> service.changePassword(user.getAccNum() + 1, "x"))
+        );
+
+        // Test that a bad role is refused before any hashing, here with a hasher that can no longer hash
+        PasswordHasher closed = new PasswordHasher(1, 1);
+        closed.close();
+        UserService noHashing = new UserService(new PermutationIdAllocator(), new InMemoryUserRepository(), closed);
+        RuntimeException badRole = assertThrows(RuntimeException.class,
+                () -> noHashing.createUser("username3", "Password3!", "User Three", "user3@test.com", "nurse"));
+        assertEquals("Invalid role for user: nurse", badRole.getMessage());
+
+        // Test that a password saved before hashing is hashed when it is loaded, and still works
+        service.restoreUser(new Patient(500, "legacy", "Password3!", "Legacy", "legacy@test.com"));
+        assertAll(
+                () -> assertTrue(PasswordHasher.isHash(service.getUser(500).getPassword())),
+                () -> assertTrue(service.verifyPassword("legacy", "Password3!")),
+                () -> assertFalse(service.verifyPassword("legacy", "Password4!"))
+        );
+    }
+
+    @Test
+    void updateUserAtomically() throws Exception {
+        final UserService service = new UserService();
+        User stored = service.createUser("username1", "Password1!", "0", "user1@test.com", "patient");
+        service.createUser("username2", "Password2!", "User Two", "user2@test.com", "patient");
+        int id = stored.getAccNum();
+
+        // every thread bumps the count held in the name; a lost update would leave it short
+        int threads = 8;
+        int rounds = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        service.updateUser(id, user -> {
+                            user.setName(String.valueOf(Integer.parseInt(user.getName()) + 1));
+                            return user;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThrows(DuplicateUserException.class, () -> service.updateUser(id, user -> {
+            user.setUsername("USERNAME2");
+            return user;
+        }));
+        assertAll(
+                // Test that concurrent updates of one user are not lost
+                () -> assertEquals(String.valueOf(threads * rounds), service.getUser(id).getName()),
+                // Test that updates are made to a copy, never to the user others already hold
+                () -> assertEquals("0", stored.getName()),
+                // Test that a rejected update leaves the stored user as it was
+                () -> assertEquals("username1", service.getUser(id).getUsername()),
+                () -> assertEquals(id, service.findByUsername("username1").getAccNum()),
+                // Test that an update cannot change the role or account number
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> service.updateUser(id, user -> new Doctor(id, "username1", "x", "Doc", "user1@test.com"))),
+                () -> assertThrows(RuntimeException.class, () -> service.updateUser(id + 1, user -> user))
+        );
+    }
+
+    @Test
+    void importedIdsThenCreate() {
+        PermutationIdAllocator allocator = new PermutationIdAllocator(427, 0);
+        final UserService service = new UserService(allocator);
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            batch.add(new Patient(i, "imported" + i, "Password1!", "Imported", "imported" + i + "@test.com"));
+        }
+        assertTrue(service.importUsers(batch).isEmpty());
+
+        HashSet<Integer> created = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            created.add(service.createUser("created" + i, "Password1!", "Created", "created" + i + "@test.com",
+                    "patient").getAccNum());
+        }
+
+        assertAll(
+                // Test that new users never take an imported id
+                () -> assertEquals(1000, created.size()),
+                () -> assertTrue(created.stream().allMatch(id -> id >= 100_000)),
+                () -> assertEquals(101_000, countUsers(service)),
+                // Test that importing ids from elsewhere does not use up the id range
+                () -> assertTrue(allocator.getCounter() < 2000)
+        );
+    }
+
+    private static int countUsers(UserService service) {
+        int[] count = {0};
+        service.forEachUser(user -> count[0]++);
+        return count[0];
+    }
+}
@@ -0,0 +1,59 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedVirtualExecutorTest {
+    @Test
+    void limitsConcurrentTasks() throws Exception {
+        BoundedVirtualExecutor executor = new BoundedVirtualExecutor("test", 8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int value = i;
+            futures.add(executor.call(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(1);
+                running.decrementAndGet();
+                return value;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+
+        executor.shutdown();
+        assertAll(
+                // Test that every task ran and no more than the limit ran at once
+                () -> assertEquals(1999, futures.get(1999).join()),
+                () -> assertTrue(maxRunning.get() <= 8, "max running " + maxRunning.get()),
+                () -> assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES))
+        );
+    }
+
+    @Test
+    void failuresAreNotWrapped() {
+        BoundedVirtualExecutor executor = new BoundedVirtualExecutor("test", 1);
+        CompletableFuture<Object> future = executor.call(() -> {
+            throw new IOException("disk full");
+        });
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.MINUTES));
+        assertAll(
+                // Test that the task's own exception is the cause
+                () -> assertInstanceOf(IOException.class, ex.getCause()),
+                () -> assertEquals("disk full", ex.getCause().getMessage()),
+                // Test that a bad limit is rejected
+                () -> assertThrows(IllegalArgumentException.class, () -> new BoundedVirtualExecutor("test", 0))
+        );
+    }
+}
@@ -0,0 +1,83 @@
+package edu.secourse.types;
+
+import edu.secourse.exceptions.InvalidArgumentException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandRouterTest {
+    @Test
+    void parseMatchesCommandAndSplitsArgs() {
+        CommandRouter<StringBuilder> router = new CommandRouter<>();
+        router.register("user name", (log, args, out) -> log.append(args.getInt(0)).append(':').append(args.getRest(1)));
+        router.register("user names", (log, args, out) -> log.append("names"));
+        router.register("user", (log, args, out) -> log.append("user"));
+
+        CommandRouter.Invocation<StringBuilder> invocation = router.parse("user name 42  Jane   Doe ");
+        StringBuilder log = new StringBuilder();
+        invocation.run(log, System.out);
+
+        assertAll(
+                // Test that the longest command followed by a space is matched
+                () -> assertEquals("user name", invocation.getName()),
+                () -> assertEquals("user names", router.parse("user names").getName()),
+                () -> assertEquals("user", router.parse("user nam 1").getName()),
+                // Test that unknown commands and partial words do not match
+                () -> assertNull(router.parse("users")),
+                () -> assertNull(router.parse("appt show 1")),
+                // Test that runs of spaces separate arguments and the rest keeps inner spacing
+                () -> assertEquals(3, invocation.getArgs().size()),
+                () -> assertEquals("Jane", invocation.getArgs().getString(1)),
+                () -> assertEquals("42:Jane   Doe", log.toString()),
+                () -> assertEquals("", invocation.getArgs().getRest(3))
+        );
+    }
+
+    @Test
+    void typedArgs() {
+        CommandRouter<Object> router = new CommandRouter<>();
+        router.register("appt date", (environment, args, out) -> out.print(args.getDate(1).getTime()));
+        CommandRouter.Args args = router.parse("appt date x7 Nov 14 2025 10:30").getArgs();
+
+        @SuppressWarnings("deprecation")
+        Date expected = new Date("Nov 14 2025 10:30");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        router.parse("appt date 7 Nov 14 2025 10:30").run(null, new PrintStream(bytes, true));
+
+        assertAll(
+                // Test that dates may span several arguments
+                () -> assertEquals(expected, args.getDate(1)),
+                () -> assertEquals(Long.toString(expected.getTime()), bytes.toString()),
+                // Test that bad or missing arguments are reported by position
+                () -> assertEquals("Argument 1 must be a number: x7",
+                        assertThrows(InvalidArgumentException.class, () -> args.getInt(0)).getMessage()),
+                () -> assertEquals("Missing argument 6.",
+                        assertThrows(InvalidArgumentException.class, () -> args.getString(5)).getMessage()),
+                () -> assertThrows(InvalidArgumentException.class, () -> args.getDate(0))
+        );
+    }
+
+    @Test
+    void completeListsCommandsWithPrefix() {
+        CommandRouter<Object> router = new CommandRouter<>();
+        for (String name : new String[] {"user show", "appt show", "user create", "appt cancel", "appt create"}) {
+            router.register(name, (environment, args, out) -> { });
+        }
+
+        assertAll(
+                // Test that completions are sorted and limited to the prefix
+                () -> assertEquals(List.of("appt cancel", "appt create"), router.complete("appt c")),
+                () -> assertEquals(List.of("user create", "user show"), router.complete("user")),
+                () -> assertEquals(5, router.complete("").size()),
+                () -> assertEquals(List.of(), router.complete("user x")),
+                // Test that a command cannot be registered twice
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> router.register("user show", (environment, args, out) -> { }))
+        );
+    }
+}
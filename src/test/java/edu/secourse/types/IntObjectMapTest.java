@@ -0,0 +1,63 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntObjectMapTest {
+    @Test
+    void putGetRemove() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertAll(
+                // Test that a new key has no previous value
+                () -> assertNull(map.put(5, "five")),
+                // Test that replacing a key returns the previous value
+                () -> assertEquals("five", map.put(5, "FIVE")),
+                // Test that the value can be retrieved
+                () -> assertEquals("FIVE", map.get(5)),
+                // Test that negative keys work
+                () -> assertNull(map.put(-1, "minus one")),
+                () -> assertEquals("minus one", map.get(-1)),
+                () -> assertEquals(2, map.size()),
+                // Test that removing returns the removed value
+                () -> assertEquals("FIVE", map.remove(5)),
+                () -> assertNull(map.get(5)),
+                // Test that removing a missing key does nothing
+                () -> assertNull(map.remove(5)),
+                () -> assertEquals(1, map.size())
+        );
+    }
+
+    @Test
+    void nullValuesRejected() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(427);
+
+        // A small key range forces long probe runs, collisions and backward shifts on removal
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(2048) - 1024;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -1024; key < 1024; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
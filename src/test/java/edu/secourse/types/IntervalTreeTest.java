@@ -0,0 +1,60 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntervalTreeTest {
+    @Test
+    void findOverlap() {
+        IntervalTree tree = new IntervalTree();
+        tree.insert(10, 20, 1);
+        tree.insert(30, 40, 2);
+
+        assertAll(
+                // Test that touching intervals do not overlap
+                () -> assertEquals(IntervalTree.NONE, tree.findOverlap(20, 30)),
+                // Test that partial overlaps are found
+                () -> assertEquals(1, tree.findOverlap(15, 25)),
+                () -> assertEquals(2, tree.findOverlap(25, 35)),
+                // Test that a free slot skips over booked intervals
+                () -> assertEquals(20, tree.findFreeStart(10, 10)),
+                () -> assertEquals(40, tree.findFreeStart(10, 11)),
+                // Test that removal frees the interval
+                () -> assertTrue(tree.remove(10, 1)),
+                () -> assertFalse(tree.remove(10, 1)),
+                () -> assertEquals(IntervalTree.NONE, tree.findOverlap(15, 25))
+        );
+    }
+
+    @Test
+    void matchesLinearScanUnderRandomOperations() {
+        IntervalTree tree = new IntervalTree();
+        ArrayList<long[]> expected = new ArrayList<>();
+        Random random = new Random(427);
+
+        for (int id = 0; id < 5000; id++) {
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                long[] removed = expected.remove(random.nextInt(expected.size()));
+                assertTrue(tree.remove(removed[0], (int) removed[2]));
+            } else {
+                long start = random.nextInt(10_000);
+                long[] interval = {start, start + 1 + random.nextInt(50), id};
+                expected.add(interval);
+                tree.insert(interval[0], interval[1], id);
+            }
+
+            long start = random.nextInt(10_000);
+            long end = start + 1 + random.nextInt(50);
+            boolean overlaps = false;
+            for (long[] interval : expected) {
+                overlaps |= interval[0] < end && interval[1] > start;
+            }
+            assertEquals(overlaps, tree.findOverlap(start, end) != IntervalTree.NONE);
+        }
+        assertEquals(expected.size(), tree.size());
+    }
+}
@@ -0,0 +1,101 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+    @Test
+    void exactAndPrefixMatches() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Alice Sanchez", "aTech");
+        index.put(2, "Alicia Keys", "akeys");
+        index.put(3, "Bob Stone", "bstone");
+
+        assertAll(
+                // Test that a whole word ranks before a word it only starts
+                () -> assertArrayEquals(new int[]{1, 2}, index.search("alic", 10)),
+                () -> assertArrayEquals(new int[]{1, 2}, index.search("Alice", 10)),
+                // Test that case and accents are ignored
+                () -> assertArrayEquals(new int[]{1}, index.search("SÁNCHEZ", 10)),
+                // Test that usernames are searched too
+                () -> assertArrayEquals(new int[]{3}, index.search("bston", 10)),
+                // Test that every query word must match
+                () -> assertArrayEquals(new int[]{2}, index.search("ali keys", 10)),
+                () -> assertArrayEquals(new int[0], index.search("alice stone", 10)),
+                // Test that the limit keeps the best results
+                () -> assertArrayEquals(new int[]{1}, index.search("alic", 1)),
+                () -> assertArrayEquals(new int[0], index.search("  ", 10))
+        );
+    }
+
+    @Test
+    void fuzzyMatches() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Jonathan Smith");
+        index.put(2, "Johnathan Smyth");
+        index.put(3, "Jon Smit");
+
+        assertAll(
+                // Test that words one typo away still match, ranked below an exact match
+                () -> assertArrayEquals(new int[]{1, 2, 3}, index.search("smith", 10)),
+                // Test that a misspelled prefix matches
+                () -> assertArrayEquals(new int[]{1}, index.search("jonht", 10)),
+                // Test that two typos are allowed in long words, but not three
+                () -> assertArrayEquals(new int[]{2}, index.search("johnatahn", 10)),
+                // Test that short words are not matched fuzzily
+                () -> assertArrayEquals(new int[0], index.search("jan", 10))
+        );
+    }
+
+    @Test
+    void updatesAndRemoves() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Mark Stone");
+        index.put(2, "Chester Stone");
+
+        // Test that re-indexing an id replaces its old words
+        index.put(1, "Marcus Hill");
+        assertAll(
+                () -> assertArrayEquals(new int[]{2}, index.search("stone", 10)),
+                () -> assertArrayEquals(new int[]{1}, index.search("hill", 10))
+        );
+
+        // Test that a removed id is no longer found
+        assertTrue(index.remove(2));
+        assertFalse(index.remove(2));
+        assertAll(
+                () -> assertArrayEquals(new int[0], index.search("stone", 10)),
+                () -> assertEquals(1, index.size())
+        );
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random random = new Random(7);
+        String[] first = {"anna", "annette", "bernard", "bernadette", "carl", "carla", "dmitri", "dominic"};
+        String[] last = {"smith", "smyth", "schmidt", "jones", "johnson", "jonsson", "nguyen", "ngo"};
+        String[] names = new String[500];
+        NameIndex index = new NameIndex();
+        for (int id = 0; id < names.length; id++) {
+            names[id] = first[random.nextInt(first.length)] + " " + last[random.nextInt(last.length)];
+            index.put(id, names[id]);
+        }
+        for (int id = 0; id < names.length; id += 3) {
+            index.remove(id);
+        }
+
+        // Test that short queries find exactly the remaining ids with a word starting with the query
+        for (String query : new String[]{"an", "ber", "sm", "jon", "ng", "car", "d"}) {
+            int expected = 0;
+            for (int id = 0; id < names.length; id++) {
+                if (id % 3 != 0 && (names[id].startsWith(query) || names[id].contains(" " + query))) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, index.search(query, names.length).length, query);
+        }
+    }
+}
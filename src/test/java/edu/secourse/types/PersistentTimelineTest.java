@@ -0,0 +1,83 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentTimelineTest {
+    @Test
+    void olderVersionsAreUnchanged() {
+        PersistentTimeline<String> empty = PersistentTimeline.empty();
+        PersistentTimeline<String> one = empty.with(10, 1, "a");
+        PersistentTimeline<String> two = one.with(5, 2, "b");
+        PersistentTimeline<String> replaced = two.with(10, 1, "c");
+        PersistentTimeline<String> removed = replaced.without(5, 2);
+
+        assertAll(
+                // Test that each version keeps its own contents
+                () -> assertTrue(empty.isEmpty()),
+                () -> assertEquals(List.of("a"), values(one)),
+                () -> assertEquals(List.of("b", "a"), values(two)),
+                () -> assertEquals(List.of("b", "c"), values(replaced)),
+                () -> assertEquals(List.of("c"), values(removed)),
+                // Test that removing a missing key returns the same timeline
+                () -> assertSame(removed, removed.without(5, 2)),
+                () -> assertEquals("c", replaced.get(10, 1)),
+                () -> assertNull(replaced.get(10, 2))
+        );
+    }
+
+    @Test
+    void matchesTreeMapUnderRandomOperations() {
+        PersistentTimeline<Integer> timeline = PersistentTimeline.empty();
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        Random random = new Random(427);
+
+        for (int i = 0; i < 20_000; i++) {
+            // times are few and ids many, so equal times are ordered by id
+            long time = random.nextInt(200);
+            int id = random.nextInt(100);
+            long key = time * 1000 + id;
+            if (random.nextInt(3) == 0) {
+                timeline = timeline.without(time, id);
+                expected.remove(key);
+            } else {
+                timeline = timeline.with(time, id, i);
+                expected.put(key, i);
+            }
+        }
+
+        ArrayList<Integer> between = new ArrayList<>();
+        timeline.forEachBetween(50, 120, between::add);
+        ArrayList<Integer> next = new ArrayList<>();
+        timeline.forEachFrom(150, value -> {
+            next.add(value);
+            return next.size() < 25;
+        });
+
+        final PersistentTimeline<Integer> last = timeline;
+        assertAll(
+                () -> assertEquals(expected.size(), last.size()),
+                () -> assertEquals(new ArrayList<>(expected.values()), values(last)),
+                // Test that range scans include the start and exclude the end
+                () -> assertEquals(new ArrayList<>(expected.subMap(50_000L, 120_000L).values()), between),
+                // Test that forEachFrom stops when asked
+                () -> assertEquals(expected.tailMap(150_000L).values().stream().limit(25).toList(), next)
+        );
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), last.get(entry.getKey() / 1000, (int) (entry.getKey() % 1000)));
+        }
+    }
+
+    private static <V> List<V> values(PersistentTimeline<V> timeline) {
+        ArrayList<V> values = new ArrayList<>();
+        timeline.forEach(values::add);
+        return values;
+    }
+}
@@ -0,0 +1,108 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    @Test
+    void scheduleAndAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(100);
+        wheel.schedule(105, "soon");
+        wheel.schedule(100 + 64 * 64 + 3, "later");
+        wheel.schedule(90, "overdue");
+        TimingWheel.Timer<String> cancelled = wheel.schedule(110, "cancelled");
+
+        assertAll(
+                // Test that cancelling a waiting value works once
+                () -> assertTrue(wheel.cancel(cancelled)),
+                () -> assertFalse(wheel.cancel(cancelled)),
+                () -> assertFalse(cancelled.isScheduled()),
+                () -> assertEquals(3, wheel.size()),
+                // Test that an overdue value falls due at the next advance, even without moving
+                () -> assertEquals(List.of("overdue"), wheel.advance(100)),
+                // Test that values fall due exactly at their tick, not before
+                () -> assertEquals(List.of(), wheel.advance(104)),
+                () -> assertEquals(List.of("soon"), wheel.advance(105)),
+                // Test that a value on a higher level moves down and falls due on time
+                () -> assertEquals(List.of(), wheel.advance(100 + 64 * 64 + 2)),
+                () -> assertEquals(List.of("later"), wheel.advance(100 + 64 * 64 + 3)),
+                () -> assertTrue(wheel.isEmpty())
+        );
+    }
+
+    @Test
+    void emptyWheelSkipsAhead() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+
+        // Test that an empty wheel jumps straight to the tick
+        assertEquals(List.of(), wheel.advance(Long.MAX_VALUE / 2));
+        assertEquals(Long.MAX_VALUE / 2, wheel.getCurrentTick());
+
+        // Test that values far ahead still fall due on time
+        long tick = wheel.getCurrentTick() + 64L * 64 * 64 * 64 * 64;
+        wheel.schedule(tick, "far");
+        wheel.schedule(tick + 1, "farther");
+        assertEquals(List.of(), wheel.advance(tick - 1));
+        assertEquals(List.of("far"), wheel.advance(tick));
+        assertEquals(List.of("farther"), wheel.advance(tick + 1));
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random random = new Random(42);
+        TimingWheel<Integer> wheel = new TimingWheel<>(0);
+        Map<Integer, TimingWheel.Timer<Integer>> timers = new HashMap<>();
+        Map<Integer, Long> expected = new HashMap<>();
+        int next = 0;
+        long now = 0;
+
+        for (int step = 0; step < 2000; step++) {
+            // schedule some values at mixed distances, cancel a few, then advance by a random amount
+            for (int i = 0; i < 20; i++) {
+                long delay = switch (random.nextInt(3)) {
+                    case 0 -> random.nextInt(64);
+                    case 1 -> random.nextInt(64 * 64);
+                    default -> random.nextInt(64 * 64 * 64);
+                };
+                timers.put(next, wheel.schedule(now + delay, next));
+                expected.put(next, now + delay);
+                next++;
+            }
+            for (int i = 0; i < 5 && !timers.isEmpty(); i++) {
+                int id = random.nextInt(next);
+                TimingWheel.Timer<Integer> timer = timers.remove(id);
+                if (timer != null) {
+                    assertTrue(wheel.cancel(timer));
+                    expected.remove(id);
+                }
+            }
+
+            now += random.nextInt(200);
+            List<Integer> due = wheel.advance(now);
+            List<Integer> shouldBeDue = new ArrayList<>();
+            for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+                if (entry.getValue() <= now) {
+                    shouldBeDue.add(entry.getKey());
+                }
+            }
+            for (Integer id : shouldBeDue) {
+                expected.remove(id);
+                timers.remove(id);
+            }
+
+            // Test that exactly the values whose tick has passed fall due, each once
+            Collections.sort(due);
+            Collections.sort(shouldBeDue);
+            assertEquals(shouldBeDue, due);
+            assertEquals(expected.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.secourse.types;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserValidatorTest {
+    // Inputs that probe the edges of each rule
+    String[] passwords = {"grabtooski4321", "password", "12345678", "pass1", "abc\n12345", "éééé١١١١", "a1      ", "A".repeat(127) + "1", "A".repeat(128) + "1"};
+    String[] names = {"John Jim", "john Jim", "La4she_ Doe", "A", "José", "J  ", " John", ""};
+    String[] emails = {"a@b.c", "john_1@company.com", "a@b.c.d", "a@b", "@b.c", "a@.c", "a@b.", "a.b@c.d", "a@b.c ", "é@b.c"};
+
+    @Test
+    void matchesRegexRules() {
+        for (String password : passwords) {
+            boolean expected = password.length() >= 8 && password.length() <= 128
+                    && password.matches(".*[a-zA-Z].*") && password.matches(".*\\d.*");
+            assertEquals(expected, UserValidator.isValidPassword(password), password);
+        }
+        for (String name : names) {
+            boolean expected = !name.isEmpty() && Character.isUpperCase(name.charAt(0)) && name.matches("[a-zA-Z ]+");
+            assertEquals(expected, UserValidator.isValidName(name), name);
+        }
+        for (String email : emails) {
+            assertEquals(email.matches("\\w+@\\w+\\.\\w+"), UserValidator.isValidEmail(email), email);
+        }
+    }
+
+    @Test
+    void reportsEveryInvalidField() {
+        int errors = UserValidator.validate("", "short", "lowercase", "not an email");
+
+        assertAll(
+                // Test that a valid user has no errors
+                () -> assertEquals(0, UserValidator.validate("jdoe", "tester7854", "John Doe", "jdoe@test.com")),
+                // Test that every invalid field is flagged
+                () -> assertEquals(UserValidator.USERNAME | UserValidator.PASSWORD | UserValidator.NAME | UserValidator.EMAIL, errors),
+                // Test that the message names every invalid field
+                () -> assertEquals("Username is formatted incorrectly. Password is formatted incorrectly. "
+                        + "Name is formatted incorrectly. Email address is formatted incorrectly.", UserValidator.describe(errors)),
+                // Test that missing fields are invalid rather than throwing
+                () -> assertEquals(UserValidator.PASSWORD, UserValidator.validate("jdoe", null, "John Doe", "jdoe@test.com"))
+        );
+    }
+}